@@ -0,0 +1,84 @@
+package battlecode.instrumenter;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures how long the instrumenter takes per class, by instrumenting the
+ * sample players over and over.
+ *
+ * Run it with the engine's bench task (or through main()) and compare the
+ * numbers. Pass a team directory or jar to instrument that instead. Every
+ * pass uses a fresh factory, so nothing but the JDK classes and the method
+ * cost tables is reused between passes.
+ */
+public class InstrumentationBenchmark {
+
+    /**
+     * The packages of the samples, which are compiled along with the tests.
+     */
+    private static final String[] SAMPLE_PACKAGES = {"instrumentertest.", "shared.", "testplayer"};
+
+    private static final int WARMUP_PASSES = 20;
+    private static final int PASSES = 50;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            new InstrumentationBenchmark().instrument(args[0], "");
+        } else {
+            new InstrumentationBenchmark().instrumentSamples();
+        }
+    }
+
+    @Test
+    public void instrumentSamples() throws Exception {
+        final URL sample = InstrumentationBenchmark.class.getResource("/shared/SharedUtility.class");
+        final File root = new File(sample.toURI()).getParentFile().getParentFile();
+        instrument(root.getPath(), SAMPLE_PACKAGES);
+    }
+
+    private void instrument(String teamURL, String... prefixes) throws Exception {
+        final List<String> all = TeamClassLoaderFactory.listClasses(TeamClassLoaderFactory.getFilesystemURL(teamURL));
+        all.removeIf((name) -> Arrays.stream(prefixes).noneMatch(name::startsWith));
+
+        for (int i = 0; i < WARMUP_PASSES; i++) {
+            pass(teamURL, all);
+        }
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        int instrumented = 0;
+        for (int i = 0; i < PASSES; i++) {
+            final long start = System.nanoTime();
+            instrumented = pass(teamURL, all);
+            final long time = System.nanoTime() - start;
+            best = Math.min(best, time);
+            total += time;
+        }
+
+        System.out.printf("%d classes (%d failed)%n", instrumented, all.size() - instrumented);
+        System.out.printf("%-8s %10.1f us/class%n", "mean", total / 1000.0 / PASSES / instrumented);
+        System.out.printf("%-8s %10.1f us/class%n", "best", best / 1000.0 / instrumented);
+    }
+
+    /**
+     * @return how many of the classes could be instrumented
+     */
+    private static int pass(String teamURL, List<String> classNames) {
+        final TeamClassLoaderFactory factory = new TeamClassLoaderFactory(teamURL);
+        final TeamClassLoaderFactory.Loader loader = factory.createLoader(false);
+        int instrumented = 0;
+        for (String name : classNames) {
+            try {
+                loader.instrument(factory.teamReader(name), true, false);
+                instrumented++;
+            } catch (InstrumentationException e) {
+                // some samples are meant to fail
+            }
+        }
+        return instrumented;
+    }
+}
@@ -0,0 +1,99 @@
+package battlecode.instrumenter;
+
+import battlecode.common.RobotController;
+import battlecode.common.Team;
+import battlecode.instrumenter.stream.LimitedPrintStream;
+import battlecode.instrumenter.stream.SilencedPrintStream;
+import battlecode.server.Config;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures what a match's worth of paused robot players costs in platform
+ * threads and resident memory, on platform and on virtual threads.
+ *
+ * Run it with the engine's bench task (or through main()) and compare the
+ * numbers. Virtual threads need a Java 21+ runtime; older ones only report
+ * platform threads. Resident memory is read from /proc, so it's only
+ * reported on Linux, and it's measured in one process: compare the growth
+ * of each mode, not the totals.
+ */
+public class RobotThreadsBenchmark {
+
+    private static final int ROBOTS = 2_000;
+
+    public static void main(String[] args) throws Exception {
+        new RobotThreadsBenchmark().pausedPlayers();
+    }
+
+    @Test
+    public void pausedPlayers() throws Exception {
+        final String oldMode = Config.getGlobalConfig().get("bc.engine.robot-threads");
+        try {
+            if (RobotThreads.virtualAvailable()) {
+                measure(RobotThreads.VIRTUAL);
+            }
+            measure(RobotThreads.PLATFORM);
+        } finally {
+            Config.getGlobalConfig().set("bc.engine.robot-threads", oldMode);
+        }
+    }
+
+    private void measure(String mode) throws Exception {
+        Config.getGlobalConfig().set("bc.engine.robot-threads", mode);
+
+        final TeamClassLoaderFactory factory =
+                new TeamClassLoaderFactory(URLUtils.toTempFolder("testplayerclock/RobotPlayer.class"));
+        final RobotController rc = mock(RobotController.class);
+        when(rc.getTeam()).thenReturn(Team.A);
+
+        System.gc();
+        final int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        final long rssBefore = residentKilobytes();
+
+        final List<SandboxedRobotPlayer> players = new ArrayList<>();
+        for (int i = 0; i < ROBOTS; i++) {
+            SandboxedRobotPlayer player = new SandboxedRobotPlayer("testplayerclock",
+                    rc, 0, factory.createLoader(false), SilencedPrintStream.theInstance(),
+                    new LimitedPrintStream.Budget(-1), null);
+            player.setBytecodeLimit(10000);
+            player.step();
+            players.add(player);
+        }
+        System.gc();
+        final int threads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+        final long rss = residentKilobytes() - rssBefore;
+
+        for (SandboxedRobotPlayer player : players) {
+            player.terminate();
+        }
+
+        System.out.printf("%-9s %d robots: %6d more platform threads, %8d KB more resident%n",
+                mode, ROBOTS, threads, rss);
+    }
+
+    /**
+     * @return the resident set size of this process, or 0 if it can't be read
+     */
+    private static long residentKilobytes() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // not Linux
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,108 @@
+package battlecode.instrumenter;
+
+import org.junit.Test;
+
+/**
+ * Measures the cost of handing a turn from the engine thread to a robot
+ * thread and back, which is paid once per robot per round.
+ *
+ * Run it with the engine's bench task (or through main()) and compare the
+ * numbers. The monitor variant is the notifyAll()/wait() scheme that
+ * SandboxedRobotPlayer used before TurnHandoff.
+ *
+ * @author james
+ */
+public class TurnHandoffBenchmark {
+
+    private static final int WARMUP_STEPS = 200_000;
+    private static final int STEPS = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        new TurnHandoffBenchmark().handoffLatency();
+    }
+
+    @Test
+    public void handoffLatency() throws Exception {
+        monitorRoundTrip(WARMUP_STEPS);
+        report("monitor", monitorRoundTrip(STEPS));
+        for (int spins : new int[] {0, 100, 10_000}) {
+            parkRoundTrip(WARMUP_STEPS, spins);
+            report("park, " + spins + " spins", parkRoundTrip(STEPS, spins));
+        }
+    }
+
+    private static void report(String name, long nanos) {
+        System.out.printf("%-24s %8.1f ns/step%n", name, (double) nanos / STEPS);
+    }
+
+    /**
+     * @return the time taken for the given number of engine -> robot -> engine round trips
+     */
+    private static long parkRoundTrip(int steps, int spins) throws InterruptedException {
+        final TurnHandoff handoff = new TurnHandoff(spins);
+        Thread player = new Thread(() -> {
+            try {
+                for (int i = 0; i < steps; i++) {
+                    handoff.yieldToEngine();
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                handoff.release();
+            }
+        });
+        handoff.start(player);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < steps; i++) {
+            handoff.runPlayer();
+        }
+        long time = System.nanoTime() - start;
+        player.join();
+        return time;
+    }
+
+    /**
+     * Same as parkRoundTrip, using a shared monitor.
+     */
+    private static long monitorRoundTrip(int steps) throws InterruptedException {
+        final Object notifier = new Object();
+        final boolean[] playerTurn = {true};
+        Thread player = new Thread(() -> {
+            try {
+                synchronized (notifier) {
+                    for (int i = 0; i < steps; i++) {
+                        playerTurn[0] = false;
+                        notifier.notifyAll();
+                        while (!playerTurn[0]) {
+                            notifier.wait();
+                        }
+                    }
+                    playerTurn[0] = false;
+                    notifier.notifyAll();
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        long start;
+        synchronized (notifier) {
+            player.start();
+            while (playerTurn[0]) {
+                notifier.wait();
+            }
+            start = System.nanoTime();
+            for (int i = 0; i < steps; i++) {
+                playerTurn[0] = true;
+                notifier.notifyAll();
+                while (playerTurn[0]) {
+                    notifier.wait();
+                }
+            }
+        }
+        long time = System.nanoTime() - start;
+        player.join();
+        return time;
+    }
+}
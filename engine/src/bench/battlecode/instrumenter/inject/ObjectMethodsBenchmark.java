@@ -0,0 +1,86 @@
+package battlecode.instrumenter.inject;
+
+import org.junit.Test;
+
+/**
+ * Measures ObjectMethods.hashCode() on objects that don't override
+ * hashCode(), which is what an instrumented HashSet or HashMap calls for
+ * every add, contains and remove.
+ *
+ * Run it with the engine's bench task (or through main()) and compare the
+ * numbers. "map" is a JDK object, whose code lives in ObjectMethods' weak
+ * identity map; every object took that path before team classes were made
+ * IdentityHashed. "field" is a team object, whose code lives in the object.
+ */
+public class ObjectMethodsBenchmark {
+
+    private static final int OBJECTS = 1_000;
+    private static final int WARMUP_STEPS = 2_000;
+    private static final int STEPS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        new ObjectMethodsBenchmark().hashCodeThroughput();
+    }
+
+    @Test
+    public void hashCodeThroughput() throws Exception {
+        final Object[] plain = new Object[OBJECTS];
+        final Object[] hashed = new Object[OBJECTS];
+        for (int i = 0; i < OBJECTS; i++) {
+            plain[i] = new Object();
+            hashed[i] = new TeamObject();
+        }
+
+        for (int i = 0; i < 3; i++) {
+            ObjectMethods.reset();
+            fill(plain, WARMUP_STEPS);
+            report("map", fill(plain, STEPS));
+            ObjectMethods.reset();
+            fill(hashed, WARMUP_STEPS);
+            report("field", fill(hashed, STEPS));
+        }
+    }
+
+    private static void report(String name, long nanos) {
+        java.lang.System.out.printf("%-8s %8.1f ns/hashCode%n", name, (double) nanos / STEPS / OBJECTS);
+    }
+
+    /**
+     * Hash the objects into a table, as a HashSet would, the given number of times.
+     *
+     * @return the time taken
+     */
+    private static long fill(Object[] objects, int steps) throws NoSuchMethodException {
+        final int[] buckets = new int[Integer.highestOneBit(objects.length) << 1];
+        final long start = java.lang.System.nanoTime();
+        for (int step = 0; step < steps; step++) {
+            for (Object o : objects) {
+                final int h = ObjectMethods.hashCode(o);
+                buckets[(h ^ (h >>> 16)) & (buckets.length - 1)]++;
+            }
+        }
+        final long time = java.lang.System.nanoTime() - start;
+        if (buckets[0] == -1) {
+            // keep the JIT from dropping the loop
+            java.lang.System.out.println();
+        }
+        return time;
+    }
+
+    /**
+     * What the instrumenter makes of a team class that doesn't override hashCode().
+     */
+    private static final class TeamObject implements IdentityHashed {
+        private long identityHash;
+
+        @Override
+        public long __bc_getIdentityHash() {
+            return identityHash;
+        }
+
+        @Override
+        public void __bc_setIdentityHash(long hash) {
+            identityHash = hash;
+        }
+    }
+}
@@ -57,6 +57,8 @@ public final strictfp class MapLocation implements Serializable, Comparable<MapL
      */
     @Override
     public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
         if (!(obj instanceof MapLocation))
             return false;
         return (((MapLocation) obj).x == this.x) && (((MapLocation) obj).y == this.y);
@@ -0,0 +1,306 @@
+package battlecode.instrumenter;
+
+import battlecode.instrumenter.bytecode.MethodCostUtil;
+import battlecode.server.Server;
+import battlecode.server.Version;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+/**
+ * Keeps instrumented classes on disk (bc.engine.class-cache-dir), so that
+ * later runs of the same team can skip instrumentation entirely.
+ *
+ * Entries are addressed by a hash of everything instrumentation depends on:
+ * the original class file, the engine and java versions, the instrumenter's
+ * own classes and resources (so that a rebuilt engine doesn't reuse
+ * entries under an unchanged version), the instrumentation flags, and every
+ * class file in the team's container, since how a class is instrumented
+ * depends on which other classes the team has and what they look like. JDK
+ * classes are instrumented without a team, so their entries are shared by
+ * every team.
+ *
+ * Entries are never changed once written. New ones are written to a
+ * temporary file and moved into place, so several engine processes can
+ * share a cache directory, and a reader never sees half an entry. Each
+ * entry ends with a hash of the class, and one that doesn't match is
+ * ignored.
+ */
+final class InstrumentedClassCache {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    /**
+     * The length of the hash at the end of every entry.
+     */
+    private static final int CHECKSUM_LENGTH = 32;
+
+    /**
+     * The instrumenter's resources, relative to the bytecode package.
+     */
+    private static final String[] RESOURCES = {
+            "resources/MethodCosts.txt",
+            "resources/AllowedPackages.txt",
+            "resources/DisallowedClasses.txt"
+    };
+
+    /**
+     * Hash of the instrumenter's classes and resources; null until the
+     * first cache is opened.
+     */
+    private static byte[] engineDigest;
+
+    /**
+     * The directory entries are kept in.
+     */
+    private final Path dir;
+
+    /**
+     * Hash of the engine and every class file of the team.
+     */
+    private final byte[] baseDigest;
+
+    private InstrumentedClassCache(Path dir, byte[] baseDigest) {
+        this.dir = dir;
+        this.baseDigest = baseDigest;
+    }
+
+    /**
+     * @param dir     the cache directory, or null or empty to not cache
+     * @param teamURL the team's container, a jar file or a directory, or
+     *                null for classes that don't depend on any team
+     * @return a cache for the team's classes, or null if there's no cache
+     *         directory or the team can't be hashed
+     */
+    static InstrumentedClassCache open(String dir, URL teamURL) {
+        if (dir == null || dir.isEmpty()) {
+            return null;
+        }
+        try {
+            final MessageDigest digest = newDigest();
+            update(digest, Version.version);
+            update(digest, System.getProperty("java.version"));
+            digest.update(engineDigest());
+            if (teamURL != null) {
+                hashClasses(digest, Paths.get(teamURL.toURI()), "");
+            }
+            return new InstrumentedClassCache(Paths.get(dir), digest.digest());
+        } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+            Server.debug("Not caching instrumented classes for " + teamURL + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * @param original        the class file before instrumentation
+     * @param checkDisallowed whether disallowed classes are checked for
+     * @param debugMethodsEnabled whether debug methods are run
+     * @param profilerEnabled whether the profiler is enabled
+     * @param pooled          whether static state is made resettable
+     * @param coalesced       whether bytecodes are charged coalesced
+     * @return the key of the instrumented class
+     */
+    String key(byte[] original,
+               boolean checkDisallowed,
+               boolean debugMethodsEnabled,
+               boolean profilerEnabled,
+               boolean pooled,
+               boolean coalesced) {
+        final MessageDigest digest = newDigest();
+        digest.update(baseDigest);
+        digest.update(new byte[] {
+                (byte) (checkDisallowed ? 1 : 0),
+                (byte) (debugMethodsEnabled ? 1 : 0),
+                (byte) (profilerEnabled ? 1 : 0),
+                (byte) (pooled ? 1 : 0),
+                (byte) (coalesced ? 1 : 0)
+        });
+        digest.update(original);
+
+        final StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b & 0xFF));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param key the key of a class
+     * @return the instrumented class, or null if it isn't cached
+     */
+    byte[] get(String key) {
+        try {
+            final byte[] entry = Files.readAllBytes(pathOf(key));
+            final int length = entry.length - CHECKSUM_LENGTH;
+            if (length < 4 || readInt(entry) != MAGIC || !MessageDigest.isEqual(
+                    checksum(entry, length), Arrays.copyOfRange(entry, length, entry.length))) {
+                Server.debug("Ignoring corrupt instrumented class cache entry " + key);
+                return null;
+            }
+            return Arrays.copyOf(entry, length);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            Server.debug("Can't read instrumented class cache entry " + key + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Save an instrumented class. Failures are ignored; the class will just
+     * be instrumented again next time.
+     *
+     * @param key   the key of the class
+     * @param bytes the instrumented class
+     */
+    void put(String key, byte[] bytes) {
+        final Path path = pathOf(key);
+        Path temp = null;
+        try {
+            Files.createDirectories(path.getParent());
+            temp = Files.createTempFile(path.getParent(), key, ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                out.write(bytes);
+                out.write(checksum(bytes, bytes.length));
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+        } catch (IOException e) {
+            Server.debug("Can't write instrumented class cache entry " + key + ": " + e);
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    // nothing more we can do
+                }
+            }
+        }
+    }
+
+    Path pathOf(String key) {
+        return dir.resolve(key.substring(0, 2)).resolve(key.substring(2) + ".class");
+    }
+
+    private static byte[] checksum(byte[] bytes, int length) {
+        final MessageDigest digest = newDigest();
+        digest.update(bytes, 0, length);
+        return digest.digest();
+    }
+
+    /**
+     * @return the hash of the instrumenter's classes and resources
+     * @throws IOException if they can't be read
+     */
+    private static synchronized byte[] engineDigest() throws IOException, URISyntaxException {
+        if (engineDigest == null) {
+            final CodeSource source = InstrumentedClassCache.class.getProtectionDomain().getCodeSource();
+            if (source == null || source.getLocation() == null) {
+                throw new IOException("can't find the engine's classes");
+            }
+            final MessageDigest digest = newDigest();
+            hashClasses(digest, Paths.get(source.getLocation().toURI()), "battlecode/instrumenter/");
+            final byte[] buffer = new byte[8192];
+            for (String resource : RESOURCES) {
+                update(digest, resource);
+                try (InputStream in = MethodCostUtil.class.getResourceAsStream(resource)) {
+                    if (in == null) {
+                        throw new IOException("can't find " + resource);
+                    }
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        digest.update(buffer, 0, read);
+                    }
+                }
+            }
+            engineDigest = digest.digest();
+        }
+        return engineDigest;
+    }
+
+    /**
+     * Hash the name and contents of every class file in a jar or directory
+     * whose name starts with a prefix, in a fixed order.
+     */
+    private static void hashClasses(MessageDigest digest, Path container, String prefix) throws IOException {
+        if (Files.isDirectory(container)) {
+            final TreeMap<String, Path> classes = new TreeMap<>();
+            try (Stream<Path> files = Files.walk(container)) {
+                files.filter(p -> p.toString().endsWith(".class") && Files.isRegularFile(p))
+                        .forEach(p -> classes.put(container.relativize(p).toString().replace('\\', '/'), p));
+            }
+            for (String name : classes.keySet()) {
+                if (!name.startsWith(prefix)) {
+                    continue;
+                }
+                update(digest, name);
+                digest.update(Files.readAllBytes(classes.get(name)));
+            }
+        } else {
+            try (JarFile jar = new JarFile(container.toFile())) {
+                final List<JarEntry> entries = new ArrayList<>();
+                for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements(); ) {
+                    JarEntry entry = e.nextElement();
+                    if (entry.getName().endsWith(".class") && entry.getName().startsWith(prefix)) {
+                        entries.add(entry);
+                    }
+                }
+                Collections.sort(entries, (a, b) -> a.getName().compareTo(b.getName()));
+                final byte[] buffer = new byte[8192];
+                for (JarEntry entry : entries) {
+                    update(digest, entry.getName());
+                    try (InputStream in = jar.getInputStream(entry)) {
+                        int read;
+                        while ((read = in.read(buffer)) > 0) {
+                            digest.update(buffer, 0, read);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static int readInt(byte[] bytes) {
+        return ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16)
+                | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+}
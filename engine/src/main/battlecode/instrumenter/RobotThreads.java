@@ -0,0 +1,130 @@
+package battlecode.instrumenter;
+
+import battlecode.server.Config;
+import battlecode.server.Server;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Creates the threads that sandboxed robot players run on.
+ *
+ * By default every robot gets its own platform thread. Setting
+ * bc.engine.robot-threads=virtual runs robots on virtual threads instead,
+ * which are much cheaper to create and park when a map spawns a lot of
+ * robots. The engine is compiled against Java 8, so virtual threads are
+ * looked up reflectively; on a runtime that doesn't provide them we warn
+ * once and fall back to platform threads.
+ *
+ * Note that a virtual thread can only unmount from its carrier while parked
+ * outside of a synchronized block, which is why SandboxedRobotPlayer hands
+ * control back and forth with java.util.concurrent primitives.
+ */
+final class RobotThreads {
+
+    /**
+     * Config value selecting virtual threads.
+     */
+    static final String VIRTUAL = "virtual";
+
+    /**
+     * Config value selecting platform threads (the default).
+     */
+    static final String PLATFORM = "platform";
+
+    /**
+     * Thread.ofVirtual(), or null if this runtime has no virtual threads.
+     */
+    private static final Method ofVirtual;
+
+    /**
+     * Thread.Builder.name(String).
+     */
+    private static final Method builderName;
+
+    /**
+     * Thread.Builder.unstarted(Runnable).
+     */
+    private static final Method builderUnstarted;
+
+    /**
+     * Whether we've already complained about virtual threads being unavailable.
+     */
+    private static volatile boolean warned;
+
+    static {
+        Method of = null, name = null, unstarted = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            of = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class);
+            unstarted = builder.getMethod("unstarted", Runnable.class);
+        } catch (ReflectiveOperationException e) {
+            of = null;
+        }
+        ofVirtual = of;
+        builderName = name;
+        builderUnstarted = unstarted;
+    }
+
+    /**
+     * Prevent construction.
+     */
+    private RobotThreads() {}
+
+    /**
+     * @return whether the global config asks for robots to run on virtual threads
+     */
+    static boolean virtualRequested() {
+        String mode = Config.getGlobalConfig().get("bc.engine.robot-threads");
+        if (mode == null || PLATFORM.equalsIgnoreCase(mode)) {
+            return false;
+        }
+        if (VIRTUAL.equalsIgnoreCase(mode)) {
+            return true;
+        }
+        warnOnce("Unknown bc.engine.robot-threads value \"" + mode + "\", using platform threads");
+        return false;
+    }
+
+    /**
+     * @return whether this runtime can create virtual threads
+     */
+    static boolean virtualAvailable() {
+        return ofVirtual != null;
+    }
+
+    /**
+     * Create a new, unstarted thread to run a robot player on,
+     * honoring bc.engine.robot-threads.
+     *
+     * @param body the code the thread should run
+     * @param name the name of the thread
+     * @return an unstarted thread
+     */
+    static Thread newThread(Runnable body, String name) {
+        if (virtualRequested()) {
+            if (ofVirtual == null) {
+                warnOnce("bc.engine.robot-threads=virtual requires Java 21 or newer; using platform threads");
+            } else {
+                try {
+                    Object builder = builderName.invoke(ofVirtual.invoke(null), name);
+                    return (Thread) builderUnstarted.invoke(builder, body);
+                } catch (InvocationTargetException e) {
+                    // e.g. virtual threads are a preview feature on this runtime
+                    warnOnce("Couldn't create virtual thread (" + e.getCause() + "); using platform threads");
+                } catch (ReflectiveOperationException e) {
+                    warnOnce("Couldn't create virtual thread (" + e + "); using platform threads");
+                }
+            }
+        }
+        return new Thread(body, name);
+    }
+
+    private static void warnOnce(String message) {
+        if (!warned) {
+            warned = true;
+            Server.warn(message);
+        }
+    }
+}
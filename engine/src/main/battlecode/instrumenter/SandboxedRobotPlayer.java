@@ -2,7 +2,9 @@ package battlecode.instrumenter;
 
 import battlecode.common.RobotController;
 import battlecode.common.Team;
+import battlecode.instrumenter.bytecode.InstrumentingClassVisitor;
 import battlecode.instrumenter.profiler.Profiler;
+import battlecode.instrumenter.stream.LimitedPrintStream;
 import battlecode.instrumenter.stream.RoboPrintStream;
 import battlecode.instrumenter.stream.SilencedPrintStream;
 import battlecode.server.ErrorReporter;
@@ -39,15 +41,36 @@ public class SandboxedRobotPlayer {
 
     public static final String PLAYER_CLASS_NAME = "RobotPlayer";
 
+    /**
+     * The name (package) of the team we're running a player for.
+     */
+    private final String teamName;
+
     /**
      * The controller for the robot we're controlling.
      */
-    private final RobotController robotController;
+    private RobotController robotController;
 
     /**
      * The seed to use in all "random" operations.
      */
-    private final int seed;
+    private int seed;
+
+    /**
+     * The profiler for the robot we're controlling, or null.
+     */
+    private Profiler profiler;
+
+    /**
+     * Whether the sandbox is being shut down for good, rather than
+     * recycled for a new robot. Only used for pooled sandboxes.
+     */
+    private boolean retired;
+
+    /**
+     * Whether the player thread has exited, or is about to.
+     */
+    private boolean exited;
 
     /**
      * Whether the robot player is terminated.
@@ -65,35 +88,44 @@ public class SandboxedRobotPlayer {
     private final Thread mainThread;
 
     /**
-     * The cached 'killRobot' method of the monitor.
+     * The control bridge of the player's individual RobotMonitor.
+     */
+    private final MonitorControl monitorControl;
+
+    /**
+     * Used to trade off control between threads.
+     *
+     * We don't use a plain monitor here: besides being slower, a virtual
+     * thread blocked in Object.wait() inside a synchronized block pins its
+     * carrier thread.
      */
-    private final Method killMethod;
+    private final TurnHandoff handoff;
 
     /**
-     * The cached 'setBytecodeLimit' method of the monitor.
+     * Whether or not we are currently running, i.e. in "step".
      */
-    private final Method setBytecodeLimitMethod;
+    private boolean running;
 
     /**
-     * The cached 'getBytecodeNum' method of the monitor.
+     * Used so we don't create a new PrintStream for every robot
+     * every round.
      */
-    private final Method getBytecodeNumMethod;
+    private OutputStream systemOut;
 
     /**
-     * The object used to trade of control between threads.
+     * The output to write robot output to (with headers).
      */
-    private final Object notifier;
+    private final OutputStream robotOut;
 
     /**
-     * Whether or not we are currently running, i.e. in "step".
+     * The output the robot's team has left in the game.
      */
-    private boolean running;
+    private final LimitedPrintStream.Budget outputBudget;
 
     /**
-     * Used so we don't create a new PrintStream for every robot
-     * every round.
+     * The player's individual System.setSystemOut().
      */
-    private OutputStream systemOut;
+    private final Method setSystemOutMethod;
 
     /**
      * Create a new sandboxed robot player.
@@ -103,6 +135,7 @@ public class SandboxedRobotPlayer {
      * @param seed              the seed the robot should use for random operations
      * @param loader            the classloader to load classes with
      * @param robotOut          the output to write robot output to (with headers)
+     * @param outputBudget      the output each team has left in the game
      * @throws InstrumentationException if the player doesn't work for some reason
      * @throws RuntimeException if our code fails for some reason
      */
@@ -111,12 +144,17 @@ public class SandboxedRobotPlayer {
                                 int seed,
                                 TeamClassLoaderFactory.Loader loader,
                                 OutputStream robotOut,
+                                LimitedPrintStream.Budget outputBudget,
                                 Profiler profiler)
             throws InstrumentationException {
+        this.teamName = teamName;
         this.robotController = robotController;
         this.seed = seed;
+        this.profiler = profiler;
+        this.robotOut = robotOut;
+        this.outputBudget = outputBudget;
         this.terminated = false;
-        this.notifier = new Object();
+        this.handoff = new TurnHandoff(Config.getGlobalConfig().getInt("bc.engine.handoff-spins"));
 
         // Create classloader sandbox
         individualLoader = loader;
@@ -131,9 +169,7 @@ public class SandboxedRobotPlayer {
             Class<?> monitor = individualLoader
                     .loadClass("battlecode.instrumenter.inject.RobotMonitor");
 
-            killMethod = monitor.getMethod("killRobot");
-            setBytecodeLimitMethod = monitor.getMethod("setBytecodeLimit", int.class);
-            getBytecodeNumMethod = monitor.getMethod("getBytecodeNum");
+            monitorControl = (MonitorControl) monitor.getMethod("getControl").invoke(null);
             pauseMethod = monitor.getMethod("pause");
             initMethod = monitor.getMethod("init", Pauser.class, Killer.class, int.class, Profiler.class);
 
@@ -142,8 +178,8 @@ public class SandboxedRobotPlayer {
             Class<?> system = individualLoader
                     .loadClass("battlecode.instrumenter.inject.System");
 
-            this.systemOut = getOut(robotOut);
-            system.getMethod("setSystemOut", PrintStream.class).invoke(null, this.systemOut);
+            setSystemOutMethod = system.getMethod("setSystemOut", PrintStream.class);
+            setSystemOut();
 
         } catch (ReflectiveOperationException e) {
             throw new RuntimeException("Couldn't load RobotMonitor", e);
@@ -152,13 +188,9 @@ public class SandboxedRobotPlayer {
         // Used to pause the RobotPlayer main thread.
         final Pauser pauser = () -> {
             try {
-                synchronized (notifier) {
-                    // Unpause the main thread, which is waiting on the player thread
-                    notifier.notifyAll();
-
-                    // Wait for the main thread to restart us
-                    notifier.wait();
-                }
+                // Unpause the main thread, which is waiting on the player thread,
+                // and wait for the main thread to restart us
+                handoff.yieldToEngine();
             } catch (InterruptedException e) {
                 ErrorReporter.report("RobotPlayer thread interrupted while paused");
                 throw new RobotDeathException();
@@ -172,70 +204,106 @@ public class SandboxedRobotPlayer {
             throw new RobotDeathException();
         };
 
-        mainThread = new Thread(() -> {
+        mainThread = RobotThreads.newThread(() -> {
             try {
-                // Init RobotMonitor
-                initMethod.invoke(null, pauser, killer, this.seed, profiler);
-                // Pause immediately
-                pauseMethod.invoke(null);
-                // Run the robot!
-                loadAndRunPlayer(teamName, PLAYER_CLASS_NAME);
-                // If we get here, we've returned from the 'run' method. Tell the user.
-                if (robotController.getLocation() != null){
-                System.out.println(robotController.getTeam().toString() + "'s " +
-                        robotController.getID() + " at location " + robotController.getLocation().toString()
-                        + " froze in round " +robotController.getRoundNum() +
-                        " because it returned from its run() method!"); }
-                else{
-                    System.out.println(robotController.getTeam().toString() + "'s " +
-                        robotController.getID() + " that has not spawned yet " 
-                        + " froze in round " +robotController.getRoundNum() +
-                        " because it returned from its run() method!");
-                }
-            } catch (final IllegalAccessException e) {
-                ErrorReporter.report(e, true);
-            } catch (final InvocationTargetException e) {
-                if (e.getCause() instanceof RobotDeathException) {
-                    return;
-                }
-                ErrorReporter.report(e.getCause(), false);
-            } catch (final InstrumentationException e) {
-                ErrorReporter.report(e,"Error instrumenting " + teamName + ".RobotPlayer:\n" +
-                        "Make sure you're not trying to escape the sandbox.\n" +
-                        "Make sure the team name is spelled correctly.\n" +
-                        "Make sure the bc.game.team-a.url and bc.game.team-b.url are configured correctly." , false);
-
-            } catch (final RobotDeathException e) {
-                return;
+                do {
+                    runSandbox(pauser, killer, initMethod, pauseMethod);
+                } while (awaitRecycle());
             } finally {
-                // Ensure that we know we're terminated.
-                this.terminated = true;
-
-                // Tell the profiler to close all open methods
-                // It cannot detect when the run(RobotController) method exits when a bot dies any other way
-                if (profiler != null) {
-                    profiler.exitOpenMethods();
-                }
-
+                this.exited = true;
                 // Unpause the main thread, which is waiting on the player thread.
-                synchronized (notifier) {
-                    notifier.notifyAll();
-                }
+                handoff.release();
             }
-        }, teamName + "." + PLAYER_CLASS_NAME + " #"+ robotController.getID());
-
+        }, threadName());
 
         // Wait for thread to tell us it's ready
         try {
-            synchronized (notifier) {
-                // Doesn't do anything besides initialize the sandbox, since thread pauses immediately
-                mainThread.start();
+            // Doesn't do anything besides initialize the sandbox, since thread pauses immediately
+            handoff.start(mainThread);
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Unexpected interruption initializing sandbox", e);
+        }
+    }
 
-                notifier.wait();
+    /**
+     * The body of the player thread, for one robot: initialize the monitor,
+     * wait for the first step, and run the player until it ends or dies.
+     */
+    private void runSandbox(Pauser pauser,
+                            Killer killer,
+                            Method initMethod,
+                            Method pauseMethod) {
+        try {
+            // Init RobotMonitor
+            initMethod.invoke(null, pauser, killer, this.seed, profiler);
+            // Pause immediately
+            pauseMethod.invoke(null);
+            // Run the robot!
+            loadAndRunPlayer(teamName, PLAYER_CLASS_NAME);
+            // If we get here, we've returned from the 'run' method. Tell the user.
+            if (robotController.getLocation() != null){
+            System.out.println(robotController.getTeam().toString() + "'s " +
+                    robotController.getID() + " at location " + robotController.getLocation().toString()
+                    + " froze in round " +robotController.getRoundNum() +
+                    " because it returned from its run() method!"); }
+            else{
+                System.out.println(robotController.getTeam().toString() + "'s " +
+                    robotController.getID() + " that has not spawned yet " 
+                    + " froze in round " +robotController.getRoundNum() +
+                    " because it returned from its run() method!");
+            }
+        } catch (final IllegalAccessException e) {
+            ErrorReporter.report(e, true);
+        } catch (final InvocationTargetException e) {
+            if (e.getCause() instanceof RobotDeathException) {
+                return;
+            }
+            try {
+                // With coalesced accounting, the player may not have been
+                // charged for what it ran before the exception yet; if that
+                // takes it over its limit, it dies on its next turn.
+                monitorControl.flushBytecodes();
+            } catch (RobotDeathException death) {
+                return;
+            }
+            ErrorReporter.report(e.getCause(), false);
+        } catch (final InstrumentationException e) {
+            ErrorReporter.report(e,"Error instrumenting " + teamName + ".RobotPlayer:\n" +
+                    "Make sure you're not trying to escape the sandbox.\n" +
+                    "Make sure the team name is spelled correctly.\n" +
+                    "Make sure the bc.game.team-a.url and bc.game.team-b.url are configured correctly." , false);
+
+        } catch (final RobotDeathException e) {
+            return;
+        } finally {
+            // Ensure that we know we're terminated.
+            this.terminated = true;
+
+            // Tell the profiler to close all open methods
+            // It cannot detect when the run(RobotController) method exits when a bot dies any other way
+            if (profiler != null) {
+                profiler.exitOpenMethods();
             }
+        }
+    }
+
+    /**
+     * Called on the player thread once a robot's player has ended. If the
+     * sandbox is pooled, hand control back to the engine and wait to be
+     * recycled or retired.
+     *
+     * @return whether to run the player again for a new robot
+     */
+    private boolean awaitRecycle() {
+        if (!individualLoader.getFactory().isPooled()) {
+            return false;
+        }
+        try {
+            handoff.yieldToEngine();
         } catch (InterruptedException e) {
-            throw new RuntimeException("Unexpected interruption initializing sandbox", e);
+            return false;
         }
+        return !retired;
     }
 
     /**
@@ -269,6 +337,19 @@ public class SandboxedRobotPlayer {
             throw new InstrumentationException(ILLEGAL, robotPlayer.getSimpleName() + ".run(RobotController) is not static");
         }
 
+        if (individualLoader.getFactory().isPooled()) {
+            // If this sandbox has been recycled, the player's statics were
+            // reset, and loading the class won't initialize it again. Do it
+            // here, where a fresh sandbox would.
+            final Method initMethod;
+            try {
+                initMethod = robotPlayer.getDeclaredMethod(InstrumentingClassVisitor.INIT_METHOD);
+            } catch (NoSuchMethodException e) {
+                throw new InstrumentationException(ILLEGAL, robotPlayer.getSimpleName() + " is not a class", e);
+            }
+            initMethod.invoke(null);
+        }
+
         // Run!
         runMethod.invoke(null, robotController);
     }
@@ -279,11 +360,7 @@ public class SandboxedRobotPlayer {
      * @param limit the new limit
      */
     public void setBytecodeLimit(int limit) {
-        try {
-            setBytecodeLimitMethod.invoke(null, limit);
-        } catch (ReflectiveOperationException e) {
-            ErrorReporter.report(e, true);
-        }
+        monitorControl.setBytecodeLimit(limit);
     }
 
     /**
@@ -299,23 +376,17 @@ public class SandboxedRobotPlayer {
         // Update the robot's information
         updateOut();
 
+        // We are now running the robot!
+        running = true;
         try {
-            synchronized (notifier) {
-                // We are now running the robot!
-                running = true;
-
-                // Unpause the robot's thread
-                notifier.notifyAll();
-
-                // Pause this thread until the robot ends turn or dies
-                notifier.wait();
-
-                // Main thread reactivated: no longer running.
-                running = false;
-            }
+            // Unpause the robot's thread, and pause this thread until
+            // the robot ends turn or dies
+            handoff.runPlayer();
         } catch (InterruptedException e) {
             throw new RuntimeException("Unexpected interruption", e);
         }
+        // Main thread reactivated: no longer running.
+        running = false;
     }
 
     /**
@@ -340,20 +411,12 @@ public class SandboxedRobotPlayer {
             // execute zero-cost actions after "dying", like (maybe?) returning
             // from run(), which could issue nonsensical warnings. However, it's
             // the best solution I can think of.
-            try {
-                killMethod.invoke(null);
-            } catch (ReflectiveOperationException e) {
-                ErrorReporter.report(e, true);
-            }
+            monitorControl.killRobot();
         } else {
             // We're not running.
             // Set the "shouldDie" flag and then step to finish the job.
 
-            try {
-                killMethod.invoke(null);
-            } catch (ReflectiveOperationException e) {
-                ErrorReporter.report(e, true);
-            }
+            monitorControl.killRobot();
 
             // Step to make the robot die.
             step();
@@ -361,17 +424,80 @@ public class SandboxedRobotPlayer {
     }
 
     /**
-     * @return the bytecodes used by the player during the most recent step() call.
+     * Reset the static state of the player's classes, so that the sandbox
+     * can be recycled. The player must be terminated, and the sandbox must
+     * be pooled.
+     *
+     * @return whether the sandbox can be recycled; if not, it should be retired
      */
-    public int getBytecodesUsed() {
+    public boolean resetStatics() {
+        assert terminated && individualLoader.getFactory().isPooled();
+        // The thread may have died of an error outside the player's code.
+        return !exited && monitorControl.resetStatics();
+    }
+
+    /**
+     * Reuse a terminated, reset sandbox for a new robot, as though it had
+     * just been constructed for it.
+     *
+     * @param robotController the robot we're loading a player for
+     * @param seed            the seed the robot should use for random operations
+     * @param profiler        profiler for the robot, or null
+     */
+    public void recycle(RobotController robotController, int seed, Profiler profiler) {
+        assert terminated && !retired;
+        this.robotController = robotController;
+        this.seed = seed;
+        this.profiler = profiler;
+        this.terminated = false;
         try {
-            return (Integer) getBytecodeNumMethod.invoke(null);
+            setSystemOut();
         } catch (ReflectiveOperationException e) {
-            ErrorReporter.report(e, true);
-            return 0;
+            throw new RuntimeException("Couldn't reset System.out", e);
+        }
+        mainThread.setName(threadName());
+
+        // Doesn't do anything besides initialize the sandbox, since the
+        // thread pauses immediately
+        try {
+            handoff.runPlayer();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Unexpected interruption recycling sandbox", e);
         }
     }
 
+    /**
+     * Shut down a terminated, pooled sandbox for good, letting its thread exit.
+     */
+    public void retire() {
+        assert terminated;
+        if (retired || exited) {
+            return;
+        }
+        retired = true;
+        try {
+            handoff.runPlayer();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Unexpected interruption retiring sandbox", e);
+        }
+    }
+
+    private void setSystemOut() throws ReflectiveOperationException {
+        this.systemOut = getOut(robotOut);
+        setSystemOutMethod.invoke(null, this.systemOut);
+    }
+
+    private String threadName() {
+        return teamName + "." + PLAYER_CLASS_NAME + " #" + robotController.getID();
+    }
+
+    /**
+     * @return the bytecodes used by the player during the most recent step() call.
+     */
+    public int getBytecodesUsed() {
+        return monitorControl.getBytecodeNum();
+    }
+
     /**
      * Whether the player controlling this robot is terminated.
      */
@@ -389,6 +515,40 @@ public class SandboxedRobotPlayer {
         void pause();
     }
 
+    /**
+     * Implemented inside the sandbox by RobotMonitor; used to control it
+     * from the main thread without reflection.
+     */
+    public interface MonitorControl {
+        /**
+         * @param limit the new bytecode limit of the robot
+         */
+        void setBytecodeLimit(int limit);
+
+        /**
+         * @return the bytecodes used by the robot during its most recent turn
+         */
+        int getBytecodeNum();
+
+        /**
+         * Make the robot die the next time it runs.
+         */
+        void killRobot();
+
+        /**
+         * Reset the static state of the player's classes.
+         *
+         * @return whether the sandbox can be reused
+         */
+        boolean resetStatics();
+
+        /**
+         * Charge the robot for bytecodes it has run but not been charged
+         * for yet. Must be called on the robot's thread.
+         */
+        void flushBytecodes();
+    }
+
     /**
      * Injected into RobotMonitor; used to kill its thread.
      */
@@ -412,7 +572,7 @@ public class SandboxedRobotPlayer {
             try {
                 return new RoboPrintStream(wrapped, options.getBoolean(
                         "bc.server.robot-player-to-system-out"
-                ), options.getInt("bc.server.robot-player-replay-file-per-team-limit-bytes"));
+                ), outputBudget);
             } catch (UnsupportedEncodingException e) {
                 throw new RuntimeException("UTF-8 isn't supported on this system??", e);
             }
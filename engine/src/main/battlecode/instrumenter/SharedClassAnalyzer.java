@@ -0,0 +1,209 @@
+package battlecode.instrumenter;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Works out which of a team's classes can be defined once and shared by
+ * every robot of the team, instead of being defined again by every robot's
+ * Loader.
+ *
+ * A shared class can't have any code: instrumented code charges bytecodes
+ * to the RobotMonitor of the loader that defined it, and a shared class
+ * would charge them to nobody. Nor can it have any state. That leaves
+ * interfaces with only abstract methods and constant fields.
+ *
+ * Every class a shared class refers to has to resolve to the same class
+ * from the shared loader as from robots' loaders, or the JVM would fail to
+ * link robot classes that implement it. So a shared class may only refer
+ * to other shared classes, and to classes every robot gets from the system
+ * class loader; not to other team classes, instrumented JDK classes, or
+ * classes every robot redefines.
+ */
+final class SharedClassAnalyzer {
+
+    private SharedClassAnalyzer() {}
+
+    /**
+     * Decide whether a team class can be shared. Whether it can depends on
+     * the classes it refers to, so the team classes it reaches are decided
+     * along with it; the rest of the team isn't looked at.
+     *
+     * @param name         the binary name of a team class that hasn't been
+     *                     decided yet
+     * @param decided      whether each team class decided so far can be
+     *                     shared
+     * @param isTeamClass  whether a class is one of the team's
+     * @param instrumented gives the instrumented bytes of a team class, or
+     *                     null if it can't be instrumented
+     * @return whether each newly decided class, including name, can be
+     *         shared
+     */
+    static Map<String, Boolean> findShareable(String name, Map<String, Boolean> decided,
+                                              Predicate<String> isTeamClass,
+                                              Function<String, byte[]> instrumented) {
+        // The undecided team classes reachable through classes without code
+        // or state, and what each of those refers to.
+        final Set<String> reached = new HashSet<>();
+        final Map<String, Set<String>> references = new HashMap<>();
+        final Deque<String> pending = new ArrayDeque<>();
+        reached.add(name);
+        pending.add(name);
+        while (!pending.isEmpty()) {
+            final String next = pending.remove();
+            final byte[] bytes = instrumented.apply(next);
+            final Set<String> refs = bytes == null ? null : referencesIfStateless(bytes);
+            if (refs == null) {
+                continue;
+            }
+            references.put(next, refs);
+            for (String ref : refs) {
+                if (!decided.containsKey(ref) && !reached.contains(ref) && isTeamClass.test(ref)) {
+                    reached.add(ref);
+                    pending.add(ref);
+                }
+            }
+        }
+
+        // Drop classes that refer to classes that can't be shared, until
+        // there are none left to drop.
+        final Set<String> shareable = new HashSet<>(references.keySet());
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (String cls : references.keySet()) {
+                if (!shareable.contains(cls)) {
+                    continue;
+                }
+                for (String ref : references.get(cls)) {
+                    if (!ref.equals(cls) && !canReferTo(ref, decided, reached, shareable)) {
+                        shareable.remove(cls);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        final Map<String, Boolean> result = new HashMap<>();
+        for (String cls : reached) {
+            result.put(cls, shareable.contains(cls));
+        }
+        return result;
+    }
+
+    /**
+     * @return whether a shared class may refer to a class
+     */
+    private static boolean canReferTo(String ref, Map<String, Boolean> decided, Set<String> reached,
+                                      Set<String> shareable) {
+        final Boolean known = decided.get(ref);
+        if (known != null) {
+            return known;
+        }
+        if (reached.contains(ref)) {
+            return shareable.contains(ref);
+        }
+        // Not a team class, so robots' loaders get it from the system class
+        // loader, unless they redefine it.
+        return !ref.startsWith("instrumented.") && !TeamClassLoaderFactory.alwaysRedefine.contains(ref);
+    }
+
+    /**
+     * @param bytes an instrumented class
+     * @return the binary names of the classes it refers to, or null if it
+     *         has code or state
+     */
+    private static Set<String> referencesIfStateless(byte[] bytes) {
+        final ReferenceCollector collector = new ReferenceCollector();
+        new ClassReader(bytes).accept(collector, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return collector.stateless ? collector.references : null;
+    }
+
+    private static final class ReferenceCollector extends ClassVisitor {
+        private final Set<String> references = new HashSet<>();
+        private boolean stateless = true;
+
+        ReferenceCollector() {
+            super(Opcodes.ASM5);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature,
+                          String superName, String[] interfaces) {
+            if ((access & Opcodes.ACC_INTERFACE) == 0) {
+                stateless = false;
+            }
+            addInternalName(superName);
+            if (interfaces != null) {
+                for (String i : interfaces) {
+                    addInternalName(i);
+                }
+            }
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            addType(Type.getType(desc));
+            return null;
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+            // Interface fields are always static and final; only constants
+            // can be set without a static initializer.
+            if (value == null) {
+                stateless = false;
+            }
+            addType(Type.getType(desc));
+            return null;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature,
+                                         String[] exceptions) {
+            if ((access & Opcodes.ACC_ABSTRACT) == 0) {
+                stateless = false;
+            }
+            addType(Type.getReturnType(desc));
+            for (Type argument : Type.getArgumentTypes(desc)) {
+                addType(argument);
+            }
+            if (exceptions != null) {
+                for (String e : exceptions) {
+                    addInternalName(e);
+                }
+            }
+            return null;
+        }
+
+        private void addType(Type type) {
+            if (type.getSort() == Type.ARRAY) {
+                type = type.getElementType();
+            }
+            if (type.getSort() == Type.OBJECT) {
+                references.add(type.getClassName());
+            }
+        }
+
+        private void addInternalName(String internalName) {
+            if (internalName != null) {
+                references.add(internalName.replace('/', '.'));
+            }
+        }
+    }
+}
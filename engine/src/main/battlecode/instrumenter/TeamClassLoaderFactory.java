@@ -3,6 +3,7 @@ package battlecode.instrumenter;
 import battlecode.instrumenter.bytecode.ClassReferenceUtil;
 import battlecode.instrumenter.bytecode.InstrumentingClassVisitor;
 import battlecode.server.Config;
+import battlecode.server.Server;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
@@ -14,8 +15,17 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
 
 import static battlecode.instrumenter.InstrumentationException.Type.ILLEGAL;
 import static battlecode.instrumenter.InstrumentationException.Type.MISSING;
@@ -81,12 +91,29 @@ public final class TeamClassLoaderFactory {
      */
     protected final static Set<String> alwaysRedefine = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
             "battlecode.instrumenter.inject.ObjectMethods",
+            "battlecode.instrumenter.inject.EnumConstants",
             "battlecode.instrumenter.inject.InstrumentableFunctions",
             "battlecode.instrumenter.inject.System",
             "battlecode.instrumenter.inject.RobotMonitor",
+            "battlecode.instrumenter.inject.RobotMonitor$Control",
             "battlecode.common.Clock"
     )));
 
+    /**
+     * Instrumented JDK classes, and copies of the alwaysRedefine classes,
+     * keyed by name and the flags they were instrumented with. They don't
+     * depend on the team, so they're shared by every team and game in the
+     * process.
+     */
+    private final static Map<String, byte[]> sharedClasses = new ConcurrentHashMap<>();
+
+    /**
+     * Factories with no team classes, which JDK classes are instrumented
+     * with, so that no team can affect how they're instrumented; keyed by
+     * the factory flags.
+     */
+    private final static Map<String, TeamClassLoaderFactory> systemFactories = new ConcurrentHashMap<>();
+
     /**
      * We use this to find resources from the player URL.
      *
@@ -100,19 +127,71 @@ public final class TeamClassLoaderFactory {
      * The values are byte arrays, not Classes, because each instance of
      * InstrumentingClassLoader should define its own class, even if another
      * InstrumentingClassLoader has already loaded a class from the same class file.
+     *
+     * Concurrent, since sandboxes may be constructed in parallel.
      */
     private final Map<String, byte[]> instrumentedClasses;
 
     /**
      * If this team has an error, don't bother trying to cache again.
      */
-    private boolean hasError;
+    private volatile boolean hasError;
 
     /**
      * The ClassReferenceUtil used by this cache.
      */
     private final ClassReferenceUtil refUtil;
 
+    /**
+     * Whether loaders from this factory can be reused for new robots
+     * (bc.engine.pooled-sandboxes), in which case classes are instrumented
+     * so that their static state can be reset.
+     */
+    private final boolean pooled;
+
+    /**
+     * Whether classes are instrumented to charge bytecodes at calls, returns
+     * and back-edges only (bc.engine.coalesced-bytecodes).
+     */
+    private final boolean coalesced;
+
+    /**
+     * Instrumented classes saved by earlier runs (bc.engine.class-cache-dir),
+     * or null if they aren't being saved.
+     */
+    private final InstrumentedClassCache diskCache;
+
+    /**
+     * The team's container, or null for a factory with no team classes.
+     */
+    private final URL teamURL;
+
+    /**
+     * Whether classes without code or state are defined once for the whole
+     * team (bc.engine.share-stateless-classes).
+     */
+    private final boolean shareStateless;
+
+    /**
+     * Whether each team class decided so far is defined by sharedLoader
+     * rather than by robots' loaders; see SharedClassAnalyzer. A class is
+     * decided the first time it's loaded, along with the team classes it
+     * refers to.
+     */
+    private final Map<String, Boolean> sharedTeamClasses = new ConcurrentHashMap<>();
+
+    /**
+     * Defines the classes sharedTeamClasses says are shared, for every robot.
+     */
+    private final SharedLoader sharedLoader;
+
+    /**
+     * The number of classes defined by this team's loaders, and how long
+     * defining them took.
+     */
+    private final AtomicInteger definedClasses = new AtomicInteger();
+    private final AtomicLong definitionNanos = new AtomicLong();
+
     /**
      * Create a cache for classes loaded from a URL (or local file).
      * The URL can point to a jar file or a directory containing class
@@ -123,6 +202,11 @@ public final class TeamClassLoaderFactory {
      * @param classURL the URL to load clases from
      */
     public TeamClassLoaderFactory(final String classURL) {
+        this.pooled = Config.getGlobalConfig().getBoolean("bc.engine.pooled-sandboxes");
+        this.coalesced = Config.getGlobalConfig().getBoolean("bc.engine.coalesced-bytecodes");
+        this.shareStateless = Config.getGlobalConfig().getBoolean("bc.engine.share-stateless-classes");
+        this.sharedLoader = new SharedLoader();
+
         URL url;
         try {
             url = getFilesystemURL(classURL);
@@ -131,6 +215,8 @@ public final class TeamClassLoaderFactory {
             this.hasError = true;
             this.instrumentedClasses = null;
             this.refUtil = null;
+            this.diskCache = null;
+            this.teamURL = null;
             return;
         }
 
@@ -147,9 +233,39 @@ public final class TeamClassLoaderFactory {
                 return findResource(name);
             }
         };
-        this.instrumentedClasses = new HashMap<>();
+        this.instrumentedClasses = new ConcurrentHashMap<>();
+        this.hasError = false;
+        this.refUtil = new ClassReferenceUtil(this);
+        this.diskCache = InstrumentedClassCache.open(
+                Config.getGlobalConfig().get("bc.engine.class-cache-dir"), url);
+        this.teamURL = url;
+    }
+
+    /**
+     * Create a factory with no team classes, for instrumenting JDK classes.
+     */
+    private TeamClassLoaderFactory(boolean pooled, boolean coalesced) {
+        this.pooled = pooled;
+        this.coalesced = coalesced;
+        this.shareStateless = false;
+        this.sharedLoader = new SharedLoader();
+        this.teamResourceLookup = new URLClassLoader(new URL[0]) {
+            @Override
+            public URL getResource(String name) {
+                return findResource(name);
+            }
+        };
+        this.instrumentedClasses = new ConcurrentHashMap<>();
         this.hasError = false;
         this.refUtil = new ClassReferenceUtil(this);
+        this.diskCache = InstrumentedClassCache.open(
+                Config.getGlobalConfig().get("bc.engine.class-cache-dir"), null);
+        this.teamURL = null;
+    }
+
+    private static TeamClassLoaderFactory systemFactory(boolean pooled, boolean coalesced) {
+        return systemFactories.computeIfAbsent(pooled + "," + coalesced,
+                (key) -> new TeamClassLoaderFactory(pooled, coalesced));
     }
 
     /**
@@ -160,6 +276,184 @@ public final class TeamClassLoaderFactory {
         return new Loader(profilerEnabled);
     }
 
+    /**
+     * Instrument every class in the team's container ahead of time, so that
+     * robots' loaders only have to define them. Returns once every class
+     * has been instrumented.
+     *
+     * Classes that can't be instrumented are skipped, and the team isn't
+     * marked as having errors; they fail again, and are reported, when a
+     * robot actually loads them.
+     *
+     * @param profilerEnabled whether the team's loaders will have the
+     *                        profiler enabled
+     * @param pool            the pool to instrument classes on, or null
+     *                        to instrument them on this thread
+     */
+    public void preinstrument(boolean profilerEnabled, ExecutorService pool) {
+        if (hasError || teamURL == null) {
+            return;
+        }
+
+        final List<String> classNames;
+        try {
+            classNames = listClasses(teamURL);
+        } catch (IOException | URISyntaxException e) {
+            Server.debug("Not preinstrumenting " + teamURL + ": " + e);
+            return;
+        }
+
+        final Loader loader = createLoader(profilerEnabled);
+        final boolean debugMethodsEnabled = Config.getGlobalConfig().getBoolean("bc.engine.debug-methods");
+        if (pool == null) {
+            for (String name : classNames) {
+                preinstrument(loader, name, debugMethodsEnabled);
+            }
+        } else {
+            final List<Callable<Void>> tasks = new ArrayList<>(classNames.size());
+            for (String name : classNames) {
+                tasks.add(() -> {
+                    preinstrument(loader, name, debugMethodsEnabled);
+                    return null;
+                });
+            }
+            try {
+                pool.invokeAll(tasks);
+            } catch (InterruptedException e) {
+                // The rest are instrumented as robots load them.
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void preinstrument(Loader loader, String name, boolean debugMethodsEnabled) {
+        if (hasCached(name)) {
+            return;
+        }
+        try {
+            assertAllowedPackage(name);
+            setCached(name, loader.instrument(teamReader(name), true, debugMethodsEnabled));
+        } catch (RuntimeException e) {
+            // Reported when the class is loaded, if it ever is.
+            Server.debug("Not preinstrumenting " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param url a jar file or a directory
+     * @return the binary names of every class in it
+     */
+    static List<String> listClasses(URL url) throws IOException, URISyntaxException {
+        final Path root = Paths.get(url.toURI());
+        final List<String> classNames = new ArrayList<>();
+        if (Files.isDirectory(root)) {
+            try (Stream<Path> files = Files.walk(root)) {
+                files.forEach((path) -> {
+                    String innerPath = root.relativize(path).toString().replace('\\', '/');
+                    if (innerPath.endsWith(".class")) {
+                        classNames.add(innerPath.substring(0, innerPath.length() - 6).replace('/', '.'));
+                    }
+                });
+            }
+        } else {
+            try (JarFile jar = new JarFile(root.toFile())) {
+                for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements(); ) {
+                    String name = e.nextElement().getName();
+                    if (name.endsWith(".class")) {
+                        classNames.add(name.substring(0, name.length() - 6).replace('/', '.'));
+                    }
+                }
+            }
+        }
+        return classNames;
+    }
+
+    /**
+     * @param name   the binary name of a class
+     * @param loader a loader to instrument the team's classes with, if they
+     *               haven't been yet
+     * @return whether the class is a team class defined by the shared loader
+     */
+    private boolean isSharedClass(String name, Loader loader) {
+        if (!shareStateless || teamURL == null) {
+            return false;
+        }
+        final Boolean shared = sharedTeamClasses.get(name);
+        if (shared != null) {
+            return shared;
+        }
+        if (name.startsWith("java.") || name.startsWith("battlecode.") || name.startsWith("instrumented.")
+                || !hasTeamClass(name)) {
+            return false;
+        }
+        synchronized (this) {
+            if (!sharedTeamClasses.containsKey(name)) {
+                sharedTeamClasses.putAll(findShareable(name, loader));
+            }
+        }
+        return sharedTeamClasses.get(name);
+    }
+
+    private Map<String, Boolean> findShareable(String name, Loader loader) {
+        final boolean debugMethodsEnabled = Config.getGlobalConfig().getBoolean("bc.engine.debug-methods");
+        return SharedClassAnalyzer.findShareable(name, sharedTeamClasses, this::hasTeamClass, (className) -> {
+            byte[] classBytes = getCached(className);
+            if (classBytes == null) {
+                try {
+                    assertAllowedPackage(className);
+                    classBytes = loader.instrument(teamReader(className), true, debugMethodsEnabled);
+                    setCached(className, classBytes);
+                } catch (RuntimeException e) {
+                    // Reported when the class is loaded, if it ever is.
+                    return null;
+                }
+            }
+            return classBytes;
+        });
+    }
+
+    /**
+     * @return the number of classes defined by this team's loaders so far,
+     *         including shared ones
+     */
+    public int getDefinedClassCount() {
+        return definedClasses.get();
+    }
+
+    /**
+     * @return how long this team's loaders have spent defining classes, in
+     *         nanoseconds
+     */
+    public long getClassDefinitionNanos() {
+        return definitionNanos.get();
+    }
+
+    /**
+     * @return the number of team classes found so far to be defined once
+     *         for every robot
+     */
+    public int getSharedClassCount() {
+        int count = 0;
+        for (boolean shared : sharedTeamClasses.values()) {
+            if (shared) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void recordDefinition(long startNanos) {
+        definitionNanos.addAndGet(System.nanoTime() - startNanos);
+        definedClasses.incrementAndGet();
+    }
+
+    /**
+     * @return whether loaders from this factory can be reused for new robots
+     */
+    public boolean isPooled() {
+        return pooled;
+    }
+
     /**
      * @param className the class to look up
      * @return whether we've cached the bytes of the class
@@ -422,19 +716,26 @@ public final class TeamClassLoaderFactory {
             // this is the class we'll return
             Class finishedClass;
 
-            if (TeamClassLoaderFactory.this.hasCached(name)) {
+            if (isSharedClass(name, this)) {
+                finishedClass = sharedLoader.loadClass(name);
+            } else if (TeamClassLoaderFactory.this.hasCached(name)) {
                 byte[] classBytes = TeamClassLoaderFactory.this.getCached(name);
+                final long start = System.nanoTime();
                 finishedClass = defineClass(null, classBytes, 0, classBytes.length);
+                recordDefinition(start);
             } else if (alwaysRedefine.contains(name)) {
                 // We want each robot to have its own copy of this class
                 // so that it isn't possible to send messages by calling
                 // hashCode repeatedly.  But we don't want to instrument it.
                 // So just add its raw bytes to the instrumented classes cache.
-                ClassReader cr = normalReader(name);
+                byte[] classBytes = sharedClasses.computeIfAbsent(name, (key) -> {
+                    ClassReader cr = normalReader(name);
 
-                ClassWriter cw = new ClassWriter(cr, COMPUTE_MAXS);
-                cr.accept(cw, 0);
-                finishedClass = saveAndDefineClass(name, cw.toByteArray());
+                    ClassWriter cw = new ClassWriter(cr, COMPUTE_MAXS);
+                    cr.accept(cw, 0);
+                    return cw.toByteArray();
+                });
+                finishedClass = saveAndDefineClass(name, classBytes);
             } else if (TeamClassLoaderFactory.this.hasTeamClass(name)) {
                 // Check if the team we're loading already has errors.
                 // Note that we only do this check when loading team
@@ -468,15 +769,13 @@ public final class TeamClassLoaderFactory {
                 // If permgen space becomes a problem, we could make it so
                 // that only one copy of these classes is loaded, but
                 // we would need to modify ObjectHashCode.
-                byte[] classBytes;
-                try {
-                    classBytes = instrument(
-                            TeamClassLoaderFactory.normalReader(name),
-                            false, false);
-                } catch (InstrumentationException ie) {
-                    // TeamClassLoaderFactory.this.hasError = true;
-                    throw ie;
-                }
+                // The bytes, though, are the same for every robot of every
+                // team, so they're only instrumented once per process.
+                byte[] classBytes = sharedClasses.computeIfAbsent(
+                        name + "," + profilerEnabled + "," + pooled + "," + coalesced,
+                        (key) -> systemFactory(pooled, coalesced)
+                                .createLoader(profilerEnabled)
+                                .instrument(TeamClassLoaderFactory.normalReader(name), false, false));
 
                 finishedClass = saveAndDefineClass(name, classBytes);
             } else {
@@ -511,7 +810,9 @@ public final class TeamClassLoaderFactory {
                 throw new InstrumentationException(ILLEGAL, "Can't save class with null bytes: " + name);
             }
 
+            final long start = System.nanoTime();
             Class<?> theClass = defineClass(null, classBytes, 0, classBytes.length);
+            recordDefinition(start);
             TeamClassLoaderFactory.this.setCached(name, classBytes);
 
             return theClass;
@@ -522,6 +823,19 @@ public final class TeamClassLoaderFactory {
                                  boolean checkDisallowed,
                                  boolean debugMethodsEnabled) throws InstrumentationException {
 
+            // Classes that fail instrumentation are never saved, so they fail
+            // again, with the same error, every time. Profiled classes aren't
+            // saved either: they have FrameRegistry ids baked in, which only
+            // mean something in this process.
+            final String key = diskCache == null || profilerEnabled ? null : diskCache.key(reader.b,
+                    checkDisallowed, debugMethodsEnabled, profilerEnabled, pooled, coalesced);
+            if (key != null) {
+                final byte[] cached = diskCache.get(key);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+
             ClassWriter cw = new ClassWriter(COMPUTE_MAXS); // passing true sets maxLocals and maxStack, so we don't have to
             ClassVisitor cv = new InstrumentingClassVisitor(
                     cw,
@@ -529,10 +843,16 @@ public final class TeamClassLoaderFactory {
                     false,
                     checkDisallowed,
                     debugMethodsEnabled,
-                    profilerEnabled
+                    profilerEnabled,
+                    pooled,
+                    coalesced
             );
             reader.accept(cv, 0);        //passing false lets debug info be included in the transformation, so players get line numbers in stack traces
-            return cw.toByteArray();
+            final byte[] classBytes = cw.toByteArray();
+            if (key != null) {
+                diskCache.put(key, classBytes);
+            }
+            return classBytes;
         }
 
         @SuppressWarnings("unused")
@@ -545,4 +865,41 @@ public final class TeamClassLoaderFactory {
         }
 
     }
+
+    /**
+     * Defines the team classes every robot shares, and leaves everything
+     * else to the system class loader, which is where robots' loaders get
+     * every class a shared class may refer to.
+     */
+    private final class SharedLoader extends ClassLoader {
+
+        private SharedLoader() {
+            super(NORMAL_CLASS_LOADER);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!Boolean.TRUE.equals(sharedTeamClasses.get(name))) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> theClass = findLoadedClass(name);
+                if (theClass == null) {
+                    final byte[] classBytes = getCached(name);
+                    final long start = System.nanoTime();
+                    theClass = defineClass(null, classBytes, 0, classBytes.length);
+                    recordDefinition(start);
+                }
+                if (resolve) {
+                    resolveClass(theClass);
+                }
+                return theClass;
+            }
+        }
+
+        @Override
+        public URL getResource(String name) {
+            throw new RuntimeException("You can't use getResource() from a player class!");
+        }
+    }
 }
@@ -0,0 +1,119 @@
+package battlecode.instrumenter;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Passes control back and forth between the engine thread and a robot
+ * player thread. Exactly one of the two is running at any time; the other
+ * is parked until the running side hands control over.
+ *
+ * This replaces a monitor + notifyAll()/wait() pair, which costs two monitor
+ * round trips and a full wakeup per turn. Here a handoff is one volatile
+ * write and one unpark(). The engine side can optionally spin for a while
+ * before parking (bc.engine.handoff-spins), which pays off when robots
+ * finish their turns quickly and there's a spare core to spin on. The
+ * player side never spins, since it always waits a whole round.
+ *
+ * The volatile write of {@link #turn} publishes everything the handing-off
+ * thread did before it, so the two threads see each other's state without
+ * any further synchronization.
+ */
+final class TurnHandoff {
+
+    private static final int ENGINE_TURN = 0;
+    private static final int PLAYER_TURN = 1;
+
+    /**
+     * Who currently has control.
+     */
+    private volatile int turn;
+
+    /**
+     * The engine thread, last time it handed control to the player.
+     */
+    private volatile Thread engineThread;
+
+    /**
+     * The player thread, last time it handed control to the engine.
+     */
+    private volatile Thread playerThread;
+
+    /**
+     * How many times the engine polls before parking.
+     */
+    private final int spins;
+
+    /**
+     * @param spins how many times the engine side should poll before parking
+     */
+    TurnHandoff(int spins) {
+        this.spins = Math.max(spins, 0);
+        this.turn = ENGINE_TURN;
+    }
+
+    /**
+     * Start the player thread and wait for it to hand control back.
+     * Called once, on the engine thread.
+     *
+     * @param player the unstarted player thread
+     * @throws InterruptedException if the engine thread is interrupted while waiting
+     */
+    void start(Thread player) throws InterruptedException {
+        engineThread = Thread.currentThread();
+        playerThread = player;
+        turn = PLAYER_TURN;
+        player.start();
+        await(ENGINE_TURN, spins);
+    }
+
+    /**
+     * Give control to the player and wait until it hands control back.
+     * Called on the engine thread.
+     *
+     * @throws InterruptedException if the engine thread is interrupted while waiting
+     */
+    void runPlayer() throws InterruptedException {
+        engineThread = Thread.currentThread();
+        turn = PLAYER_TURN;
+        LockSupport.unpark(playerThread);
+        await(ENGINE_TURN, spins);
+    }
+
+    /**
+     * Give control back to the engine and wait until it's the player's
+     * turn again. Called on the player thread.
+     *
+     * @throws InterruptedException if the player thread is interrupted while waiting
+     */
+    void yieldToEngine() throws InterruptedException {
+        playerThread = Thread.currentThread();
+        turn = ENGINE_TURN;
+        LockSupport.unpark(engineThread);
+        await(PLAYER_TURN, 0);
+    }
+
+    /**
+     * Give control back to the engine for good. Called on the player
+     * thread when it's about to exit.
+     */
+    void release() {
+        turn = ENGINE_TURN;
+        LockSupport.unpark(engineThread);
+    }
+
+    private void await(int expected, int spinsLeft) throws InterruptedException {
+        while (spinsLeft-- > 0) {
+            if (turn == expected) {
+                return;
+            }
+        }
+        // park() can return spuriously, or because of a stale unpark() from
+        // an earlier turn, so recheck every time we wake up.
+        while (turn != expected) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            LockSupport.park(this);
+        }
+    }
+}
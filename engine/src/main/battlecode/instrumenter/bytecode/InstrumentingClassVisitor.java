@@ -4,21 +4,104 @@ import battlecode.instrumenter.InstrumentationException;
 import battlecode.instrumenter.TeamClassLoaderFactory;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import static battlecode.instrumenter.InstrumentationException.Type.ILLEGAL;
+
 /**
  * Instruments a class. Overrides class references and runs an
  * InstrumentingMethodVisitor on every method.
  *
+ * If the class is made resettable (for bc.engine.pooled-sandboxes), its
+ * static state can be thrown away and rebuilt when a sandbox is reused for
+ * a new robot:
+ *  - the static initializer is moved into __bc_clinit()
+ *  - the new static initializer sets __bc_ready, registers the class with
+ *    RobotMonitor, and calls __bc_clinit()
+ *  - __bc_reset() sets every static field back to its default and clears
+ *    __bc_ready
+ *  - __bc_init() reruns the superclass's and then this class's initializer
+ *    if __bc_ready is clear, like the JVM would for a fresh class
+ *  - InstrumentingMethodVisitor calls __bc_init() wherever the JVM would
+ *    initialize another instrumented class, and looks up enum constants
+ *    through EnumConstants, since the JVM caches the first ones it sees
+ * Interfaces with static initializers register themselves as unresettable
+ * instead, as do classes that hand out method references to other classes'
+ * statics; sandboxes where any of them were initialized are discarded
+ * rather than reused.
+ *
  * @author adamd
  */
 public class InstrumentingClassVisitor extends ClassVisitor implements Opcodes {
 
+    /**
+     * Added to resettable classes; resets their static fields.
+     */
+    public static final String RESET_METHOD = "__bc_reset";
+
+    /**
+     * Added to resettable classes; reinitializes them after a reset.
+     */
+    public static final String INIT_METHOD = "__bc_init";
+
+    /**
+     * What the original static initializer of a resettable class is renamed to.
+     */
+    static final String CLINIT_METHOD = "__bc_clinit";
+
+    /**
+     * Added to resettable classes; whether the class is initialized.
+     */
+    static final String READY_FIELD = "__bc_ready";
+
+    /**
+     * Players can't declare members with this prefix in resettable mode.
+     */
+    private static final String SYNTHETIC_PREFIX = "__bc_";
+
+    private static final String ROBOT_MONITOR = "battlecode/instrumenter/inject/RobotMonitor";
+
+    /**
+     * Added to team classes whose superclass isn't a team class, with
+     * IDENTITY_HASH_FIELD and its accessors, for ObjectMethods.
+     */
+    private static final String IDENTITY_HASHED = "battlecode/instrumenter/inject/IdentityHashed";
+    static final String IDENTITY_HASH_FIELD = "__bc_identityHash";
+    static final String GET_IDENTITY_HASH_METHOD = "__bc_getIdentityHash";
+    static final String SET_IDENTITY_HASH_METHOD = "__bc_setIdentityHash";
+
     private String className;
+    private int classVersion;
+    private boolean isInterface;
+    private String superName;
+
+    // Whether to add IdentityHashed to the class.
+    private boolean identityHashed;
+
+    // Whether to make the class's statics resettable.
+    private final boolean resettable;
+
+    // The static fields of the class that need resetting.
+    private final List<StaticField> staticFields = new ArrayList<>();
+
+    // Whether the class has a static initializer.
+    private boolean hasClinit;
+
+    // Whether something makes this class unresettable.
+    private boolean unresettable;
+
+    // Whether to charge bytecodes at calls, returns and back-edges only.
+    private final boolean coalesced;
+
     private final boolean silenced;
     private final boolean debugMethodsEnabled;
     private final boolean profilerEnabled;
@@ -36,19 +119,47 @@ public class InstrumentingClassVisitor extends ClassVisitor implements Opcodes {
      *  @param cv                  the ClassVisitor that should be used to read the class
      * @param silenced            whether System.out should be silenced for this class
      * @param checkDisallowed     whether to check for disallowed classes and methods
+     * @param resettable          whether to make the class's static state resettable
+     * @param coalesced           whether to charge bytecodes at calls, returns and back-edges only
      */
     public InstrumentingClassVisitor(final ClassVisitor cv,
                                      final TeamClassLoaderFactory.Loader loader,
                                      boolean silenced,
                                      boolean checkDisallowed,
                                      boolean debugMethodsEnabled,
-                                     boolean profilerEnabled) throws InstrumentationException {
+                                     boolean profilerEnabled,
+                                     boolean resettable,
+                                     boolean coalesced) throws InstrumentationException {
         super(Opcodes.ASM5, cv);
         this.loader = loader;
         this.silenced = silenced;
         this.checkDisallowed = checkDisallowed;
         this.debugMethodsEnabled = debugMethodsEnabled;
         this.profilerEnabled = profilerEnabled;
+        this.resettable = resettable;
+        this.coalesced = coalesced;
+    }
+
+    /**
+     * @return whether the class's static state is being made resettable
+     */
+    boolean isResettable() {
+        return resettable;
+    }
+
+    /**
+     * @return whether bytecodes are charged at calls, returns and back-edges only
+     */
+    boolean isCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * Called by InstrumentingMethodVisitor when it finds something that
+     * prevents resetting the class's statics.
+     */
+    void markUnresettable() {
+        unresettable = true;
     }
 
     /**
@@ -63,12 +174,24 @@ public class InstrumentingClassVisitor extends ClassVisitor implements Opcodes {
             final String superName,
             final String[] interfaces) {
         className = loader.getRefUtil().classReference(name, checkDisallowed);
+        classVersion = version;
+        isInterface = (access & ACC_INTERFACE) != 0;
         for (int i = 0; i < interfaces.length; i++) {
             interfaces[i] = loader.getRefUtil().classReference(interfaces[i], checkDisallowed);
         }
         String newSuperName;
         newSuperName = loader.getRefUtil().classReference(superName, checkDisallowed);
-        super.visit(version, access, className, loader.getRefUtil().methodSignatureReference(signature, checkDisallowed), newSuperName, interfaces);
+        this.superName = newSuperName;
+        // Only team classes are checked for disallowed classes. Their
+        // subclasses inherit the field.
+        identityHashed = checkDisallowed && !isInterface && newSuperName != null
+                && !loader.getFactory().hasTeamClass(newSuperName);
+        String[] newInterfaces = interfaces;
+        if (identityHashed) {
+            newInterfaces = Arrays.copyOf(interfaces, interfaces.length + 1);
+            newInterfaces[interfaces.length] = IDENTITY_HASHED;
+        }
+        super.visit(version, access, className, loader.getRefUtil().methodSignatureReference(signature, checkDisallowed), newSuperName, newInterfaces);
     }
 
     /**
@@ -81,6 +204,22 @@ public class InstrumentingClassVisitor extends ClassVisitor implements Opcodes {
             final String signature,
             final String[] exceptions) {
 
+        String newName = name;
+        if (checkDisallowed && !resettable) {
+            checkSyntheticName(name);
+        }
+        if (resettable) {
+            checkSyntheticName(name);
+            if (name.equals("<clinit>")) {
+                hasClinit = true;
+                if (!isInterface) {
+                    // moved aside; visitEnd() writes a new <clinit>
+                    newName = CLINIT_METHOD;
+                    access = ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC;
+                }
+            }
+        }
+
         // Nothing bad should happen if a function is synchronized, because
         // there isn't any way for two robots to get the same instance of
         // an instrumented class.  But we may as well strip the keyword
@@ -93,13 +232,24 @@ public class InstrumentingClassVisitor extends ClassVisitor implements Opcodes {
             }
         }
         MethodVisitor mv = cv.visitMethod(access,
-                name,
+                newName,
                 loader.getRefUtil().methodDescReference(desc, checkDisallowed),
                 loader.getRefUtil().methodSignatureReference(signature, checkDisallowed),
                 exceptions);
+        if (mv != null && resettable && isInterface && name.equals("<clinit>")) {
+            mv = new MethodVisitor(ASM5, mv) {
+                @Override
+                public void visitCode() {
+                    super.visitCode();
+                    registerWithMonitor(this, "registerUnresettable");
+                }
+            };
+        }
         // create a new InstrumentingMethodVisitor, and let it loose on this method
+        // (under its original name, so the profiler still sees <clinit>)
         return mv == null ? null : new InstrumentingMethodVisitor(
                 mv,
+                this,
                 loader,
                 className,
                 access,
@@ -123,13 +273,171 @@ public class InstrumentingClassVisitor extends ClassVisitor implements Opcodes {
         // should never be accessed by more than one thread.
         if (checkDisallowed || (access & Opcodes.ACC_STATIC) == 0)
             access &= ~Opcodes.ACC_VOLATILE;
+        final String newDesc = loader.getRefUtil().classDescReference(desc, checkDisallowed);
+        if (checkDisallowed && !resettable) {
+            checkSyntheticName(name);
+        }
+        if (resettable) {
+            checkSyntheticName(name);
+            if (!isInterface && (access & ACC_STATIC) != 0
+                    && !((access & ACC_FINAL) != 0 && value != null)) {
+                // Compile-time constants never change; everything else is
+                // reset, so it can't be final (or the JIT might trust it).
+                access &= ~ACC_FINAL;
+                staticFields.add(new StaticField(name, newDesc, value));
+            }
+        }
         return cv.visitField(access,
                 name,
-                loader.getRefUtil().classDescReference(desc, checkDisallowed),
+                newDesc,
                 loader.getRefUtil().fieldSignatureReference(signature, checkDisallowed),
                 value);
     }
 
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void visitEnd() {
+        if (identityHashed) {
+            addIdentityHashMembers();
+        }
+        if (resettable) {
+            if (!isInterface) {
+                addResetMembers();
+            } else if (unresettable && !hasClinit) {
+                MethodVisitor mv = cv.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+                mv.visitCode();
+                registerWithMonitor(mv, "registerUnresettable");
+                mv.visitInsn(RETURN);
+                mv.visitMaxs(0, 0);
+                mv.visitEnd();
+            }
+        }
+        super.visitEnd();
+    }
+
+    private void checkSyntheticName(String name) {
+        if (name.startsWith(SYNTHETIC_PREFIX)) {
+            throw new InstrumentationException(ILLEGAL, "Illegal member in " + className + ": "
+                    + "names starting with " + SYNTHETIC_PREFIX + " are reserved.");
+        }
+    }
+
+    /**
+     * Emit a call to a RobotMonitor method taking this class.
+     */
+    private void registerWithMonitor(MethodVisitor mv, String method) {
+        mv.visitLdcInsn(Type.getObjectType(className));
+        mv.visitMethodInsn(INVOKESTATIC, ROBOT_MONITOR, method, "(Ljava/lang/Class;)V", false);
+    }
+
+    /**
+     * Add __bc_identityHash and the IdentityHashed methods to a class.
+     * They aren't instrumented; ObjectMethods calls them on the player's
+     * behalf, and charges for that itself.
+     */
+    private void addIdentityHashMembers() {
+        cv.visitField(ACC_PRIVATE | ACC_TRANSIENT | ACC_SYNTHETIC, IDENTITY_HASH_FIELD, "J", null, null).visitEnd();
+
+        MethodVisitor mv = cv.visitMethod(ACC_PUBLIC | ACC_SYNTHETIC, GET_IDENTITY_HASH_METHOD, "()J", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, className, IDENTITY_HASH_FIELD, "J");
+        mv.visitInsn(LRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cv.visitMethod(ACC_PUBLIC | ACC_SYNTHETIC, SET_IDENTITY_HASH_METHOD, "(J)V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(LLOAD, 1);
+        mv.visitFieldInsn(PUTFIELD, className, IDENTITY_HASH_FIELD, "J");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    /**
+     * Add __bc_ready, <clinit>, __bc_init and __bc_reset to a class.
+     */
+    private void addResetMembers() {
+        final boolean frames = (classVersion & 0xFFFF) >= V1_6;
+
+        cv.visitField(ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC, READY_FIELD, "Z", null, null).visitEnd();
+
+        MethodVisitor mv = cv.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+        mv.visitCode();
+        mv.visitInsn(ICONST_1);
+        mv.visitFieldInsn(PUTSTATIC, className, READY_FIELD, "Z");
+        registerWithMonitor(mv, unresettable ? "registerUnresettable" : "registerResettable");
+        if (hasClinit) {
+            mv.visitMethodInsn(INVOKESTATIC, className, CLINIT_METHOD, "()V", false);
+        }
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // if (__bc_ready) return;
+        // __bc_ready = true;
+        // super.__bc_init();
+        // try { __bc_clinit(); }
+        // catch (Throwable t) { throw t instanceof Error ? t : new ExceptionInInitializerError(t); }
+        mv = cv.visitMethod(ACC_PUBLIC | ACC_STATIC | ACC_SYNTHETIC, INIT_METHOD, "()V", null, null);
+        mv.visitCode();
+        Label init = new Label();
+        mv.visitFieldInsn(GETSTATIC, className, READY_FIELD, "Z");
+        mv.visitJumpInsn(IFEQ, init);
+        mv.visitInsn(RETURN);
+        mv.visitLabel(init);
+        if (frames) mv.visitFrame(F_SAME, 0, null, 0, null);
+        mv.visitInsn(ICONST_1);
+        mv.visitFieldInsn(PUTSTATIC, className, READY_FIELD, "Z");
+        if (superName != null && (superName.startsWith("instrumented/")
+                || loader.getFactory().hasTeamClass(superName))) {
+            mv.visitMethodInsn(INVOKESTATIC, superName, INIT_METHOD, "()V", false);
+        }
+        if (hasClinit) {
+            Label start = new Label(), end = new Label(), handler = new Label(), wrap = new Label();
+            mv.visitTryCatchBlock(start, end, handler, "java/lang/Throwable");
+            mv.visitLabel(start);
+            mv.visitMethodInsn(INVOKESTATIC, className, CLINIT_METHOD, "()V", false);
+            mv.visitLabel(end);
+            mv.visitInsn(RETURN);
+            mv.visitLabel(handler);
+            if (frames) mv.visitFrame(F_SAME1, 0, null, 1, new Object[]{"java/lang/Throwable"});
+            mv.visitInsn(DUP);
+            mv.visitTypeInsn(INSTANCEOF, "java/lang/Error");
+            mv.visitJumpInsn(IFEQ, wrap);
+            mv.visitInsn(ATHROW);
+            mv.visitLabel(wrap);
+            if (frames) mv.visitFrame(F_SAME1, 0, null, 1, new Object[]{"java/lang/Throwable"});
+            mv.visitVarInsn(ASTORE, 0);
+            mv.visitTypeInsn(NEW, "java/lang/ExceptionInInitializerError");
+            mv.visitInsn(DUP);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitMethodInsn(INVOKESPECIAL, "java/lang/ExceptionInInitializerError", "<init>",
+                    "(Ljava/lang/Throwable;)V", false);
+            mv.visitInsn(ATHROW);
+        } else {
+            mv.visitInsn(RETURN);
+        }
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cv.visitMethod(ACC_PUBLIC | ACC_STATIC | ACC_SYNTHETIC, RESET_METHOD, "()V", null, null);
+        mv.visitCode();
+        for (StaticField field : staticFields) {
+            field.pushInitialValue(mv);
+            mv.visitFieldInsn(PUTSTATIC, className, field.name, field.desc);
+        }
+        mv.visitInsn(ICONST_0);
+        mv.visitFieldInsn(PUTSTATIC, className, READY_FIELD, "Z");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
     /**
      * @inheritDoc
      */
@@ -148,4 +456,42 @@ public class InstrumentingClassVisitor extends ClassVisitor implements Opcodes {
         );
     }
 
+    /**
+     * A static field that __bc_reset() has to restore.
+     */
+    private static final class StaticField {
+        final String name;
+        final String desc;
+        final Object value; // from a ConstantValue attribute, or null
+
+        StaticField(String name, String desc, Object value) {
+            this.name = name;
+            this.desc = desc;
+            this.value = value;
+        }
+
+        void pushInitialValue(MethodVisitor mv) {
+            if (value != null) {
+                mv.visitLdcInsn(value);
+                return;
+            }
+            switch (desc.charAt(0)) {
+                case 'J':
+                    mv.visitInsn(LCONST_0);
+                    break;
+                case 'F':
+                    mv.visitInsn(FCONST_0);
+                    break;
+                case 'D':
+                    mv.visitInsn(DCONST_0);
+                    break;
+                case 'L':
+                case '[':
+                    mv.visitInsn(ACONST_NULL);
+                    break;
+                default:
+                    mv.visitInsn(ICONST_0);
+            }
+        }
+    }
 }
@@ -4,13 +4,18 @@ import battlecode.common.GameConstants;
 import battlecode.instrumenter.TeamClassLoaderFactory;
 import battlecode.server.ErrorReporter;
 import battlecode.instrumenter.InstrumentationException;
+import battlecode.instrumenter.profiler.FrameRegistry;
 import org.objectweb.asm.*;
 import org.objectweb.asm.tree.*;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static battlecode.instrumenter.InstrumentationException.Type.ILLEGAL;
@@ -20,6 +25,8 @@ import static org.objectweb.asm.tree.AbstractInsnNode.*;
  * The class where the bulk of instrumentation happens.
  * Takes in the bytecode for a method and modifies it to do a few things:
  *  - Call RobotMonitor.incrementBytecodes() at the end of every basic block
+ *    (or, with coalesced accounting, add to RobotMonitor.pendingBytecodes at the
+ *    end of most blocks, and only call it at calls, returns and back-edges)
  *  - Overrides class references with our injected / instrumented class references
  *  - Modifies some particularly finnicky method calls so that they behave correctly
  *    (e.g. Object.hashCode(), Math.random(), Throwable.printStackTrace())
@@ -28,11 +35,37 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
 
     private final static String DEBUG_PREFIX = "debug_";
 
+    private final static String INSTRUMENTABLE_FUNCTIONS = "instrumented/battlecode/instrumenter/inject/InstrumentableFunctions";
+
     private final String className;    // the class to which this method belongs
     private final boolean checkDisallowed;
     private final boolean debugMethodsEnabled;
     private final boolean profilerEnabled;
 
+    // The FrameRegistry id of this method, once it's needed.
+    private int frameId = -1;
+
+    // the visitor for the class this method belongs to
+    private final InstrumentingClassVisitor classVisitor;
+
+    // whether to guard static accesses so the classes they initialize can be reset
+    private final boolean resettable;
+
+    // whether to keep a running count at the end of straight-line blocks, and only charge it
+    // at calls, returns, throws, back-edges and exception handlers; never when profiling,
+    // since the profiler attributes bytecodes to the method that charges them
+    private final boolean coalesced;
+
+    // the labels we've passed, so that jumps to them are back-edges
+    private final Set<LabelNode> seenLabels = new HashSet<>();
+
+    // whether the current block has to end by charging bytecodes (see endOfStraightBlock)
+    private boolean flushAtBlockEnd;
+
+    // labels marking NEW instructions that we've moved an initialization guard in front of,
+    // mapped to the labels now marking the NEW instructions
+    private final Map<LabelNode, LabelNode> movedNewLabels = new HashMap<>();
+
     // used to load other class files
     private final TeamClassLoaderFactory.Loader loader;
 
@@ -56,6 +89,7 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
     private MethodVisitor methodWriter;
 
     public InstrumentingMethodVisitor(final MethodVisitor mv,
+                                      final InstrumentingClassVisitor classVisitor,
                                       final TeamClassLoaderFactory.Loader loader,
                                       final String className,
                                       final int access,
@@ -69,6 +103,9 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
                                       boolean profilerEnabled) {
         super(ASM5, access, methodName, methodDesc, signature, exceptions);
         this.methodWriter = mv;
+        this.classVisitor = classVisitor;
+        this.resettable = classVisitor.isResettable();
+        this.coalesced = classVisitor.isCoalesced() && !profilerEnabled;
 
         this.loader = loader;
         this.className = className;
@@ -141,7 +178,11 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
                 case LOOKUPSWITCH_INSN:
                 case TABLESWITCH_INSN:
                     bytecodeCtr++;
-                    endOfBasicBlock(node);
+                    if (isBackEdge(node)) {
+                        endOfBasicBlock(node);
+                    } else {
+                        endOfStraightBlock(node);
+                    }
                     break;
                 case INT_INSN:
                     visitIntInsnNode((IntInsnNode) node);
@@ -151,6 +192,13 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
                     break;
             }
         }
+        if (!movedNewLabels.isEmpty()) {
+            for (AbstractInsnNode node : instructions.toArray()) {
+                if (node.getType() == FRAME) {
+                    moveUninitializedLabels((FrameNode) node);
+                }
+            }
+        }
         startLabel = new LabelNode(new Label());
         instructions.insert(startLabel);
 
@@ -193,8 +241,26 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
         return n;
     }
 
+    /**
+     * @return whether to tell the profiler about this method; it only
+     *         profiles player code
+     */
+    private boolean isProfiled() {
+        return profilerEnabled && !className.startsWith("instrumented/");
+    }
+
+    /**
+     * @return the FrameRegistry id of this method
+     */
+    private int frameId() {
+        if (frameId < 0) {
+            frameId = FrameRegistry.idOf(className.replace('/', '.') + "." + name);
+        }
+        return frameId;
+    }
+
     private void addEnterMethodHandler() {
-        if (!profilerEnabled) {
+        if (!isProfiled()) {
             return;
         }
 
@@ -205,28 +271,28 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
                 INVOKESTATIC,
                 "battlecode/instrumenter/inject/RobotMonitor",
                 "enterMethod",
-                "(" + Type.getDescriptor(String.class) + ")V",
+                "(I)V",
                 false
             )
         );
         instructions.insertBefore(
             nextInstruction(instructions.getFirst()),
-            new LdcInsnNode(className.replaceAll("/", ".") + "." + name)
+            new LdcInsnNode(frameId())
         );
     }
 
     private void addExitMethodHandler(AbstractInsnNode n) {
-        if (!profilerEnabled) {
+        if (!isProfiled()) {
             return;
         }
 
         // call "exitMethod" at every exit point of a method (return, implicit return and throw)
-        instructions.insertBefore(n, new LdcInsnNode(className.replaceAll("/", ".") + "." + name));
+        instructions.insertBefore(n, new LdcInsnNode(frameId()));
         instructions.insertBefore(n, new MethodInsnNode(
             INVOKESTATIC,
             "battlecode/instrumenter/inject/RobotMonitor",
             "exitMethod",
-            "(" + Type.getDescriptor(String.class) + ")V",
+            "(I)V",
             false
         ));
     }
@@ -294,6 +360,9 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
 
     private void visitFieldInsnNode(FieldInsnNode n) {
         bytecodeCtr++;
+        if (resettable && (n.getOpcode() == GETSTATIC || n.getOpcode() == PUTSTATIC)) {
+            addInitGuard(n, staticInitOwner(n.owner, n.name, n.desc, true));
+        }
         n.owner = classReference(n.owner);
         n.desc = classDescReference(n.desc);
     }
@@ -392,6 +461,16 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
                     }
                 }
 
+                if (resettable && (h.getTag() == H_INVOKESTATIC || h.getTag() == H_GETSTATIC
+                        || h.getTag() == H_PUTSTATIC || h.getTag() == H_NEWINVOKESPECIAL)) {
+                    // Nothing at the call site of the resulting object tells us
+                    // that the target class might need to be initialized.
+                    String target = classReference(h.getOwner());
+                    if (!target.equals(className) && isInstrumentedClass(target)) {
+                        classVisitor.markUnresettable();
+                    }
+                }
+
                 n.bsmArgs[i] = new Handle(
                         h.getTag(),
                         classReference(h.getOwner()),
@@ -427,6 +506,35 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
             return;
         }
 
+        if (checkDisallowed && n.name.equals("clone") && n.desc.startsWith("()L")
+                && n.getOpcode() != INVOKESTATIC && !n.owner.startsWith("[")) {
+            // Object.clone() copies the identity hash code a team object keeps
+            // in itself; hand the copy and the original to ObjectMethods, which
+            // forgets the copy's. Charged like the original call.
+            instructions.insertBefore(n, new InsnNode(DUP));
+            final InsnList after = new InsnList();
+            after.add(new MethodInsnNode(INVOKESTATIC, "battlecode/instrumenter/inject/ObjectMethods", "cloned",
+                    "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", false));
+            final String returnType = Type.getReturnType(n.desc).getInternalName();
+            if (!returnType.equals("java/lang/Object")) {
+                after.add(new TypeInsnNode(CHECKCAST, classReference(returnType)));
+            }
+            instructions.insert(n, after);
+        }
+
+        if (isEnumConstantLookup(n)) {
+            // the JVM caches enum constants, which a reused sandbox replaces;
+            // charged like the original call, which costs nothing itself
+            if (n.getOpcode() != INVOKESTATIC) {
+                n.desc = "(L" + (n.owner.equals("java/lang/Class") ? "java/lang/Class" : "java/lang/Object")
+                        + ";" + n.desc.substring(1);
+            }
+            n.owner = "battlecode/instrumenter/inject/EnumConstants";
+            n.itf = false;
+            n.setOpcode(INVOKESTATIC);
+            return;
+        }
+
         if (n.owner.equals("java/util/Random") && n.name.equals("<init>") &&
                 n.desc.equals("()V")) {
             instructions.insertBefore(n, new MethodInsnNode(INVOKESTATIC, "battlecode/instrumenter/inject/RobotMonitor", "getRandomSeed", "()J", false));
@@ -449,6 +557,10 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
             checkDisallowedMethod(n.owner, n.name, n.desc);
         }
 
+        final String originalOwner = n.owner;
+        final String originalDesc = n.desc;
+        boolean removed = false;
+
         boolean endBasicBlock = loader.getFactory().hasTeamClass(n.owner) || classReference(n.owner).startsWith("instrumented") || n.owner.startsWith("battlecode");
 
         MethodCostUtil.MethodData data = getMethodData(n.owner, n.name);
@@ -516,12 +628,139 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
                 instructions.remove(n);
                 // no function was called so don't end the basic block
                 endBasicBlock = false;
+                removed = true;
             }
         }
 
-        if (endBasicBlock)
+        if (endBasicBlock) {
             endOfBasicBlock(n);
+        } else if (coalesced && !removed && (originalOwner.equals("battlecode/common/RobotController")
+                || originalOwner.equals("battlecode/common/Clock"))) {
+            // Per-block accounting would have charged the blocks before this one
+            // (and paused if they ran out) before the player could look at the game
+            // or its bytecode count, so charge them now.
+            instructions.insertBefore(n, new MethodInsnNode(INVOKESTATIC,
+                    "battlecode/instrumenter/inject/RobotMonitor", "flushBytecodes", "()V", false));
+        }
+
+        // The guard goes after the bytecode increment, which might pause the
+        // robot, so that initialization happens in the same turn as it would
+        // without the guard.
+        if (resettable && !removed && n.getOpcode() == INVOKESTATIC && !n.itf) {
+            if (n.owner.equals(INSTRUMENTABLE_FUNCTIONS)) {
+                addInitGuard(n, n.owner);
+            } else {
+                addInitGuard(n, staticInitOwner(originalOwner, n.name, originalDesc, false));
+            }
+        }
+    }
 
+    /**
+     * @param ref a class, as returned by classReference
+     * @return whether the class is instrumented, and so gets loaded separately for every robot
+     */
+    private boolean isInstrumentedClass(String ref) {
+        return ref.startsWith("instrumented/") || loader.getFactory().hasTeamClass(ref);
+    }
+
+    /**
+     * Find the class that a static field access or method call would
+     * initialize, if it might need to be reinitialized in a reused sandbox.
+     *
+     * @param owner the class the member is referenced through, before classReference
+     * @param memberName the name of the member
+     * @param memberDesc the descriptor of the member, before classReference
+     * @param field whether the member is a field
+     * @return the class to guard, as returned by classReference; or null if no guard is needed
+     */
+    private String staticInitOwner(String owner, String memberName, String memberDesc, boolean field) {
+        final String ownerRef = loader.getRefUtil().classReference(owner, false);
+        // If we're running, our class and its superclasses are initialized already.
+        // Uninstrumented classes can't have instrumented superclasses.
+        if (ownerRef.equals(className) || !isInstrumentedClass(ownerRef)) {
+            return null;
+        }
+        final String declaring = StaticMemberResolver.declaringClass(
+                loader.getFactory(), owner, memberName, memberDesc, field);
+        if (declaring == null) {
+            return null;
+        }
+        final String declaringRef = loader.getRefUtil().classReference(declaring, false);
+        if (declaringRef.equals(className) || !isInstrumentedClass(declaringRef)) {
+            return null;
+        }
+        return declaringRef;
+    }
+
+    /**
+     * Call owner.__bc_init() right before n, so that the class is
+     * reinitialized if its statics have been reset.
+     *
+     * @param n the instruction that would initialize the class
+     * @param owner the class to initialize, or null to do nothing
+     */
+    private void addInitGuard(AbstractInsnNode n, String owner) {
+        if (owner == null) {
+            return;
+        }
+        instructions.insertBefore(n, new MethodInsnNode(INVOKESTATIC, owner,
+                InstrumentingClassVisitor.INIT_METHOD, "()V", false));
+    }
+
+    /**
+     * Stack map frames refer to the object created by a NEW through the
+     * label right before it, so when we put a guard in front of a NEW, the
+     * NEW needs a new label, and the frames need to use it.
+     */
+    private void addNewInitGuard(TypeInsnNode n) {
+        if (n.desc.equals(className) || !isInstrumentedClass(n.desc)) {
+            return;
+        }
+        AbstractInsnNode previous = n.getPrevious();
+        while (previous != null && (previous.getType() == LINE || previous.getType() == FRAME)) {
+            previous = previous.getPrevious();
+        }
+        addInitGuard(n, n.desc);
+        if (previous != null && previous.getType() == LABEL) {
+            LabelNode label = new LabelNode(new Label());
+            instructions.insertBefore(n, label);
+            movedNewLabels.put((LabelNode) previous, label);
+        }
+    }
+
+    /**
+     * @return whether n looks up the constants of an enum class through
+     *         the JVM, which caches them
+     */
+    private static boolean isEnumConstantLookup(MethodInsnNode n) {
+        switch (n.name) {
+            case "valueOf":
+                return n.owner.equals("java/lang/Enum")
+                        && n.desc.equals("(Ljava/lang/Class;Ljava/lang/String;)Ljava/lang/Enum;");
+            case "getEnumConstants":
+                return n.owner.equals("java/lang/Class") && n.desc.equals("()[Ljava/lang/Object;");
+            case "getEnumConstantsShared":
+                return n.owner.endsWith("/JavaLangAccess") && n.desc.equals("(Ljava/lang/Class;)[Ljava/lang/Enum;");
+            default:
+                return false;
+        }
+    }
+
+    private void moveUninitializedLabels(FrameNode n) {
+        n.local = moveUninitializedLabels(n.local);
+        n.stack = moveUninitializedLabels(n.stack);
+    }
+
+    private List<Object> moveUninitializedLabels(List<?> types) {
+        if (types == null) {
+            return null;
+        }
+        final List<Object> moved = new ArrayList<>(types.size());
+        for (Object type : types) {
+            final LabelNode label = movedNewLabels.get(type);
+            moved.add(label != null ? label : type);
+        }
+        return moved;
     }
 
     /**
@@ -605,6 +844,7 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
         newInsns.add(new InsnNode(DUP));
         newInsns.add(new MethodInsnNode(INVOKESTATIC, "battlecode/instrumenter/inject/RobotMonitor", "calculateMultiArrayCost", "([I)I"));
         newInsns.add(new MethodInsnNode(INVOKESTATIC, "battlecode/instrumenter/inject/RobotMonitor", "incrementBytecodesWithoutInterrupt", "(I)V"));
+        flushAtBlockEnd = true;
 
         newInsns.add(new LdcInsnNode(n.dims - 1));
         for (int i = 0; i < n.dims; i++) {
@@ -621,19 +861,27 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
     }
 
     private void visitLabelNode(LabelNode n) {
-        endOfBasicBlock(n);
-        if (exceptionHandlers.contains(n))
+        endOfStraightBlock(n);
+        seenLabels.add(n);
+        if (exceptionHandlers.contains(n)) {
             bytecodeCtr += GameConstants.EXCEPTION_BYTECODE_PENALTY;
+            // an exception can jump backwards to its handler
+            flushAtBlockEnd = true;
+        }
     }
 
     private void visitTypeInsnNode(TypeInsnNode n) {
         n.desc = classReference(n.desc);
+        if (resettable && n.getOpcode() == NEW) {
+            addNewInitGuard(n);
+        }
 	if (n.getOpcode() == ANEWARRAY) {
 	    InsnList newInsns = new InsnList();
 	    newInsns.add(new InsnNode(DUP));
         newInsns.add(new MethodInsnNode(INVOKESTATIC, "battlecode/instrumenter/inject/RobotMonitor", "sanitizeArrayIndex", "(I)I"));
 	    newInsns.add(new MethodInsnNode(INVOKESTATIC, "battlecode/instrumenter/inject/RobotMonitor", "incrementBytecodesWithoutInterrupt", "(I)V"));
 	    instructions.insertBefore(n, newInsns);
+	    flushAtBlockEnd = true;
 	} else {
 	    bytecodeCtr++;
 	}
@@ -652,6 +900,7 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
         newInsns.add(new MethodInsnNode(INVOKESTATIC, "battlecode/instrumenter/inject/RobotMonitor", "sanitizeArrayIndex", "(I)I"));
 	    newInsns.add(new MethodInsnNode(INVOKESTATIC, "battlecode/instrumenter/inject/RobotMonitor", "incrementBytecodesWithoutInterrupt", "(I)V"));
 	    instructions.insertBefore(n, newInsns);
+	    flushAtBlockEnd = true;
 	} else {
 	    bytecodeCtr++;
 	}
@@ -679,11 +928,60 @@ public class InstrumentingMethodVisitor extends MethodNode implements Opcodes {
     }
 
     private void endOfBasicBlock(AbstractInsnNode n) {
-        if (bytecodeCtr == 0)
+        if (bytecodeCtr == 0) {
+            if (coalesced) {
+                // the blocks before this one may still need charging
+                instructions.insertBefore(n, new MethodInsnNode(INVOKESTATIC, "battlecode/instrumenter/inject/RobotMonitor", "flushBytecodes", "()V", false));
+            }
             return;
+        }
         instructions.insertBefore(n, new LdcInsnNode(bytecodeCtr));
         instructions.insertBefore(n, new MethodInsnNode(INVOKESTATIC, "battlecode/instrumenter/inject/RobotMonitor", "incrementBytecodes", "(I)V", false));
         bytecodeCtr = 0;
+        flushAtBlockEnd = false;
+    }
+
+    /**
+     * Ends a basic block that can only be followed by code further down the
+     * method. With coalesced accounting, its bytecodes are added to the running
+     * count, to be charged at the next call, return, throw or back-edge; the
+     * total charged is the same, since no block can run again before then.
+     *
+     * Blocks that start an exception handler (which may be above the code that
+     * threw) or allocate arrays (whose cost is charged along with the block's)
+     * are still charged as they end.
+     */
+    private void endOfStraightBlock(AbstractInsnNode n) {
+        if (!coalesced || flushAtBlockEnd) {
+            endOfBasicBlock(n);
+            return;
+        }
+        if (bytecodeCtr == 0)
+            return;
+        instructions.insertBefore(n, new FieldInsnNode(GETSTATIC, "battlecode/instrumenter/inject/RobotMonitor", "pendingBytecodes", "I"));
+        instructions.insertBefore(n, new LdcInsnNode(bytecodeCtr));
+        instructions.insertBefore(n, new InsnNode(IADD));
+        instructions.insertBefore(n, new FieldInsnNode(PUTSTATIC, "battlecode/instrumenter/inject/RobotMonitor", "pendingBytecodes", "I"));
+        bytecodeCtr = 0;
+    }
+
+    /**
+     * @param n a jump or switch
+     * @return whether it can jump back to code we've already seen
+     */
+    private boolean isBackEdge(AbstractInsnNode n) {
+        switch (n.getType()) {
+            case JUMP_INSN:
+                return n.getOpcode() == JSR || seenLabels.contains(((JumpInsnNode) n).label);
+            case TABLESWITCH_INSN:
+                TableSwitchInsnNode table = (TableSwitchInsnNode) n;
+                return seenLabels.contains(table.dflt) || !Collections.disjoint(seenLabels, table.labels);
+            case LOOKUPSWITCH_INSN:
+                LookupSwitchInsnNode lookup = (LookupSwitchInsnNode) n;
+                return seenLabels.contains(lookup.dflt) || !Collections.disjoint(seenLabels, lookup.labels);
+            default:
+                return true;
+        }
     }
 
     /**
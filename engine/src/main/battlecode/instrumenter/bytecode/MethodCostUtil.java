@@ -1,14 +1,17 @@
 package battlecode.instrumenter.bytecode;
 
+import battlecode.instrumenter.InstrumentationException;
 import battlecode.instrumenter.TeamClassLoaderFactory;
 import org.objectweb.asm.ClassReader;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.objectweb.asm.ClassReader.SKIP_DEBUG;
 
@@ -30,14 +33,20 @@ public class MethodCostUtil {
     private final static String RESOURCE_FILE = "resources/MethodCosts.txt";
 
     /**
-     * This is a map from method names (in the format 'ClassName/methodName'), to the MethodData associated with each method.
+     * The method data from MethodCosts.txt, by binary class name and then by
+     * method name. Never changed after it's loaded.
      */
-    private final static Map<String, MethodData> methodCosts;
+    private final static Map<String, Map<String, MethodData>> methodCosts;
 
     /**
-     * This is a map from binary class names, to all the classes/interfaces that the class transitively implements/extends.
+     * For every class that's been looked up, the MethodData of every method
+     * it has an entry for, either itself or through a class/interface it
+     * transitively implements/extends; by binary class name and then by method
+     * name. Tables are built once per class and never changed afterwards,
+     * so lookups are safe from any number of instrumenting threads, and
+     * don't allocate.
      */
-    private final static Map<String, String[]> interfacesMap;
+    private final static Map<String, Map<String, MethodData>> resolvedCosts;
 
     /**
      * A struct that stores data about a method -- what its lookup bytecode cost is, and whether it should end the basic block or not.
@@ -56,7 +65,7 @@ public class MethodCostUtil {
         BufferedReader reader;
         String line;
 
-        methodCosts = new HashMap<>();
+        final Map<String, Map<String, MethodData>> costs = new HashMap<>();
         // load method costs
         try {
             reader = new BufferedReader(new InputStreamReader(
@@ -66,13 +75,31 @@ public class MethodCostUtil {
                 StringTokenizer st = new StringTokenizer(line);
                 if (st.countTokens() != 3)
                     ClassReferenceUtil.fileLoadError(RESOURCE_FILE);
-                methodCosts.put(st.nextToken(), new MethodData(Integer.parseInt(st.nextToken()), Boolean.parseBoolean(st.nextToken())));
+                final String key = st.nextToken();
+                final int split = key.lastIndexOf('/');
+                costs.computeIfAbsent(key.substring(0, split), (className) -> new HashMap<>())
+                        .put(key.substring(split + 1),
+                                new MethodData(Integer.parseInt(st.nextToken()), Boolean.parseBoolean(st.nextToken())));
             }
         } catch (IOException e) {
             ClassReferenceUtil.fileLoadError(RESOURCE_FILE);
         }
 
-        interfacesMap = new HashMap<>();
+        for (Map.Entry<String, Map<String, MethodData>> entry : costs.entrySet()) {
+            entry.setValue(Collections.unmodifiableMap(entry.getValue()));
+        }
+        methodCosts = Collections.unmodifiableMap(costs);
+
+        // The classes with costs are the ones looked up most; resolve them
+        // up front. Others are resolved when they're first looked up.
+        resolvedCosts = new ConcurrentHashMap<>();
+        for (String className : methodCosts.keySet()) {
+            try {
+                resolvedCosts.put(className, resolve(className));
+            } catch (RuntimeException e) {
+                // Can't be read here; it'll fail again when it's looked up.
+            }
+        }
     }
 
     /**
@@ -84,30 +111,45 @@ public class MethodCostUtil {
     public static MethodData getMethodData(String className, String methodName) {
         if (className.charAt(0) == '[')
             return null;
-        String key = className + "/" + methodName;
-
-        if (methodCosts.containsKey(key))
-            return methodCosts.get(key);
-
-        String[] interfaces;
-        if (interfacesMap.containsKey(className))
-            interfaces = interfacesMap.get(className);
-        else {
-            ClassReader cr = TeamClassLoaderFactory.normalReader(className);
-            InterfaceReader ir = new InterfaceReader(null);
-            cr.accept(ir, SKIP_DEBUG);
-            interfaces = ir.getInterfaces();
-            interfacesMap.put(className, interfaces);
-        }
 
-        for (String anInterface : interfaces) {
-            key = anInterface + "/" + methodName;
-            if (methodCosts.containsKey(key))
-                return methodCosts.get(key);
+        Map<String, MethodData> costs = resolvedCosts.get(className);
+        if (costs == null) {
+            costs = resolvedCosts.computeIfAbsent(className, MethodCostUtil::resolve);
         }
-
-        return null;
+        return costs.get(methodName);
     }
 
+    /**
+     * @param className the binary name of a class
+     * @return the MethodData of every method the class has an entry for:
+     *         its own, and then those of each class/interface it
+     *         transitively implements/extends
+     */
+    private static Map<String, MethodData> resolve(String className) {
+        final Map<String, MethodData> own = methodCosts.get(className);
+        final Map<String, MethodData> result = own == null ? new HashMap<>() : new HashMap<>(own);
+
+        final ClassReader cr;
+        try {
+            cr = TeamClassLoaderFactory.normalReader(className);
+        } catch (InstrumentationException e) {
+            // We can still answer for the methods listed for the class itself.
+            if (own != null) {
+                return own;
+            }
+            throw e;
+        }
+        InterfaceReader ir = new InterfaceReader(null);
+        cr.accept(ir, SKIP_DEBUG);
+        for (String anInterface : ir.getInterfaces()) {
+            final Map<String, MethodData> inherited = methodCosts.get(anInterface);
+            if (inherited != null) {
+                for (Map.Entry<String, MethodData> entry : inherited.entrySet()) {
+                    result.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            }
+        }
 
+        return result.isEmpty() ? Collections.emptyMap() : result;
+    }
 }
@@ -0,0 +1,150 @@
+package battlecode.instrumenter.bytecode;
+
+import battlecode.instrumenter.InstrumentationException;
+import battlecode.instrumenter.TeamClassLoaderFactory;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the class that declares a static field or method, the way the JVM
+ * does when it resolves a getstatic / putstatic / invokestatic. Needed to
+ * know which class a static access will initialize: Sub.x initializes
+ * Super, not Sub, if x is declared in Super.
+ *
+ * System classes never change, so what we read about them is cached for
+ * the whole process. Team classes are read every time.
+ */
+final class StaticMemberResolver {
+
+    /**
+     * What we know about system classes, by internal name.
+     */
+    private static final Map<String, ClassInfo> systemClasses = new ConcurrentHashMap<>();
+
+    /**
+     * Prevent construction.
+     */
+    private StaticMemberResolver() {}
+
+    /**
+     * @param factory the factory to look up team classes in
+     * @param owner   the class the member is referenced through; may have an instrumented/ prefix
+     * @param name    the name of the member
+     * @param desc    the descriptor of the member
+     * @param field   whether the member is a field, rather than a method
+     * @return the internal name of the class declaring the member, without any
+     *         instrumented/ prefix; or null if it's declared by an interface or
+     *         can't be found
+     */
+    static String declaringClass(TeamClassLoaderFactory factory,
+                                 String owner,
+                                 String name,
+                                 String desc,
+                                 boolean field) {
+        ClassInfo info = read(factory, owner);
+        ClassInfo declaring = field ? findField(factory, info, name + desc) : findMethod(factory, info, name + desc);
+        if (declaring == null || declaring.isInterface) {
+            return null;
+        }
+        return declaring.name;
+    }
+
+    private static ClassInfo findField(TeamClassLoaderFactory factory, ClassInfo info, String member) {
+        if (info == null) {
+            return null;
+        }
+        if (info.fields.contains(member)) {
+            return info;
+        }
+        // superinterfaces are searched before the superclass
+        for (String iface : info.interfaces) {
+            ClassInfo found = findField(factory, read(factory, iface), member);
+            if (found != null) {
+                return found;
+            }
+        }
+        return info.superName == null ? null : findField(factory, read(factory, info.superName), member);
+    }
+
+    private static ClassInfo findMethod(TeamClassLoaderFactory factory, ClassInfo info, String member) {
+        // static methods aren't inherited from interfaces
+        while (info != null) {
+            if (info.methods.contains(member)) {
+                return info;
+            }
+            info = info.superName == null ? null : read(factory, info.superName);
+        }
+        return null;
+    }
+
+    private static ClassInfo read(TeamClassLoaderFactory factory, String className) {
+        if (className.startsWith("instrumented/")) {
+            className = className.substring("instrumented/".length());
+        }
+        try {
+            if (factory != null && factory.hasTeamClass(className)) {
+                return new ClassInfo(factory.teamReader(className));
+            }
+            ClassInfo info = systemClasses.get(className);
+            if (info == null) {
+                info = new ClassInfo(TeamClassLoaderFactory.normalReader(className));
+                systemClasses.put(className, info);
+            }
+            return info;
+        } catch (InstrumentationException e) {
+            // The class will fail to load anyway; don't fail here as well.
+            return null;
+        }
+    }
+
+    /**
+     * The parts of a class file needed to resolve static members.
+     */
+    private static final class ClassInfo extends ClassVisitor {
+        String name;
+        String superName;
+        String[] interfaces;
+        boolean isInterface;
+        final Set<String> fields = new HashSet<>();
+        final Set<String> methods = new HashSet<>();
+
+        ClassInfo(ClassReader reader) {
+            super(Opcodes.ASM5);
+            reader.accept(this, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature,
+                          String superName, String[] interfaces) {
+            this.name = name;
+            this.superName = superName;
+            this.interfaces = interfaces == null ? new String[0] : interfaces;
+            this.isInterface = (access & Opcodes.ACC_INTERFACE) != 0;
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+            if ((access & Opcodes.ACC_STATIC) != 0) {
+                fields.add(name + desc);
+            }
+            return null;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature,
+                                         String[] exceptions) {
+            if ((access & Opcodes.ACC_STATIC) != 0) {
+                methods.add(name + desc);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package battlecode.instrumenter.inject;
+
+import battlecode.instrumenter.RobotDeathException;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+
+/**
+ * Replaces the JVM's cache of enum constants. The JVM keeps the constants
+ * it sees the first time they're looked up, but a reused sandbox
+ * reinitializes its enums, and so gets new constants; this cache is
+ * cleared when the sandbox is reset instead.
+ *
+ * The instrumenter replaces calls to Enum.valueOf, Class.getEnumConstants
+ * and JavaLangAccess.getEnumConstantsShared (used by EnumSet and EnumMap)
+ * with these methods. Like the JVM, they call the enum's values() the
+ * first time, which is charged to the robot.
+ */
+@SuppressWarnings("unused")
+public class EnumConstants {
+
+    static HashMap<Class<?>, Object[]> constants = new HashMap<>();
+
+    private EnumConstants() {
+    }
+
+    static public Enum<?>[] getEnumConstantsShared(Object access, Class<?> enumClass) {
+        return (Enum<?>[]) getEnumConstantsShared(enumClass);
+    }
+
+    static public Object[] getEnumConstants(Class<?> enumClass) {
+        final Object[] values = getEnumConstantsShared(enumClass);
+        return values != null ? values.clone() : null;
+    }
+
+    static public Enum<?> valueOf(Class<?> enumClass, String name) {
+        final Object[] values = getEnumConstantsShared(enumClass);
+        if (values == null) {
+            throw new IllegalArgumentException(enumClass.getName() + " is not an enum type");
+        }
+        if (name == null) {
+            throw new NullPointerException("Name is null");
+        }
+        for (Object value : values) {
+            if (((Enum<?>) value).name().equals(name)) {
+                return (Enum<?>) value;
+            }
+        }
+        throw new IllegalArgumentException("No enum constant " + enumClass.getCanonicalName() + "." + name);
+    }
+
+    private static Object[] getEnumConstantsShared(Class<?> enumClass) {
+        Object[] values = constants.get(enumClass);
+        if (values == null) {
+            if (!enumClass.isEnum()) {
+                return null;
+            }
+            try {
+                final Method method = enumClass.getMethod("values");
+                method.setAccessible(true);
+                values = (Object[]) method.invoke(null);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof RobotDeathException) {
+                    throw (RobotDeathException) e.getCause();
+                }
+                return null;
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                // not an enum the usual way; the JVM gives up too
+                return null;
+            }
+            constants.put(enumClass, values);
+        }
+        return values;
+    }
+
+    /**
+     * Forget every enum's constants, since the sandbox's enums are about
+     * to be reinitialized.
+     */
+    static void reset() {
+        constants = new HashMap<>();
+    }
+}
@@ -0,0 +1,23 @@
+package battlecode.instrumenter.inject;
+
+/**
+ * Added by the instrumenter to every team class whose superclass isn't a
+ * team class, along with a field to back it, so that ObjectMethods can
+ * keep the identity hash code of team objects in the objects themselves
+ * instead of in a map.
+ *
+ * Unlike the rest of this package, this isn't reloaded for every robot;
+ * it has no state.
+ */
+public interface IdentityHashed {
+
+    /**
+     * @return the value last passed to __bc_setIdentityHash, or 0
+     */
+    long __bc_getIdentityHash();
+
+    /**
+     * @param hash the value to store
+     */
+    void __bc_setIdentityHash(long hash);
+}
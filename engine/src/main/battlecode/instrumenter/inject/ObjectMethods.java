@@ -33,6 +33,16 @@ public class ObjectMethods {
 
     static int lastHashCode = -1;
 
+    /**
+     * Incremented by reset(), so that codes stored in team objects before
+     * a reset are ignored. Stored codes are tagged with it in their upper
+     * half; it starts at 1, so 0 is never a valid stored code.
+     */
+    static int generation = 1;
+
+    /**
+     * Codes of objects that aren't IdentityHashed, i.e. JDK objects.
+     */
     static WeakIdentityHashMap<Object, Integer> codes = new WeakIdentityHashMap<>();
 
     // reflection is slow so cache the results
@@ -76,6 +86,18 @@ public class ObjectMethods {
     }
 
     static public int identityHashCode(Object o) {
+        if (o instanceof IdentityHashed) {
+            // Team objects carry their own codes; they're handed out from
+            // the same sequence as everything else.
+            final IdentityHashed hashed = (IdentityHashed) o;
+            final long stored = hashed.__bc_getIdentityHash();
+            if ((int) (stored >>> 32) == generation) {
+                return (int) stored;
+            }
+            hashed.__bc_setIdentityHash(((long) generation << 32) | (++lastHashCode & 0xFFFFFFFFL));
+            return lastHashCode;
+        }
+
         Integer code = codes.get(o);
         if (code == null) {
             codes.put(o, ++lastHashCode);
@@ -84,10 +106,42 @@ public class ObjectMethods {
             return code;
     }
 
+    /**
+     * Called by team code after every clone(). Object.clone() copies every
+     * field, so a copy of a team object starts out holding its original's
+     * code; that is forgotten, and the copy gets its own when it's first
+     * hashed. Copies made some other way, or clone() returning the object
+     * itself, are left alone.
+     *
+     * @param original the object clone() was called on
+     * @param copy     what it returned
+     * @return copy
+     */
+    static public Object cloned(Object original, Object copy) {
+        if (copy != original && copy instanceof IdentityHashed && original instanceof IdentityHashed) {
+            final IdentityHashed hashed = (IdentityHashed) copy;
+            final long stored = hashed.__bc_getIdentityHash();
+            if (stored != 0 && stored == ((IdentityHashed) original).__bc_getIdentityHash()) {
+                hashed.__bc_setIdentityHash(0);
+            }
+        }
+        return copy;
+    }
+
     static public String identityToString(Object o) {
         return "object" + Integer.toString(identityHashCode(o));
     }
 
+    /**
+     * Forget every identity hash code handed out so far, so that a reused
+     * sandbox hands out the same sequence as a fresh one.
+     */
+    static void reset() {
+        lastHashCode = -1;
+        generation++;
+        codes = new WeakIdentityHashMap<>();
+    }
+
     private ObjectMethods() {
     }
 
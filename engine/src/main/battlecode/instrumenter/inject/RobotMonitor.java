@@ -1,10 +1,14 @@
 package battlecode.instrumenter.inject;
 
 import battlecode.instrumenter.SandboxedRobotPlayer;
+import battlecode.instrumenter.bytecode.InstrumentingClassVisitor;
 import battlecode.instrumenter.profiler.Profiler;
 import battlecode.server.ErrorReporter;
 
 import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
 import java.lang.Math;
 import java.lang.Integer;
 
@@ -29,13 +33,55 @@ public final class RobotMonitor {
     private static boolean shouldDie;
     private static int debugLevel;
 
+    /**
+     * Bytecodes the robot has run but not been charged for yet. With
+     * coalesced accounting (bc.engine.coalesced-bytecodes), instrumented code
+     * adds to this directly at the end of straight-line blocks, and it's
+     * charged at the next call to incrementBytecodes or flushBytecodes.
+     *
+     * THIS FIELD IS UPDATED BY THE INSTRUMENTER.
+     */
+    public static int pendingBytecodes;
+
     private static SandboxedRobotPlayer.Pauser pauser;
     private static SandboxedRobotPlayer.Killer killer;
 
     private static Profiler profiler;
 
+    /**
+     * The bridge handed to SandboxedRobotPlayer.
+     */
+    private static final Control control = new Control();
+
+    /**
+     * Classes in this sandbox whose static initializer has run and whose
+     * statics can be reset, in initialization order. Only used when
+     * sandboxes are pooled (bc.engine.pooled-sandboxes).
+     *
+     * Unlike the rest of the monitor's state, this lives as long as the
+     * sandbox: the JVM only initializes each class once.
+     */
+    private static final List<Class<?>> resettableClasses = new ArrayList<>();
+
+    /**
+     * The first class initialized in this sandbox whose statics can't be
+     * reset, or null if there isn't one.
+     */
+    private static Class<?> unresettableClass;
+
     // Methods called from SandboxedRobotPlayer
 
+    /**
+     * Get a bridge to this monitor that SandboxedRobotPlayer can call
+     * directly, rather than going through reflection every turn.
+     *
+     * @return the control bridge for this copy of RobotMonitor
+     */
+    @SuppressWarnings("unused")
+    public static SandboxedRobotPlayer.MonitorControl getControl() {
+        return control;
+    }
+
     /**
      * A "constructor".
      * Initializes the monitor.
@@ -54,6 +100,8 @@ public final class RobotMonitor {
                             Profiler theProfiler) {
         shouldDie = false;
         bytecodesLeft = 0;
+        bytecodesToRemove = 0;
+        pendingBytecodes = 0;
         debugLevel = 0;
 
         randomSeed = seed;
@@ -111,8 +159,67 @@ public final class RobotMonitor {
         return bytecodesLeft;
     }
 
+    /**
+     * Reset the static state of every class initialized in this sandbox,
+     * so that it can host a new robot as if it were freshly loaded. The
+     * classes reinitialize themselves the next time they're used.
+     *
+     * Must only be called while the robot's thread is paused and its
+     * run() method has ended.
+     *
+     * @return whether the sandbox was reset; if not, it must be discarded
+     */
+    @SuppressWarnings("unused")
+    public static boolean resetStatics() {
+        if (unresettableClass != null) {
+            return false;
+        }
+        try {
+            for (Class<?> cls : resettableClasses) {
+                Method reset = cls.getDeclaredMethod(InstrumentingClassVisitor.RESET_METHOD);
+                reset.setAccessible(true);
+                reset.invoke(null);
+            }
+        } catch (ReflectiveOperationException e) {
+            ErrorReporter.report(e, true);
+            return false;
+        }
+        ObjectMethods.reset();
+        EnumConstants.reset();
+        System.reset();
+        return true;
+    }
+
     // Methods called from RobotPlayer
 
+    /**
+     * Records that a class's static initializer has run, and that its
+     * statics can be reset.
+     *
+     * THIS METHOD IS CALLED BY THE INSTRUMENTER.
+     *
+     * @param cls the class that was initialized
+     */
+    @SuppressWarnings("unused")
+    public static void registerResettable(Class<?> cls) {
+        resettableClasses.add(cls);
+    }
+
+    /**
+     * Records that a class whose statics can't be reset has been
+     * initialized, so this sandbox can't be reused.
+     *
+     * THIS METHOD IS CALLED BY THE INSTRUMENTER.
+     *
+     * @param cls the class that was initialized
+     */
+    @SuppressWarnings("unused")
+    public static void registerUnresettable(Class<?> cls) {
+        if (unresettableClass == null) {
+            unresettableClass = cls;
+        }
+    }
+
     /**
      * Increments the currently active robot's bytecode count by the given amount.
      * If the robot exceeds its bytecode limit for the round, this method will block until the robot's next round.
@@ -129,6 +236,11 @@ public final class RobotMonitor {
             killer.kill();
         }
 
+        // Blocks are short, and pending bytecodes are charged before any
+        // block can run again, so this can't overflow.
+        numBytecodes += pendingBytecodes;
+        pendingBytecodes = 0;
+
         if (debugLevel == 0) {
             try {
                 // check for integer overflow exploits
@@ -152,6 +264,40 @@ public final class RobotMonitor {
 	    bytecodesToRemove = 0;
     }
 
+    /**
+     * Charges the bytecodes in pendingBytecodes, pausing if the robot has run
+     * out, but leaves array costs to be charged at the end of the block, as
+     * incrementBytecodes would. Used with coalesced accounting before player
+     * code looks at the game or its bytecode count, so that it sees what
+     * charging every block would have shown it.
+     *
+     * THIS METHOD IS CALLED BY THE INSTRUMENTER.
+     */
+    @SuppressWarnings("unused")
+    public static void flushBytecodes() {
+        if (shouldDie) {
+            killer.kill();
+        }
+
+        final int numBytecodes = pendingBytecodes;
+        pendingBytecodes = 0;
+        if (debugLevel == 0 && numBytecodes != 0) {
+            try {
+                bytecodesLeft = Math.subtractExact(bytecodesLeft, numBytecodes);
+            } catch (ArithmeticException e) {
+                bytecodesLeft = Integer.MIN_VALUE;
+            }
+
+            if (profiler != null) {
+                profiler.incrementBytecodes(numBytecodes);
+            }
+
+            while (bytecodesLeft <= 0) {
+                pause();
+            }
+        }
+    }
+
     /**
      * "Increments" the currently active robot's bytecode count by the given amount.
      * Specifically, this incrementation actually happens when incrementBytecodes is next called.
@@ -231,6 +377,9 @@ public final class RobotMonitor {
      */
     @SuppressWarnings("unused")
     public static void decrementDebugLevel() {
+        // Whatever the debug method ran is free, even if it threw before
+        // it could be charged.
+        pendingBytecodes = 0;
         debugLevel--;
         if (debugLevel < 0) {
             ErrorReporter.report("Debug level below zero, this should be impossible!", true);
@@ -255,12 +404,12 @@ public final class RobotMonitor {
      *
      * THIS METHOD IS CALLED BY THE INSTRUMENTER.
      *
-     * @param methodName the name of the method that is being entered
+     * @param frameId the FrameRegistry id of the method that is being entered
      */
     @SuppressWarnings("unused")
-    public static void enterMethod(String methodName) {
+    public static void enterMethod(int frameId) {
         if (debugLevel == 0 && profiler != null) {
-            profiler.enterMethod(methodName);
+            profiler.enterMethod(frameId);
         }
     }
 
@@ -269,19 +418,21 @@ public final class RobotMonitor {
      *
      * THIS METHOD IS CALLED BY THE INSTRUMENTER.
      *
-     * @param methodName the name of the method that is being exited
+     * @param frameId the FrameRegistry id of the method that is being exited
      */
     @SuppressWarnings("unused")
-    public static void exitMethod(String methodName) {
+    public static void exitMethod(int frameId) {
         if (debugLevel == 0 && profiler != null) {
-            profiler.exitMethod(methodName);
+            profiler.exitMethod(frameId);
         }
     }
 
     /**
      * Pauses the run of the current robot.
      *
-     * Must be called from the robot's main thread.
+     * Must be called from the robot's main thread. Player code can't hold a
+     * monitor here (the instrumenter strips synchronized), so a robot running
+     * on a virtual thread unmounts from its carrier while paused.
      */
     public static void pause() {
         pauser.pause();
@@ -306,4 +457,37 @@ public final class RobotMonitor {
             bytecodesLeft = bytecodeLimit;
         }
     }
+
+    /**
+     * Implements the control bridge on top of the static methods above.
+     *
+     * Loaded individually for every robot along with RobotMonitor,
+     * so that it talks to the right copy.
+     */
+    private static final class Control implements SandboxedRobotPlayer.MonitorControl {
+        @Override
+        public void setBytecodeLimit(int limit) {
+            RobotMonitor.setBytecodeLimit(limit);
+        }
+
+        @Override
+        public int getBytecodeNum() {
+            return RobotMonitor.getBytecodeNum();
+        }
+
+        @Override
+        public void killRobot() {
+            RobotMonitor.killRobot();
+        }
+
+        @Override
+        public boolean resetStatics() {
+            return RobotMonitor.resetStatics();
+        }
+
+        @Override
+        public void flushBytecodes() {
+            RobotMonitor.flushBytecodes();
+        }
+    }
 }
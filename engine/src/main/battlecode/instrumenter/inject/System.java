@@ -49,9 +49,13 @@ public final class System {
     /**
      * Some system properties.
      */
-    private static Properties props = new Properties();
+    private static Properties props = defaultProperties();
 
-    static {
+    /**
+     * @return the system properties a robot starts out with
+     */
+    private static Properties defaultProperties() {
+        Properties props = new Properties();
         props.setProperty("java.version", "who knows?");
         props.setProperty("java.vendor", "who knows?");
         props.setProperty("java.vendor.url", "who knows?");
@@ -76,6 +80,15 @@ public final class System {
                 props.put(key, global.get(key));
             }
         }
+        return props;
+    }
+
+    /**
+     * Undo any changes the robot made to the system properties, when its
+     * sandbox is reused.
+     */
+    static void reset() {
+        props = defaultProperties();
     }
 
     /**
@@ -0,0 +1,134 @@
+package battlecode.instrumenter.profiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * The call stacks a sampling ProfilerCollection has seen, as a tree of
+ * FrameRegistry ids with a sample count per node. Every robot of the team
+ * shares the tree, and only keeps the node it's currently at, so memory
+ * grows with the number of distinct stacks rather than with the length of
+ * the match.
+ *
+ * Nodes are indices into parallel arrays; node 0 is the root, which has no
+ * frame, and is never anyone's child, so 0 also means "no node".
+ */
+final class CallTree {
+    static final int ROOT = 0;
+
+    private int[] parents = new int[256];
+    private int[] frames = new int[256];
+    private int[] firstChildren = new int[256];
+    private int[] nextSiblings = new int[256];
+    private long[] samples = new long[256];
+    private int size = 1;
+
+    /**
+     * @param node       the current node
+     * @param registryId the FrameRegistry id of the method being entered
+     * @return the node for the method called from the current node
+     */
+    int enter(int node, int registryId) {
+        for (int child = firstChildren[node]; child != 0; child = nextSiblings[child]) {
+            if (frames[child] == registryId) {
+                return child;
+            }
+        }
+
+        if (size == parents.length) {
+            final int capacity = size * 2;
+            parents = Arrays.copyOf(parents, capacity);
+            frames = Arrays.copyOf(frames, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+            samples = Arrays.copyOf(samples, capacity);
+        }
+        final int child = size++;
+        parents[child] = node;
+        frames[child] = registryId;
+        nextSiblings[child] = firstChildren[node];
+        firstChildren[node] = child;
+        return child;
+    }
+
+    /**
+     * @param node the current node
+     * @return the node of the caller; the root stays the root
+     */
+    int exit(int node) {
+        return parents[node];
+    }
+
+    void addSamples(int node, int count) {
+        samples[node] += count;
+    }
+
+    /**
+     * Write the tree in the "folded stacks" format of flamegraph.pl and
+     * friends: a line per stack, with the frames from the outermost in,
+     * separated by semicolons, then a space and the number of samples.
+     */
+    void writeFolded(Writer out) throws IOException {
+        final StringBuilder stack = new StringBuilder();
+        for (int node = 1; node < size; node++) {
+            if (samples[node] == 0) {
+                continue;
+            }
+            stack.setLength(0);
+            for (int n = node; n != ROOT; n = parents[n]) {
+                final String name = FrameRegistry.nameOf(frames[n]);
+                stack.insert(0, n == node ? name : name + ";");
+            }
+            out.write(stack.append(' ').append(samples[node]).append('\n').toString());
+        }
+    }
+
+    /**
+     * Lay the tree out as one evented profile: every node opens, its
+     * children follow, and it closes after its own samples, with each
+     * sample worth the given number of bytecodes.
+     *
+     * @return the packed events, in the format Profiler keeps them
+     */
+    long[] toEvents(ProfilerCollection collection, int bytecodesPerSample) {
+        final long[] totals = new long[size];
+        // children always come after their parents
+        for (int node = size - 1; node > ROOT; node--) {
+            totals[node] += samples[node];
+            totals[parents[node]] += totals[node];
+        }
+
+        final long[] events = new long[(size - 1) * 2];
+        int count = 0;
+        long at = 0;
+        int node = firstChildren[ROOT];
+        while (node != ROOT) {
+            if (totals[node] != 0) {
+                events[count++] = event(at, collection.getFrameId(frames[node]), true);
+                final int child = firstChildren[node];
+                if (child != 0) {
+                    node = child;
+                    continue;
+                }
+            }
+            // node is done; close it and every ancestor it was the last child of
+            while (node != ROOT) {
+                if (totals[node] != 0) {
+                    at += samples[node] * bytecodesPerSample;
+                    events[count++] = event(at, collection.getFrameId(frames[node]), false);
+                }
+                if (nextSiblings[node] != 0) {
+                    node = nextSiblings[node];
+                    break;
+                }
+                node = parents[node];
+            }
+        }
+        return Arrays.copyOf(events, count);
+    }
+
+    private static long event(long at, int frameId, boolean open) {
+        return (Math.min(at, Integer.MAX_VALUE) << 32) | ((long) frameId << 1) | (open ? 1 : 0);
+    }
+}
@@ -0,0 +1,49 @@
+package battlecode.instrumenter.profiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives every profiled method a process-wide id when it's instrumented, so
+ * that instrumented code can pass the profiler an int instead of a name.
+ *
+ * Ids are only meaningful in the process that handed them out; each
+ * ProfilerCollection maps them to its own frame ids, in the order it first
+ * sees them.
+ */
+public final class FrameRegistry {
+
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private static final List<String> names = new ArrayList<>();
+
+    private FrameRegistry() {}
+
+    /**
+     * @param methodName the display name of a method
+     * @return the id of the method
+     */
+    public static int idOf(String methodName) {
+        final Integer id = ids.get(methodName);
+        if (id != null) {
+            return id;
+        }
+        synchronized (names) {
+            return ids.computeIfAbsent(methodName, (name) -> {
+                names.add(name);
+                return names.size() - 1;
+            });
+        }
+    }
+
+    /**
+     * @param id an id returned by idOf
+     * @return the display name of the method
+     */
+    public static String nameOf(int id) {
+        synchronized (names) {
+            return names.get(id);
+        }
+    }
+}
@@ -1,9 +1,8 @@
 package battlecode.instrumenter.profiler;
 
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Deque;
-import java.util.List;
+import gnu.trove.list.array.TLongArrayList;
+
+import java.util.Arrays;
 
 /**
  * The Profiler class profiles bytecode usage in a sandboxed robot player.
@@ -16,70 +15,215 @@ import java.util.List;
  * which is used in the client to show the profiling data. See
  * https://github.com/jlfwong/speedscope/wiki/Importing-from-custom-sources
  * for more information on speedscope's file format.
+ * <p>
+ * Events are packed into longs, rather than kept as objects: the bytecode
+ * count in the upper half, the frame id above the lowest bit, and whether
+ * the frame was opened in the lowest bit.
+ * <p>
+ * If the collection is streaming, events are handed to it in blocks as the
+ * buffer fills up, so a profiler only ever holds one block in memory.
+ * <p>
+ * If the collection is sampling, no events are kept at all: the profiler
+ * follows the robot through the collection's CallTree, and adds a sample
+ * to the node it's at every time the robot has used another interval of
+ * bytecodes.
  */
 public class Profiler {
+    /**
+     * How many events a streaming profiler buffers before spilling them.
+     */
+    private static final int BLOCK_EVENTS = 8192;
+
     private final ProfilerCollection collection;
     private final String name;
 
     private int bytecodeCounter = 0;
 
-    private final List<ProfilerEvent> events = new ArrayList<>();
-    private final Deque<Integer> openFrameIds = new ArrayDeque<>();
+    private long[] events = new long[256];
+    private int eventCount = 0;
+
+    private int[] openFrameIds = new int[32];
+    private int openFrameCount = 0;
+
+    /**
+     * Where the collection put the blocks this profiler spilled.
+     */
+    private final TLongArrayList spilledBlocks = new TLongArrayList();
+
+    /**
+     * The collection's sample interval, or 0 if it isn't sampling.
+     */
+    private final int sampleInterval;
+
+    /**
+     * The CallTree node of the current stack, if sampling.
+     */
+    private int sampleNode = CallTree.ROOT;
 
     public Profiler(ProfilerCollection collection, String name) {
         this.collection = collection;
         this.name = name;
+        this.sampleInterval = collection.getSampleInterval();
+    }
+
+    /**
+     * Create a profiler with the given events, for a profile that wasn't
+     * recorded as it happened.
+     */
+    Profiler(ProfilerCollection collection, String name, long[] events) {
+        this(collection, name);
+        this.events = events;
+        this.eventCount = events.length;
     }
 
     public void incrementBytecodes(int amount) {
+        final int before = bytecodeCounter;
         try {
             bytecodeCounter = Math.addExact(bytecodeCounter, amount);
         } catch (ArithmeticException e) {
             bytecodeCounter = Integer.MAX_VALUE;
         }
+
+        if (sampleInterval > 0 && sampleNode != CallTree.ROOT) {
+            final int samples = bytecodeCounter / sampleInterval - before / sampleInterval;
+            if (samples > 0) {
+                collection.getCallTree().addSamples(sampleNode, samples);
+            }
+        }
     }
 
-    public void enterMethod(String methodName) {
-        if (!collection.isRecordingEvents()) {
+    /**
+     * @param registryId the FrameRegistry id of the method being entered
+     */
+    public void enterMethod(int registryId) {
+        if (sampleInterval > 0) {
+            sampleNode = collection.getCallTree().enter(sampleNode, registryId);
             return;
         }
 
-        if (methodName.startsWith("instrumented.")) {
+        if (!collection.isRecordingEvents()) {
             return;
         }
 
         collection.recordEvent();
 
-        int frameId = collection.getFrameId(methodName);
+        int frameId = collection.getFrameId(registryId);
 
-        events.add(new ProfilerEvent(ProfilerEventType.OPEN, bytecodeCounter, frameId));
-        openFrameIds.addFirst(frameId);
+        addEvent(true, frameId);
+        if (openFrameCount == openFrameIds.length) {
+            openFrameIds = Arrays.copyOf(openFrameIds, openFrameCount * 2);
+        }
+        openFrameIds[openFrameCount++] = frameId;
     }
 
-    public void exitMethod(String methodName) {
-        if (openFrameIds.isEmpty() && !collection.isRecordingEvents()) {
+    /**
+     * @param registryId the FrameRegistry id of the method being exited
+     */
+    public void exitMethod(int registryId) {
+        if (sampleInterval > 0) {
+            sampleNode = collection.getCallTree().exit(sampleNode);
             return;
         }
 
-        if (methodName.startsWith("instrumented.")) {
+        if (openFrameCount == 0 && !collection.isRecordingEvents()) {
             return;
         }
 
-        events.add(new ProfilerEvent(ProfilerEventType.CLOSE, bytecodeCounter, collection.getFrameId(methodName)));
-        openFrameIds.pop();
+        addEvent(false, collection.getFrameId(registryId));
+        if (openFrameCount > 0) {
+            openFrameCount--;
+        }
     }
 
     public void exitOpenMethods() {
-        while (!openFrameIds.isEmpty()) {
-            events.add(new ProfilerEvent(ProfilerEventType.CLOSE, bytecodeCounter, openFrameIds.pop()));
+        sampleNode = CallTree.ROOT;
+        while (openFrameCount > 0) {
+            addEvent(false, openFrameIds[--openFrameCount]);
+        }
+        if (collection.isStreaming()) {
+            // The robot is done; don't hold on to a whole block for it
+            flush();
+            events = new long[0];
+        }
+    }
+
+    /**
+     * Spill any buffered events, if the collection is streaming.
+     */
+    void flush() {
+        if (collection.isStreaming() && eventCount > 0) {
+            collection.spill(this, events, eventCount);
+            eventCount = 0;
         }
     }
 
+    void addSpilledBlock(long position) {
+        spilledBlocks.add(position);
+    }
+
+    int getSpilledBlockCount() {
+        return spilledBlocks.size();
+    }
+
+    long getSpilledBlock(int index) {
+        return spilledBlocks.get(index);
+    }
+
+    private void addEvent(boolean open, int frameId) {
+        if (eventCount == events.length) {
+            if (eventCount >= BLOCK_EVENTS && collection.isStreaming()) {
+                flush();
+            } else {
+                events = Arrays.copyOf(events, Math.max(256, eventCount * 2));
+            }
+        }
+        events[eventCount++] = ((long) bytecodeCounter << 32) | ((long) frameId << 1) | (open ? 1 : 0);
+    }
+
     public String getName() {
         return name;
     }
 
-    public List<ProfilerEvent> getEvents() {
-        return events;
+    /**
+     * @return the number of events recorded
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * @param index the index of an event
+     * @return whether the event opens a frame, rather than closing one
+     */
+    public boolean isOpenEvent(int index) {
+        return isOpenEvent(events[index]);
+    }
+
+    /**
+     * @param index the index of an event
+     * @return the bytecode count at the event
+     */
+    public int getEventAt(int index) {
+        return eventAt(events[index]);
+    }
+
+    /**
+     * @param index the index of an event
+     * @return the frame id of the event, in the profiler's collection
+     */
+    public int getEventFrameId(int index) {
+        return eventFrameId(events[index]);
+    }
+
+    static boolean isOpenEvent(long event) {
+        return (event & 1) != 0;
+    }
+
+    static int eventAt(long event) {
+        return (int) (event >>> 32);
+    }
+
+    static int eventFrameId(long event) {
+        return (int) event >>> 1;
     }
 }
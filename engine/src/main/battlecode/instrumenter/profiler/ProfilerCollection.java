@@ -1,13 +1,33 @@
 package battlecode.instrumenter.profiler;
 
 
+import battlecode.server.ErrorReporter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 /**
  * A ProfilerCollection is a collection of all Profiler instances for a team for a match.
+ *
+ * Normally events are kept in memory, up to a limit, and written into the
+ * replay. A streaming collection (bc.engine.profiler-output) has no limit:
+ * its profilers spill blocks of events to a temporary file as they fill up,
+ * and at the end of the match they're written out as a speedscope file
+ * instead.
+ *
+ * A sampling collection (bc.engine.profiler-sample-interval) records no
+ * events; its profilers count samples in a CallTree shared by the team. It
+ * ends up as a single profile of the whole team, laid out like a flame
+ * graph, or as a folded stacks file if it's streaming.
  */
 public class ProfilerCollection {
     /**
@@ -21,35 +41,123 @@ public class ProfilerCollection {
     private List<Profiler> profilers = new ArrayList<>();
 
     private List<String> frames = new ArrayList<>();
-    private Map<String, Integer> frameIds = new HashMap<>();
+
+    /**
+     * Our frame id + 1 for every FrameRegistry id, or 0 if we haven't seen
+     * the method yet.
+     */
+    private int[] frameIds = new int[64];
 
     private int recordedEvents = 0;
 
+    /**
+     * Where to put the spill file; null if events are kept in memory.
+     */
+    private final Path spillDir;
+
+    /**
+     * Blocks of events: an int count, then that many events. Null until
+     * the first block is spilled, or if spilling failed.
+     */
+    private FileChannel spill;
+    private long spillSize;
+
+    /**
+     * Whether a block couldn't be spilled. The events in it, and in every
+     * block after it, are lost, so the profile isn't written.
+     */
+    private boolean spillFailed;
+
+    /**
+     * How many bytecodes a sample stands for, or 0 if every method call is
+     * recorded.
+     */
+    private final int sampleInterval;
+
+    /**
+     * The stacks seen so far, if sampling.
+     */
+    private final CallTree callTree;
+
+    public ProfilerCollection() {
+        this(null, 0);
+    }
+
+    /**
+     * @param spillDir       the directory to spill events or write samples
+     *                       to, or null to keep them in memory
+     * @param sampleInterval the number of bytecodes between samples, or 0
+     *                       to record every method call
+     */
+    public ProfilerCollection(Path spillDir, int sampleInterval) {
+        this.spillDir = spillDir;
+        this.sampleInterval = sampleInterval;
+        this.callTree = sampleInterval > 0 ? new CallTree() : null;
+    }
+
     public Profiler createProfiler(int robotId) {
         // The name has to be display-friendly
         String name = String.format("#%s", robotId);
 
         Profiler profiler = new Profiler(this, name);
-        profilers.add(profiler);
+        if (!isSampling()) {
+            profilers.add(profiler);
+        }
 
         return profiler;
     }
 
     public List<String> getFrames() {
+        finishSamples();
         return frames;
     }
 
     public List<Profiler> getProfilers() {
+        finishSamples();
         return profilers;
     }
 
-    public int getFrameId(String methodName) {
-        if (!frameIds.containsKey(methodName)) {
-            frames.add(methodName);
-            frameIds.put(methodName, frames.size() - 1);
+    /**
+     * Turn the samples into a profile, the first time the profiles are
+     * asked for. The frames are only known once that's done.
+     */
+    private void finishSamples() {
+        if (isSampling() && profilers.isEmpty()) {
+            profilers.add(new Profiler(this, "samples", callTree.toEvents(this, sampleInterval)));
         }
+    }
 
-        return frameIds.get(methodName);
+    /**
+     * @return whether profilers sample stacks rather than recording every
+     *         method call
+     */
+    public boolean isSampling() {
+        return sampleInterval > 0;
+    }
+
+    int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    CallTree getCallTree() {
+        return callTree;
+    }
+
+    /**
+     * @param registryId the FrameRegistry id of a method
+     * @return the id of the method's frame in this collection
+     */
+    public int getFrameId(int registryId) {
+        if (registryId >= frameIds.length) {
+            frameIds = Arrays.copyOf(frameIds, Math.max(frameIds.length * 2, registryId + 1));
+        }
+        int id = frameIds[registryId] - 1;
+        if (id < 0) {
+            frames.add(FrameRegistry.nameOf(registryId));
+            id = frames.size() - 1;
+            frameIds[registryId] = id + 1;
+        }
+        return id;
     }
 
     public void recordEvent() {
@@ -57,6 +165,153 @@ public class ProfilerCollection {
     }
 
     public boolean isRecordingEvents() {
-        return recordedEvents < MAX_EVENTS_TO_RECORD;
+        return spillDir != null || recordedEvents < MAX_EVENTS_TO_RECORD;
+    }
+
+    /**
+     * @return whether events are spilled to disk and written out with
+     *         writeSpeedscope, rather than kept for the replay
+     */
+    public boolean isStreaming() {
+        return spillDir != null;
+    }
+
+    /**
+     * Append a block of a profiler's events to the spill file.
+     */
+    synchronized void spill(Profiler profiler, long[] events, int count) {
+        if (spillFailed) {
+            return;
+        }
+        try {
+            if (spill == null) {
+                Files.createDirectories(spillDir);
+                final Path file = Files.createTempFile(spillDir, "profile", ".spill");
+                spill = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            final ByteBuffer block = ByteBuffer.allocate(4 + count * 8);
+            block.putInt(count);
+            block.asLongBuffer().put(events, 0, count);
+            block.rewind();
+            final long position = spillSize;
+            while (block.hasRemaining()) {
+                spillSize += spill.write(block, spillSize);
+            }
+            // Only once the whole block is on disk
+            profiler.addSpilledBlock(position);
+        } catch (IOException e) {
+            spillFailed = true;
+            ErrorReporter.report(e, false);
+        }
+    }
+
+    /**
+     * Write the samples of the match to a folded stacks file. Only for
+     * sampling collections.
+     *
+     * @param out the file to write
+     * @throws IOException if the file can't be written
+     */
+    public synchronized void writeFolded(Path out) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+            callTree.writeFolded(writer);
+        }
+    }
+
+    /**
+     * Write every event of the match to a speedscope file, and throw away
+     * the spill file. Only for streaming collections, once every robot's
+     * player has ended.
+     *
+     * @param out  the file to write
+     * @param name the name of the profile
+     * @throws IOException if the file can't be written, or if events were
+     *                     lost because they couldn't be spilled; nothing
+     *                     is written then, rather than an incomplete
+     *                     profile
+     */
+    public synchronized void writeSpeedscope(Path out, String name) throws IOException {
+        for (Profiler profiler : profilers) {
+            profiler.flush();
+        }
+
+        if (spillFailed) {
+            closeSpill();
+            throw new IOException("Some profiler events couldn't be spilled to disk, so the profile would be incomplete");
+        }
+
+        try (Writer writer = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+            writer.write("{\"$schema\":\"https://www.speedscope.app/file-format-schema.json\",");
+            writer.write("\"exporter\":\"battlecode\",\"name\":" + quote(name) + ",\"activeProfileIndex\":0,");
+            writer.write("\"shared\":{\"frames\":[");
+            for (int i = 0; i < frames.size(); i++) {
+                writer.write((i == 0 ? "" : ",") + "{\"name\":" + quote(frames.get(i)) + "}");
+            }
+            writer.write("]},\"profiles\":[");
+            for (int i = 0; i < profilers.size(); i++) {
+                final Profiler profiler = profilers.get(i);
+                writer.write((i == 0 ? "" : ",") + "{\"type\":\"evented\",\"name\":" + quote(profiler.getName())
+                        + ",\"unit\":\"none\",\"startValue\":0,\"events\":[");
+                int endValue = 0;
+                boolean first = true;
+                for (int b = 0; b < profiler.getSpilledBlockCount(); b++) {
+                    final long[] events = readBlock(profiler.getSpilledBlock(b));
+                    for (long event : events) {
+                        final int at = Profiler.eventAt(event);
+                        writer.write((first ? "" : ",") + "{\"type\":\"" + (Profiler.isOpenEvent(event) ? "O" : "C")
+                                + "\",\"frame\":" + Profiler.eventFrameId(event) + ",\"at\":" + at + "}");
+                        endValue = at;
+                        first = false;
+                    }
+                }
+                writer.write("],\"endValue\":" + endValue + "}");
+            }
+            writer.write("]}");
+        } finally {
+            closeSpill();
+        }
+    }
+
+    private void closeSpill() throws IOException {
+        if (spill != null) {
+            spill.close();
+            spill = null;
+        }
+    }
+
+    private long[] readBlock(long position) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(4);
+        readFully(header, position);
+        final ByteBuffer block = ByteBuffer.allocate(header.getInt(0) * 8);
+        readFully(block, position + 4);
+        final long[] events = new long[block.capacity() / 8];
+        block.asLongBuffer().get(events);
+        return events;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = spill.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Profiler spill file is truncated");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static String quote(String value) {
+        final StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
     }
 }
@@ -18,21 +18,22 @@ import java.io.UnsupportedEncodingException;
 public class LimitedPrintStream extends PrintStream {
 
     private static final String TRUNCATION_MESSAGE = "[output truncated due to team output limit]\n";
-    private static int[] limit = {-1, -1, -1}; // -1 means no limit
-    private static boolean[] reportedTruncation = {false, false, false};
+
+    private final int[] limit; // -1 means no limit
+    private final boolean[] reportedTruncation;
 
     private Team team;
     private boolean byteCounting;
 
-    public LimitedPrintStream(OutputStream out, boolean autoFlush, String encoding, int maxOutputBytes) throws UnsupportedEncodingException {
+    /**
+     * @param budget the output left for each team, shared with every other
+     *               stream of the same game
+     */
+    public LimitedPrintStream(OutputStream out, boolean autoFlush, String encoding, Budget budget) throws UnsupportedEncodingException {
         super(out, autoFlush, encoding);
         byteCounting = true;
-        if (limit[0] == -1) // means it is not set yet
-            limit[0] = maxOutputBytes;
-        if (limit[1] == -1) // means it is not set yet
-            limit[1] = maxOutputBytes;
-        if (limit[2] == -1) // means it is not set yet
-            limit[2] = maxOutputBytes;
+        limit = budget.limit;
+        reportedTruncation = budget.reportedTruncation;
     }
 
     @Override
@@ -136,4 +137,22 @@ public class LimitedPrintStream extends PrintStream {
             }
         }
     }
+
+    /**
+     * The output left for each team in a game. Every robot of the game
+     * writes through the same budget, so games running at the same time
+     * don't use up each other's output.
+     */
+    public static final class Budget {
+        final int[] limit;
+        final boolean[] reportedTruncation = {false, false, false};
+
+        /**
+         * @param maxOutputBytes the output each team may produce, or -1 for
+         *                       no limit
+         */
+        public Budget(int maxOutputBytes) {
+            limit = new int[] {maxOutputBytes, maxOutputBytes, maxOutputBytes};
+        }
+    }
 }
@@ -24,10 +24,9 @@ public class RoboPrintStream extends PrintStream {
 
     private boolean writeToSystemOut;
 
-    // if maxOutputBytes is -1, then it is treated as no limit
-    public RoboPrintStream(OutputStream robotOut, boolean writeToSystemOut, int maxOutputBytes) throws UnsupportedEncodingException {
+    public RoboPrintStream(OutputStream robotOut, boolean writeToSystemOut, LimitedPrintStream.Budget budget) throws UnsupportedEncodingException {
         super(SilencedPrintStream.theInstance());
-        this.real = new LimitedPrintStream(robotOut, true, "UTF-8", maxOutputBytes);
+        this.real = new LimitedPrintStream(robotOut, true, "UTF-8", budget);
         this.headerThisRound = false;
         this.writeToSystemOut = writeToSystemOut;
     }
@@ -0,0 +1,280 @@
+package battlecode.server;
+
+import battlecode.common.Team;
+import battlecode.world.GameStats;
+import battlecode.world.GameWorld;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs every matchup in a tournament manifest in one JVM, and writes a
+ * line of results for each match.
+ *
+ * The manifest (bc.server.batch-manifest) is a text file of lines like:
+ * <pre>
+ * # comment
+ * team &lt;package&gt; &lt;url&gt;
+ * map &lt;name&gt;
+ * seed &lt;n&gt;
+ * </pre>
+ * Every pair of teams plays two matches on every map, one with each team
+ * as team A. If there are seed lines, every match is played once with each
+ * seed instead of the map's own.
+ *
+ * Matches are spread over bc.server.parallel-games threads of a
+ * work-stealing pool, so the warmed-up JVM, its method cost tables and its
+ * sandbox setup threads are shared by all of them. Results are written to
+ * bc.server.batch-results, one tab-separated line per match as it
+ * finishes; the first column is the match's position in the manifest.
+ * Replays are saved to bc.server.batch-replay-dir, if it's set.
+ */
+public class BatchRunner {
+
+    /**
+     * The columns of the results file.
+     */
+    private static final String HEADER = "match\tteam_a\tteam_b\tmap\tseed\twinner\treason\trounds\twall_ms"
+            + "\ta_engine_ms\ta_player_ms\tb_engine_ms\tb_player_ms";
+
+    private final Config options;
+
+    /**
+     * Runs the matches; not interactive, and never put on the game queue.
+     */
+    private final Server server;
+
+    /**
+     * The results file.
+     */
+    private PrintWriter results;
+
+    /**
+     * @param options the configuration to use
+     */
+    public BatchRunner(Config options) {
+        this.options = options;
+        this.server = new Server(options, false);
+    }
+
+    /**
+     * Read the manifest, run every match in it, and write out the results.
+     *
+     * @return whether every match ran without errors
+     */
+    public boolean run() {
+        final List<Match> matches;
+        try {
+            matches = readManifest(new File(options.get("bc.server.batch-manifest")));
+        } catch (IOException | IllegalArgumentException e) {
+            ErrorReporter.report("Can't read batch manifest: " + e.getMessage(),
+                    "Check that bc.server.batch-manifest is set to a manifest in the format BatchRunner describes.");
+            return false;
+        }
+        if (matches.isEmpty()) {
+            ErrorReporter.report("Batch manifest has no matches.",
+                    "List at least two teams and one map in the manifest.");
+            return false;
+        }
+
+        final File replayDir = options.get("bc.server.batch-replay-dir") == null
+                || options.get("bc.server.batch-replay-dir").isEmpty()
+                ? null : new File(options.get("bc.server.batch-replay-dir"));
+        if (replayDir != null && !replayDir.isDirectory() && !replayDir.mkdirs()) {
+            ErrorReporter.report("Can't create replay directory " + replayDir,
+                    "Check that bc.server.batch-replay-dir is somewhere you can write to.");
+            return false;
+        }
+
+        final int threads = Math.max(1, options.getInt("bc.server.parallel-games"));
+        Server.say(String.format("Running %d matches on %d threads", matches.size(), threads));
+
+        final List<Callable<Boolean>> tasks = new ArrayList<>(matches.size());
+        for (final Match match : matches) {
+            tasks.add(() -> runMatch(match, replayDir));
+        }
+
+        final ExecutorService pool = Executors.newWorkStealingPool(threads);
+        boolean success = true;
+        try (PrintWriter out = new PrintWriter(new FileWriter(options.get("bc.server.batch-results")))) {
+            results = out;
+            writeResult(HEADER);
+            for (Future<Boolean> result : pool.invokeAll(tasks)) {
+                success &= result.get();
+            }
+        } catch (IOException e) {
+            ErrorReporter.report("Can't write batch results: " + e.getMessage(),
+                    "Check that bc.server.batch-results is somewhere you can write to.");
+            return false;
+        } catch (InterruptedException e) {
+            Server.warn("Interrupted while running batch!");
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            ErrorReporter.report(e.getCause(), true);
+            return false;
+        } finally {
+            pool.shutdownNow();
+        }
+        return success;
+    }
+
+    /**
+     * Run a match, and write a line of results for it.
+     *
+     * @param match     the match to run
+     * @param replayDir the directory to save the replay in, or null
+     * @return whether the match ran without errors
+     */
+    private boolean runMatch(Match match, File replayDir) {
+        final File saveFile = replayDir == null ? null
+                : new File(replayDir, String.format("%d-%s-vs-%s-on-%s.bc24",
+                        match.index, match.teamA.pkg, match.teamB.pkg, match.map));
+        final GameInfo game = new GameInfo(
+                match.teamA.pkg, match.teamA.pkg, match.teamA.url,
+                match.teamB.pkg, match.teamB.pkg, match.teamB.url,
+                new String[] {match.map},
+                saveFile,
+                false
+        );
+
+        final long startTime = System.nanoTime();
+        final GameWorld world;
+        try {
+            world = server.runSingleMatch(game, match.seed);
+        } catch (Exception e) {
+            ErrorReporter.report(e);
+            writeResult(String.format("%d\t%s\t%s\t%s\t%s\terror\t-\t-\t%d\t-\t-\t-\t-",
+                    match.index, match.teamA.pkg, match.teamB.pkg, match.map, seedString(match),
+                    toMillis(System.nanoTime() - startTime)));
+            return false;
+        }
+        final long wallTime = System.nanoTime() - startTime;
+
+        final GameStats stats = world.getGameStats();
+        writeResult(String.format("%d\t%s\t%s\t%s\t%s\t%s\t%s\t%d\t%d\t%d\t%d\t%d\t%d",
+                match.index, match.teamA.pkg, match.teamB.pkg, match.map, seedString(match),
+                world.getWinner(), stats.getDominationFactor(), world.getCurrentRound(),
+                toMillis(wallTime),
+                toMillis(stats.getEngineTime(Team.A)), toMillis(stats.getPlayerTime(Team.A)),
+                toMillis(stats.getEngineTime(Team.B)), toMillis(stats.getPlayerTime(Team.B))));
+        return true;
+    }
+
+    private synchronized void writeResult(String line) {
+        results.println(line);
+        results.flush();
+    }
+
+    private static String seedString(Match match) {
+        return match.seed == null ? "-" : match.seed.toString();
+    }
+
+    private static long toMillis(long nanos) {
+        return nanos / 1_000_000;
+    }
+
+    /**
+     * Read a manifest into the list of matches it describes.
+     *
+     * @param manifest the manifest file
+     * @return the matches, in order
+     * @throws IOException if the manifest can't be read
+     * @throws IllegalArgumentException if a line of the manifest is malformed
+     */
+    static List<Match> readManifest(File manifest) throws IOException {
+        final List<Entrant> teams = new ArrayList<>();
+        final List<String> maps = new ArrayList<>();
+        final List<Integer> seeds = new ArrayList<>();
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(manifest))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                final String[] parts = line.split("\\s+");
+                if (parts[0].equals("team") && parts.length == 3) {
+                    teams.add(new Entrant(parts[1], parts[2]));
+                } else if (parts[0].equals("map") && parts.length == 2) {
+                    maps.add(parts[1]);
+                } else if (parts[0].equals("seed") && parts.length == 2) {
+                    try {
+                        seeds.add(Integer.parseInt(parts[1]));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("bad seed on line " + lineNumber + ": " + parts[1]);
+                    }
+                } else {
+                    throw new IllegalArgumentException("can't understand line " + lineNumber + ": " + line);
+                }
+            }
+        }
+
+        if (seeds.isEmpty()) {
+            seeds.add(null);
+        }
+
+        final List<Match> matches = new ArrayList<>();
+        for (int a = 0; a < teams.size(); a++) {
+            for (int b = a + 1; b < teams.size(); b++) {
+                for (String map : maps) {
+                    for (Integer seed : seeds) {
+                        matches.add(new Match(matches.size(), teams.get(a), teams.get(b), map, seed));
+                        matches.add(new Match(matches.size(), teams.get(b), teams.get(a), map, seed));
+                    }
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * A team listed in the manifest.
+     */
+    static final class Entrant {
+        final String pkg;
+        final String url;
+
+        Entrant(String pkg, String url) {
+            this.pkg = pkg;
+            this.url = url;
+        }
+    }
+
+    /**
+     * A single match to run.
+     */
+    static final class Match {
+        final int index;
+        final Entrant teamA;
+        final Entrant teamB;
+        final String map;
+
+        /**
+         * The seed to run the map with, or null to use the map's own.
+         */
+        final Integer seed;
+
+        Match(int index, Entrant teamA, Entrant teamB, String map, Integer seed) {
+            this.index = index;
+            this.teamA = teamA;
+            this.teamB = teamB;
+            this.map = map;
+            this.seed = seed;
+        }
+    }
+}
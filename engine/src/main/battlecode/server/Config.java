@@ -37,7 +37,7 @@ public class Config {
         // Whether to write robot player output to System.out as well as match files.
         defaults.setProperty("bc.server.robot-player-to-system-out", "true");
 
-        // The max number of bytes to write to a replay file, per team
+        // The max number of bytes to write to a replay file, per team per game
         // -1 means infinity
         // This does not affect output to stdout
         defaults.setProperty("bc.server.robot-player-replay-file-per-team-limit-bytes","-1");
@@ -51,6 +51,15 @@ public class Config {
         defaults.setProperty("bc.server.output-xml", "true");
         defaults.setProperty("bc.server.validate-maps", "true");
         defaults.setProperty("bc.server.alternate-order", "false");
+        // How many games to run at once, each on its own thread; games
+        // aren't streamed to the client if this is above 1
+        defaults.setProperty("bc.server.parallel-games", "1");
+        // Used when bc.server.mode is batch; see BatchRunner for the format
+        defaults.setProperty("bc.server.batch-manifest", "batch.txt");
+        defaults.setProperty("bc.server.batch-results", "results.tsv");
+        defaults.setProperty("bc.server.batch-replay-dir", "");
+        // Used when bc.server.mode is daemon; see Daemon for the protocol
+        defaults.setProperty("bc.server.daemon-port", "6176");
 
 
 
@@ -63,7 +72,47 @@ public class Config {
         defaults.setProperty("bc.engine.silence-d", "false");
         defaults.setProperty("bc.engine.debug-methods", "false");
         defaults.setProperty("bc.engine.enable-profiler", "false");
+        // Directory to stream whole-match profiles to, as speedscope files,
+        // instead of putting a capped profile in the replay
+        defaults.setProperty("bc.engine.profiler-output", "");
+        // Sample the stack every this many bytecodes, instead of recording
+        // every method call; 0 records every call
+        defaults.setProperty("bc.engine.profiler-sample-interval", "0");
         defaults.setProperty("bc.engine.show-indicators", "true");
+        // "platform" or "virtual"; virtual threads need a Java 21+ runtime
+        defaults.setProperty("bc.engine.robot-threads", "platform");
+        // How long the engine polls for a robot to end its turn before parking
+        defaults.setProperty("bc.engine.handoff-spins", "0");
+        // Threads used to construct sandboxes at match start, shared by all
+        // the server's games; 1 constructs each one as its robot is spawned.
+        // With more, robots whose sandboxes fail are killed, team by team,
+        // once every robot has been spawned
+        defaults.setProperty("bc.engine.sandbox-setup-threads", "1");
+        // Reuse robot sandboxes (class loaders and threads) across the
+        // matches of a game, resetting static state in between
+        defaults.setProperty("bc.engine.pooled-sandboxes", "false");
+        // Keep a running bytecode count in player code, and only charge it at
+        // calls, returns and loop back-edges rather than every basic block.
+        // This changes per-turn bytecode counts: a turn that runs over its
+        // limit is charged up to the next such point, so its recorded count
+        // can be higher. Turns within the limit count the same.
+        defaults.setProperty("bc.engine.coalesced-bytecodes", "false");
+        // A directory to save instrumented classes in, shared between runs
+        // and engine processes; empty to instrument from scratch every run
+        defaults.setProperty("bc.engine.class-cache-dir", "");
+        // Instrument all of a team's classes before the game starts, on the
+        // sandbox setup threads, rather than as robots first load them.
+        // Off by default, since classes no robot loads are instrumented too
+        defaults.setProperty("bc.engine.preinstrument", "false");
+        // Define team interfaces without code or state once
+        // per team, rather than once per robot
+        defaults.setProperty("bc.engine.share-stateless-classes", "true");
+        // Run player code without instrumentation or sandboxing, on the
+        // engine thread, timing turns instead of counting bytecodes. Only
+        // for teams you trust; players must implement
+        // battlecode.world.control.TurnPlayer
+        defaults.setProperty("bc.engine.trusted-mode", "false");
+        defaults.setProperty("bc.engine.trusted-nanos-per-bytecode", "1.0");
 
         defaults.setProperty("bc.game.team-a", "team000");
         defaults.setProperty("bc.game.team-b", "team000");
@@ -82,7 +131,7 @@ public class Config {
         options.addOption("n", "no-dialog", false, "skip the match dialog");
     }
 
-    private static Config globalConfig = new Config(new String[0]);
+    private static volatile Config globalConfig = new Config(new String[0]);
 
     public static void setGlobalConfig(Config config) {
         globalConfig = config;
@@ -0,0 +1,323 @@
+package battlecode.server;
+
+import battlecode.common.Team;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the engine resident and runs games sent to it over a local socket,
+ * so that JVM startup, engine class loading and JIT warmup are only paid
+ * once rather than for every game.
+ *
+ * Clients connect to bc.server.daemon-port on localhost and send one JSON
+ * object per line:
+ * <pre>
+ * {"id": 1, "teamA": "examplefuncsplayer", "teamAUrl": "build/classes",
+ *  "teamB": "examplefuncsplayer", "teamBUrl": "build/classes",
+ *  "maps": ["DefaultSmall", "DefaultMedium"], "saveFile": "matches/a.bc24"}
+ * </pre>
+ * teamAPackage, teamBPackage (default: the team names) and bestOfThree are
+ * optional, and maps may also be a comma separated string. Up to
+ * bc.server.parallel-games games run at once; when one finishes, a line is
+ * written back on the connection it came from:
+ * <pre>
+ * {"id": 1, "status": "done", "winner": "A", "saveFile": "matches/a.bc24", "seconds": 12.5}
+ * {"id": 1, "status": "error", "message": "..."}
+ * </pre>
+ * {"command": "shutdown"} stops the daemon once the games it's running
+ * have finished.
+ */
+public class Daemon {
+
+    private final Config options;
+
+    /**
+     * Runs the games; not interactive, and never put on the game queue.
+     */
+    private final Server server;
+
+    /**
+     * The threads games run on.
+     */
+    private final ExecutorService gamePool;
+
+    /**
+     * How many games each connection is waiting on.
+     */
+    private final Map<PrintWriter, AtomicInteger> pending = new ConcurrentHashMap<>();
+
+    private ServerSocket serverSocket;
+
+    private volatile boolean shuttingDown;
+
+    /**
+     * @param options the configuration to use
+     */
+    public Daemon(Config options) {
+        this.options = options;
+        this.server = new Server(options, false);
+
+        final AtomicInteger count = new AtomicInteger();
+        this.gamePool = Executors.newFixedThreadPool(Math.max(1, options.getInt("bc.server.parallel-games")),
+                (r) -> new Thread(r, "game-runner-" + count.incrementAndGet()));
+    }
+
+    /**
+     * Accept connections until told to shut down.
+     *
+     * @return whether the daemon shut down cleanly
+     */
+    public boolean run() {
+        final int port = options.getInt("bc.server.daemon-port");
+        try {
+            serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        } catch (IOException e) {
+            System.err.println("Can't listen on port " + port + ": " + e.getMessage());
+            return false;
+        }
+        Server.say("Listening for games on localhost:" + serverSocket.getLocalPort());
+
+        final AtomicInteger count = new AtomicInteger();
+        while (!shuttingDown) {
+            final Socket client;
+            try {
+                client = serverSocket.accept();
+            } catch (IOException e) {
+                if (!shuttingDown) {
+                    ErrorReporter.report(e, true);
+                }
+                break;
+            }
+            Thread t = new Thread(() -> serve(client), "daemon-client-" + count.incrementAndGet());
+            t.setDaemon(true);
+            t.start();
+        }
+
+        shutdown();
+        gamePool.shutdown();
+        try {
+            while (!gamePool.awaitTermination(1, TimeUnit.SECONDS)) {
+                Server.debug("Waiting for running games to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        Server.say("Daemon shut down");
+        return true;
+    }
+
+    /**
+     * Stop accepting connections.
+     */
+    private synchronized void shutdown() {
+        shuttingDown = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // we're done with it either way
+        }
+    }
+
+    /**
+     * Read requests from a client until it disconnects.
+     *
+     * @param client the connection
+     */
+    private void serve(Socket client) {
+        try (Socket socket = client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(
+                     socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                     socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    try {
+                        handle(line, out);
+                    } catch (RuntimeException e) {
+                        // One bad request shouldn't cost the client its
+                        // connection, or the games it's waiting on.
+                        ErrorReporter.report(e, true);
+                        respond(out, "{\"id\": null, \"status\": \"error\", \"message\": " + Json.quote(e.toString()) + "}");
+                    }
+                }
+            }
+            // Don't close the connection under games that are still
+            // running; their results would be lost.
+            synchronized (out) {
+                while (pendingGames(out) > 0) {
+                    out.wait();
+                }
+                pending.remove(out);
+            }
+        } catch (IOException e) {
+            Server.debug("Lost daemon client: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int pendingGames(PrintWriter out) {
+        AtomicInteger games = pending.get(out);
+        return games == null ? 0 : games.get();
+    }
+
+    /**
+     * Handle a single request.
+     *
+     * @param line the request
+     * @param out  where to write the response
+     */
+    private void handle(String line, PrintWriter out) {
+        final Map<?, ?> request;
+        String id = "null";
+        final GameInfo game;
+        try {
+            Object parsed = Json.parse(line);
+            if (!(parsed instanceof Map)) {
+                throw new IllegalArgumentException("expected a JSON object");
+            }
+            request = (Map<?, ?>) parsed;
+            id = idString(request.get("id"));
+
+            if ("shutdown".equals(request.get("command"))) {
+                respond(out, "{\"id\": " + id + ", \"status\": \"shutting down\"}");
+                shutdown();
+                return;
+            }
+            game = toGame(request);
+        } catch (IllegalArgumentException e) {
+            respond(out, "{\"id\": " + id + ", \"status\": \"error\", \"message\": " + Json.quote(e.getMessage()) + "}");
+            return;
+        }
+
+        final String gameId = id;
+        // Checked under the same lock as shutdown(), so that a game is never
+        // handed to the pool after it has been shut down.
+        synchronized (this) {
+            if (shuttingDown) {
+                respond(out, "{\"id\": " + id + ", \"status\": \"error\", \"message\": \"shutting down\"}");
+                return;
+            }
+
+            pending.computeIfAbsent(out, (o) -> new AtomicInteger()).incrementAndGet();
+            gamePool.execute(() -> {
+                final long startTime = System.nanoTime();
+                String response;
+                try {
+                    // A game that failed earlier doesn't stop this one.
+                    server.clearError();
+                    Team winner = server.runGame(game, null);
+                    if (winner != null) {
+                        response = String.format(Locale.ROOT, "{\"id\": %s, \"status\": \"done\", \"winner\": \"%s\", "
+                                        + "\"saveFile\": %s, \"seconds\": %.3f}",
+                                gameId, winner, Json.quote(game.getSaveFile().getPath()),
+                                (System.nanoTime() - startTime) / 1.0e9);
+                    } else {
+                        response = "{\"id\": " + gameId + ", \"status\": \"error\", \"message\": \"game failed to run\"}";
+                    }
+                } catch (Throwable e) {
+                    // Errors too: the client is waiting on this response,
+                    // and the pool's thread should go on to the next game.
+                    ErrorReporter.report(e, true);
+                    response = "{\"id\": " + gameId + ", \"status\": \"error\", \"message\": " + Json.quote(e.toString()) + "}";
+                }
+                try {
+                    respond(out, response);
+                } finally {
+                    synchronized (out) {
+                        pending.get(out).decrementAndGet();
+                        out.notifyAll();
+                    }
+                }
+            });
+        }
+    }
+
+    private static void respond(PrintWriter out, String response) {
+        synchronized (out) {
+            out.println(response);
+            out.flush();
+        }
+    }
+
+    /**
+     * @param request a parsed request
+     * @return the game it describes
+     * @throws IllegalArgumentException if the request is missing something
+     */
+    private static GameInfo toGame(Map<?, ?> request) {
+        final String teamA = getString(request, "teamA", true);
+        final String teamB = getString(request, "teamB", true);
+        final String teamAPackage = getString(request, "teamAPackage", false);
+        final String teamBPackage = getString(request, "teamBPackage", false);
+
+        final Object mapsValue = request.get("maps");
+        final String[] maps;
+        if (mapsValue instanceof String) {
+            maps = ((String) mapsValue).split(",");
+        } else if (mapsValue instanceof List && !((List<?>) mapsValue).isEmpty()) {
+            List<?> list = (List<?>) mapsValue;
+            maps = new String[list.size()];
+            for (int i = 0; i < maps.length; i++) {
+                if (!(list.get(i) instanceof String)) {
+                    throw new IllegalArgumentException("maps must be strings");
+                }
+                maps[i] = (String) list.get(i);
+            }
+        } else {
+            throw new IllegalArgumentException("missing maps");
+        }
+
+        return new GameInfo(
+                teamA, teamAPackage != null ? teamAPackage : teamA, getString(request, "teamAUrl", true),
+                teamB, teamBPackage != null ? teamBPackage : teamB, getString(request, "teamBUrl", true),
+                maps,
+                new File(getString(request, "saveFile", true)),
+                Boolean.TRUE.equals(request.get("bestOfThree")) && maps.length == 3
+        );
+    }
+
+    private static String getString(Map<?, ?> request, String key, boolean required) {
+        Object value = request.get(key);
+        if (value instanceof String) {
+            return (String) value;
+        } else if (value == null && !required) {
+            return null;
+        }
+        throw new IllegalArgumentException((value == null ? "missing " : "bad ") + key);
+    }
+
+    /**
+     * @param id the id of a request, as parsed
+     * @return the id, as JSON to echo back
+     */
+    private static String idString(Object id) {
+        if (id instanceof String) {
+            return Json.quote((String) id);
+        } else if (id instanceof Double) {
+            double d = (Double) id;
+            return d == Math.rint(d) && !Double.isInfinite(d) ? Long.toString((long) d) : id.toString();
+        }
+        return "null";
+    }
+}
@@ -8,7 +8,6 @@ import battlecode.common.TrapType;
 import battlecode.common.Team;
 import battlecode.instrumenter.profiler.Profiler;
 import battlecode.instrumenter.profiler.ProfilerCollection;
-import battlecode.instrumenter.profiler.ProfilerEventType;
 import battlecode.schema.*;
 import battlecode.util.FlatHelpers;
 import battlecode.util.TeamMapping;
@@ -560,11 +559,11 @@ public strictfp class GameMaker {
                     for (Profiler profiler : profilerCollection.getProfilers()) {
                         TIntArrayList events = new TIntArrayList();
 
-                        for (battlecode.instrumenter.profiler.ProfilerEvent event : profiler.getEvents()) {
+                        for (int i = 0; i < profiler.getEventCount(); i++) {
                             ProfilerEvent.startProfilerEvent(builder);
-                            ProfilerEvent.addIsOpen(builder, event.getType() == ProfilerEventType.OPEN);
-                            ProfilerEvent.addAt(builder, event.getAt());
-                            ProfilerEvent.addFrame(builder, event.getFrameId());
+                            ProfilerEvent.addIsOpen(builder, profiler.isOpenEvent(i));
+                            ProfilerEvent.addAt(builder, profiler.getEventAt(i));
+                            ProfilerEvent.addFrame(builder, profiler.getEventFrameId(i));
                             events.add(ProfilerEvent.endProfilerEvent(builder));
                         }
 
@@ -0,0 +1,265 @@
+package battlecode.server;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON for the daemon's line protocol.
+ *
+ * Values are read as Map (objects), List (arrays), String, Double, Boolean
+ * or null.
+ */
+final class Json {
+
+    /**
+     * How deeply arrays and objects may be nested, so that a malicious or
+     * broken request can't overflow the stack.
+     */
+    static final int MAX_DEPTH = 64;
+
+    private final String text;
+    private int pos;
+    private int depth;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    /**
+     * @param text a complete JSON value
+     * @return the value
+     * @throws IllegalArgumentException if the text isn't valid JSON, or is
+     *                                  nested more than MAX_DEPTH deep
+     */
+    static Object parse(String text) {
+        Json json = new Json(text);
+        Object value = json.readValue();
+        json.skipWhitespace();
+        if (json.pos != text.length()) {
+            throw json.error("trailing characters");
+        }
+        return value;
+    }
+
+    /**
+     * @param value a string, or null
+     * @return the value as a JSON string literal, or null
+     */
+    static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private Object readValue() {
+        skipWhitespace();
+        if (pos >= text.length()) {
+            throw error("unexpected end of input");
+        }
+        char c = text.charAt(pos);
+        switch (c) {
+            case '{':
+                enter();
+                Map<String, Object> object = readObject();
+                depth--;
+                return object;
+            case '[':
+                enter();
+                List<Object> array = readArray();
+                depth--;
+                return array;
+            case '"':
+                return readString();
+            case 't':
+                expect("true");
+                return Boolean.TRUE;
+            case 'f':
+                expect("false");
+                return Boolean.FALSE;
+            case 'n':
+                expect("null");
+                return null;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return readNumber();
+                }
+                throw error("unexpected character '" + c + "'");
+        }
+    }
+
+    private void enter() {
+        if (++depth > MAX_DEPTH) {
+            throw error("nested more than " + MAX_DEPTH + " deep");
+        }
+    }
+
+    private Map<String, Object> readObject() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        pos++;
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return result;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("expected a key");
+            }
+            String key = readString();
+            skipWhitespace();
+            expect(":");
+            result.put(key, readValue());
+            skipWhitespace();
+            char c = next();
+            if (c == '}') {
+                return result;
+            } else if (c != ',') {
+                throw error("expected ',' or '}'");
+            }
+        }
+    }
+
+    private List<Object> readArray() {
+        List<Object> result = new ArrayList<>();
+        pos++;
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return result;
+        }
+        while (true) {
+            result.add(readValue());
+            skipWhitespace();
+            char c = next();
+            if (c == ']') {
+                return result;
+            } else if (c != ',') {
+                throw error("expected ',' or ']'");
+            }
+        }
+    }
+
+    private String readString() {
+        StringBuilder sb = new StringBuilder();
+        pos++;
+        while (true) {
+            char c = next();
+            if (c == '"') {
+                return sb.toString();
+            } else if (c == '\\') {
+                char e = next();
+                switch (e) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        sb.append(e);
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw error("bad unicode escape");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException ex) {
+                            throw error("bad unicode escape");
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        throw error("bad escape '\\" + e + "'");
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+
+    private Double readNumber() {
+        int start = pos;
+        while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+            pos++;
+        }
+        try {
+            return Double.valueOf(text.substring(start, pos));
+        } catch (NumberFormatException e) {
+            throw error("bad number");
+        }
+    }
+
+    private void expect(String literal) {
+        if (!text.startsWith(literal, pos)) {
+            throw error("expected '" + literal + "'");
+        }
+        pos += literal.length();
+    }
+
+    private char peek() {
+        if (pos >= text.length()) {
+            throw error("unexpected end of input");
+        }
+        return text.charAt(pos);
+    }
+
+    private char next() {
+        char c = peek();
+        pos++;
+        return c;
+    }
+
+    private void skipWhitespace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + pos);
+    }
+}
@@ -106,6 +106,10 @@ public class Main {
         switch (mode) {
             case HEADLESS:
                 return runHeadless(options);
+            case BATCH:
+                return new BatchRunner(options).run();
+            case DAEMON:
+                return new Daemon(options).run();
             default:
                 return false;
         }
@@ -1,5 +1,6 @@
 package battlecode.server;
 
+import battlecode.instrumenter.stream.LimitedPrintStream;
 import battlecode.world.maps.*;
 
 import battlecode.common.Direction;
@@ -12,6 +13,7 @@ import battlecode.world.control.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -19,7 +21,13 @@ import java.util.ArrayList;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.management.RuntimeErrorException;
 
@@ -42,8 +50,9 @@ public strictfp class Server implements Runnable {
 
     /**
      * The state of the match that the server is running (or about to run).
+     * Once a game fails, this stays ERROR.
      */
-    private ServerState state;
+    private volatile ServerState state;
 
     /**
      * The options provided to the server via config file and command line.
@@ -57,9 +66,18 @@ public strictfp class Server implements Runnable {
     private final boolean interactive;
 
     /**
-     * The GameWorld the server is currently operating on.
+     * The GameWorlds the server is currently operating on; more than one
+     * if bc.server.parallel-games is above 1.
      */
-    private GameWorld currentWorld;
+    private final Set<GameWorld> currentWorlds;
+
+    /**
+     * Constructs robot sandboxes at match start for every game the server
+     * runs, so that bc.engine.sandbox-setup-threads bounds the total.
+     * Null until a game needs it, and if sandboxes are constructed on the
+     * game's own thread.
+     */
+    private ExecutorService sandboxSetupPool;
 
 
     /**
@@ -69,6 +87,8 @@ public strictfp class Server implements Runnable {
      */
     public enum Mode {
         HEADLESS,
+        BATCH,
+        DAEMON,
     }
 
     /**
@@ -85,6 +105,7 @@ public strictfp class Server implements Runnable {
 
         this.options = options;
         this.state = ServerState.NOT_READY;
+        this.currentWorlds = Collections.newSetFromMap(new ConcurrentHashMap<>());
     }
 
     // ******************************
@@ -129,8 +150,28 @@ public strictfp class Server implements Runnable {
      * matches.
      */
     public void run() {
+        try {
+            runGames();
+        } finally {
+            synchronized (this) {
+                if (sandboxSetupPool != null) {
+                    sandboxSetupPool.shutdown();
+                    sandboxSetupPool = null;
+                }
+            }
+        }
+    }
+
+    private void runGames() {
+        // Interactive mode controls one match at a time.
+        final int parallelGames = interactive ? 1 : Math.max(1, options.getInt("bc.server.parallel-games"));
+
         final NetServer netServer;
-        if (options.getBoolean("bc.server.websocket")) {
+        if (options.getBoolean("bc.server.websocket") && parallelGames > 1) {
+            // The client can only follow one game at a time.
+            warn("Not streaming games to the client, since " + parallelGames + " games may run at once");
+            netServer = null;
+        } else if (options.getBoolean("bc.server.websocket")) {
             netServer = new NetServer(options.getInt("bc.server.port"),
                                       options.getBoolean("bc.server.wait-for-client"));
             netServer.start();
@@ -138,20 +179,40 @@ public strictfp class Server implements Runnable {
             netServer = null;
         }
 
+        final ExecutorService gamePool;
+        if (parallelGames > 1) {
+            final AtomicInteger count = new AtomicInteger();
+            gamePool = Executors.newFixedThreadPool(parallelGames,
+                    (r) -> new Thread(r, "game-runner-" + count.incrementAndGet()));
+        } else {
+            gamePool = null;
+        }
+        // A game is only taken off the queue once there's a thread to run it.
+        final Semaphore freeRunners = new Semaphore(parallelGames);
+
         while (true) {
             final GameInfo currentGame;
             debug("Awaiting match");
             try {
                 currentGame = gameQueue.take();
+                if (gamePool != null) {
+                    freeRunners.acquire();
+                }
             } catch (InterruptedException e) {
                 warn("Interrupted while waiting for next game!");
                 e.printStackTrace();
                 Thread.currentThread().interrupt();
+                if (gamePool != null) {
+                    gamePool.shutdown();
+                }
                 return;
             }
 
             // Note: ==, not .equals()
             if (currentGame == POISON) {
+                if (gamePool != null) {
+                    awaitGames(gamePool);
+                }
                 debug("Shutting down server");
                 if (netServer != null) {
                     netServer.finish();
@@ -159,57 +220,126 @@ public strictfp class Server implements Runnable {
                 return;
             }
 
-            GameMaker gameMaker = new GameMaker(currentGame, netServer, options.getBoolean("bc.engine.show-indicators"));
-            gameMaker.makeGameHeader();
+            if (gamePool == null) {
+                if (runGame(currentGame, netServer) == null) {
+                    return;
+                }
+            } else if (this.state == ServerState.ERROR) {
+                // Stop as soon as a game fails, like we do when running one
+                // game at a time; the games already running are finished.
+                awaitGames(gamePool);
+                return;
+            } else {
+                gamePool.execute(() -> {
+                    try {
+                        runGame(currentGame, netServer);
+                    } finally {
+                        freeRunners.release();
+                    }
+                });
+            }
+        }
+    }
 
-            debug("Running: "+currentGame);
+    /**
+     * Wait for every game running on the pool to finish, then shut it down.
+     *
+     * @param gamePool the pool running games
+     */
+    private void awaitGames(ExecutorService gamePool) {
+        gamePool.shutdown();
+        boolean interrupted = false;
+        while (!gamePool.isTerminated()) {
+            try {
+                gamePool.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-            // Set up our control provider
-            final boolean profilingEnabled = options.getBoolean("bc.engine.enable-profiler");
-            final RobotControlProvider prov = createControlProvider(currentGame, gameMaker, profilingEnabled);
+    /**
+     * @return the pool to construct sandboxes on, or null to construct them
+     *         on the game's own thread
+     */
+    private synchronized ExecutorService getSandboxSetupPool() {
+        final int threads = options.getInt("bc.engine.sandbox-setup-threads");
+        if (sandboxSetupPool == null && threads > 1) {
+            final AtomicInteger count = new AtomicInteger();
+            sandboxSetupPool = Executors.newFixedThreadPool(threads, (r) -> {
+                Thread t = new Thread(r, "sandbox-setup-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return sandboxSetupPool;
+    }
 
-            final boolean checkMapGuarantees = options.getBoolean("bc.server.validate-maps");
-            final boolean alternateOrder = options.getBoolean("bc.server.alternate-order");
+    /**
+     * Runs every match of a game, and writes it out.
+     * Everything a game touches is created here, so several games can run
+     * at once on different threads.
+     *
+     * @param currentGame the game to run
+     * @param netServer   the server to stream the game to; may be null
+     * @return the winner of the game, or null if it failed to run
+     */
+    Team runGame(GameInfo currentGame, NetServer netServer) {
+        GameMaker gameMaker = new GameMaker(currentGame, netServer, options.getBoolean("bc.engine.show-indicators"));
+        gameMaker.makeGameHeader();
 
-            // Count wins
-            int aWins = 0, bWins = 0;
+        debug("Running: "+currentGame);
 
-            // Loop through the maps in the current game
-            boolean teamsReversed = false;
-            for (int matchIndex = 0; matchIndex < currentGame.getMaps().length; matchIndex++) {
-                Team winner;
-                try {
-                    winner = runMatch(currentGame, matchIndex, prov, gameMaker, checkMapGuarantees, teamsReversed);
-                    if (alternateOrder) {teamsReversed = !teamsReversed;}
-                } catch (Exception e) {
-                    ErrorReporter.report(e);
-                    this.state = ServerState.ERROR;
-                    return;
-                }
+        // Set up our control provider
+        final boolean profilingEnabled = options.getBoolean("bc.engine.enable-profiler");
+        final RobotControlProvider prov = createControlProvider(currentGame, gameMaker, profilingEnabled);
 
-                switch (winner) {
-                    case A:
-                        aWins++;
-                        break;
-                    case B:
-                        bWins++;
-                        break;
-                    default:
-                        warn("Team "+winner+" won???");
-                }
+        final boolean checkMapGuarantees = options.getBoolean("bc.server.validate-maps");
+        final boolean alternateOrder = options.getBoolean("bc.server.alternate-order");
 
-                currentWorld = null;
+        // Count wins
+        int aWins = 0, bWins = 0;
 
-                if (currentGame.isBestOfThree()) {
-                    if (aWins == 2 || bWins == 2) {
-                        break;
-                    }
+        // Loop through the maps in the current game
+        boolean teamsReversed = false;
+        for (int matchIndex = 0; matchIndex < currentGame.getMaps().length; matchIndex++) {
+            Team winner;
+            try {
+                winner = runMatch(currentGame, matchIndex, prov, gameMaker, checkMapGuarantees, teamsReversed, null, false).getWinner();
+                if (alternateOrder) {teamsReversed = !teamsReversed;}
+            } catch (Exception e) {
+                ErrorReporter.report(e);
+                setState(ServerState.ERROR);
+                prov.gameEnded();
+                return null;
+            }
+
+            switch (winner) {
+                case A:
+                    aWins++;
+                    break;
+                case B:
+                    bWins++;
+                    break;
+                default:
+                    warn("Team "+winner+" won???");
+            }
+
+            if (currentGame.isBestOfThree()) {
+                if (aWins == 2 || bWins == 2) {
+                    break;
                 }
             }
-            Team winner = aWins >= bWins ? Team.A : Team.B;
-            gameMaker.makeGameFooter(winner);
-            gameMaker.writeGame(currentGame.getSaveFile());
         }
+        prov.gameEnded();
+
+        Team winner = aWins >= bWins ? Team.A : Team.B;
+        gameMaker.makeGameFooter(winner);
+        gameMaker.writeGame(currentGame.getSaveFile());
+        return winner;
     }
 
     private int locationToIndex(LiveMap liveMap, int x, int y) {
@@ -231,22 +361,51 @@ public strictfp class Server implements Runnable {
 
 
     
-    private Team runMatch(GameInfo currentGame, int matchIndex, RobotControlProvider prov, GameMaker gameMaker, boolean checkMapGuarantees) throws Exception {
-        return runMatch(currentGame, matchIndex, prov, gameMaker, checkMapGuarantees, false);
+    /**
+     * Runs the first match of a game on its own, outside of the game queue,
+     * and saves it if the game has a save file. Its turns are timed into the
+     * world's stats. Safe to call from several threads at once.
+     *
+     * @param game the game to run
+     * @param seed the seed to run the map with, or null to use the map's own
+     * @return the world the match ran in, once it's over
+     * @throws Exception if the match fails to run for some reason
+     */
+    GameWorld runSingleMatch(GameInfo game, Integer seed) throws Exception {
+        GameMaker gameMaker = new GameMaker(game, null, options.getBoolean("bc.engine.show-indicators"));
+        gameMaker.makeGameHeader();
+
+        final RobotControlProvider prov = createControlProvider(game, gameMaker,
+                options.getBoolean("bc.engine.enable-profiler"));
+        final GameWorld world;
+        try {
+            world = runMatch(game, 0, prov, gameMaker, options.getBoolean("bc.server.validate-maps"), false, seed, true);
+        } finally {
+            prov.gameEnded();
+        }
+
+        gameMaker.makeGameFooter(world.getWinner());
+        if (game.getSaveFile() != null) {
+            gameMaker.writeGame(game.getSaveFile());
+        }
+        return world;
     }
 
     /**
-     * @return the winner of the match
+     * @param seed the seed to run the map with, or null to use the map's own
+     * @param timeTurns whether to time every turn into the world's stats
+     * @return the world the match ran in, once it's over
      * @throws Exception if the match fails to run for some reason
      */
-    private Team runMatch(GameInfo currentGame,
-                          int matchIndex,
-                          RobotControlProvider prov,
-                          GameMaker gameMaker, boolean checkMapGuarantees, boolean teamsReversed) throws Exception {
+    private GameWorld runMatch(GameInfo currentGame,
+                               int matchIndex,
+                               RobotControlProvider prov,
+                               GameMaker gameMaker, boolean checkMapGuarantees, boolean teamsReversed,
+                               Integer seed, boolean timeTurns) throws Exception {
 
 
         final String mapName = currentGame.getMaps()[matchIndex];
-        final LiveMap loadedMap;
+        LiveMap loadedMap;
 
 
         try {
@@ -255,13 +414,19 @@ public strictfp class Server implements Runnable {
             warn("Couldn't load map " + mapName + ", skipping");
             throw e;
         }
+        if (seed != null) {
+            loadedMap = new LiveMap(loadedMap, seed);
+        }
 
         // Create the game world!
-        currentWorld = new GameWorld(loadedMap, prov, gameMaker.getMatchMaker());
-        
+        final GameWorld world = new GameWorld(loadedMap, prov, gameMaker.getMatchMaker());
+        if (timeTurns) {
+            world.startTimingTurns();
+        }
+
         if (checkMapGuarantees) {
             // Validate the map
-            currentWorld.getGameMap().assertIsValid();
+            world.getGameMap().assertIsValid();
         }
 
         // Get started
@@ -275,7 +440,7 @@ public strictfp class Server implements Runnable {
             }
         } else {
             // Start the game immediately if we're not in interactive mode
-            this.state = ServerState.RUNNING;
+            setState(ServerState.RUNNING);
         }
 
         long startTime = System.currentTimeMillis();
@@ -285,33 +450,26 @@ public strictfp class Server implements Runnable {
         // If there are more rounds to be run, run them and
         // and send the round (and optionally stats) bytes to
         // recipients.
-        while (this.state != ServerState.FINISHED) {
-
-            // If not paused/stopped:
-            switch (this.state) {
-
-                case RUNNING:
-                    GameState state = currentWorld.runRound();
-
-                    if (GameState.DONE.equals(state)) {
-                        this.state = ServerState.FINISHED;
-                        break;
-                    }
-
-                    break;
-
-                case PAUSED:
+        currentWorlds.add(world);
+        try {
+            while (true) {
+                if (this.state == ServerState.PAUSED) {
                     Thread.sleep(250);
+                } else if (GameState.DONE.equals(world.runRound())) {
                     break;
+                }
             }
+        } finally {
+            currentWorlds.remove(world);
         }
+        setState(ServerState.FINISHED);
 
-        say(getWinnerString(currentGame, currentWorld.getWinner(), currentWorld.getCurrentRound()));
+        say(getWinnerString(currentGame, world.getWinner(), world.getCurrentRound(), world.getGameStats()));
         say("-------------------- Match Finished --------------------");
 
         double timeDiff = (System.currentTimeMillis() - startTime) / 1000.0;
         debug(String.format("match completed in %.4g seconds", timeDiff));
-        return currentWorld.getWinner();
+        return world;
     }
 
     // ******************************
@@ -333,7 +491,30 @@ public strictfp class Server implements Runnable {
         // Whatever
 
         final TeamControlProvider teamProvider = new TeamControlProvider();
+        // Both teams' robots share one budget, of this game only
+        final LimitedPrintStream.Budget outputBudget = new LimitedPrintStream.Budget(
+                options.getInt("bc.server.robot-player-replay-file-per-team-limit-bytes"));
 
+        if (options.getBoolean("bc.engine.trusted-mode")) {
+            final double nanosPerBytecode = Double.parseDouble(options.get("bc.engine.trusted-nanos-per-bytecode"));
+            teamProvider.registerControlProvider(
+                    Team.A,
+                    new TrustedControlProvider(Team.A, game.getTeamAPackage(), game.getTeamAURL(),
+                            gameMaker.getMatchMaker().getOut(), outputBudget, nanosPerBytecode)
+            );
+            teamProvider.registerControlProvider(
+                    Team.B,
+                    new TrustedControlProvider(Team.B, game.getTeamBPackage(), game.getTeamBURL(),
+                            gameMaker.getMatchMaker().getOut(), outputBudget, nanosPerBytecode)
+            );
+            teamProvider.registerControlProvider(
+                Team.NEUTRAL,
+                new NullControlProvider()
+            );
+            return teamProvider;
+        }
+
+        final ExecutorService setupPool = getSandboxSetupPool();
         teamProvider.registerControlProvider(
                 Team.A,
                 new PlayerControlProvider(
@@ -341,7 +522,9 @@ public strictfp class Server implements Runnable {
                     game.getTeamAPackage(),
                     game.getTeamAURL(),
                     gameMaker.getMatchMaker().getOut(),
-                    profilingEnabled
+                    outputBudget,
+                    profilingEnabled,
+                    setupPool
                 )
         );
         teamProvider.registerControlProvider(
@@ -351,7 +534,9 @@ public strictfp class Server implements Runnable {
                     game.getTeamBPackage(),
                     game.getTeamBURL(),
                     gameMaker.getMatchMaker().getOut(),
-                    profilingEnabled
+                    outputBudget,
+                    profilingEnabled,
+                    setupPool
                 )
         );
         teamProvider.registerControlProvider(
@@ -377,7 +562,7 @@ public strictfp class Server implements Runnable {
      *
      * @return A string representing the match's winner.
      */
-    public String getWinnerString(GameInfo game, Team winner, int roundNumber) {
+    public String getWinnerString(GameInfo game, Team winner, int roundNumber, GameStats stats) {
 
         String teamName;
 
@@ -401,7 +586,6 @@ public strictfp class Server implements Runnable {
         sb.append(" wins (round ").append(roundNumber).append(")");
 
         sb.append("\nReason: ");
-        GameStats stats = currentWorld.getGameStats();
         DominationFactor dom = stats.getDominationFactor();
 
         switch (dom) {
@@ -435,7 +619,33 @@ public strictfp class Server implements Runnable {
      * @return whether we are actively running a match
      */
     public boolean isRunningMatch() {
-        return currentWorld != null && currentWorld.isRunning();
+        for (GameWorld world : currentWorlds) {
+            if (world.isRunning()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forget that a game has failed, so that the state of the next game is
+     * reported; for servers that keep running games after one fails.
+     */
+    synchronized void clearError() {
+        if (this.state == ServerState.ERROR) {
+            this.state = ServerState.NOT_READY;
+        }
+    }
+
+    /**
+     * Change the state of the server, unless a game has failed.
+     *
+     * @param newState the new state
+     */
+    private synchronized void setState(ServerState newState) {
+        if (this.state != ServerState.ERROR) {
+            this.state = newState;
+        }
     }
 
 
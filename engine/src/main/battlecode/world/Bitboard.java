@@ -0,0 +1,154 @@
+package battlecode.world;
+
+import gnu.trove.procedure.TIntProcedure;
+
+import java.util.function.IntToLongFunction;
+
+/**
+ * One bit for every tile of a map, packed into a long per column: bit y of
+ * column x is the tile at (x, y), relative to the map's origin. Maps are no
+ * more than 64 tiles high, so a column is always one word, and a query can
+ * test a whole column of a disk at once.
+ *
+ * Tiles are visited by x, then by y, the same order as
+ * GameWorld.forEachIndexWithinRadiusSquared, and reported by their index in
+ * the map.
+ */
+final class Bitboard {
+
+    private final int width;
+    private final int height;
+    private final long[] columns;
+
+    Bitboard(int width, int height) {
+        if (height > Long.SIZE) {
+            throw new IllegalArgumentException("Bitboards can't be more than " + Long.SIZE + " tiles high");
+        }
+        this.width = width;
+        this.height = height;
+        this.columns = new long[width];
+    }
+
+    /**
+     * @param tiles a value for every tile, indexed by location index
+     * @param width the width of the map
+     * @param height the height of the map
+     * @return a bitboard with the tiles that are true set
+     */
+    static Bitboard of(boolean[] tiles, int width, int height) {
+        Bitboard board = new Bitboard(width, height);
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i]) {
+                board.set(i % width, i / width);
+            }
+        }
+        return board;
+    }
+
+    /**
+     * @param tiles a value for every tile, indexed by location index
+     * @param width the width of the map
+     * @param height the height of the map
+     * @return a bitboard with the tiles that aren't 0 set
+     */
+    static Bitboard of(int[] tiles, int width, int height) {
+        Bitboard board = new Bitboard(width, height);
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != 0) {
+                board.set(i % width, i / width);
+            }
+        }
+        return board;
+    }
+
+    boolean get(int x, int y) {
+        return (columns[x] & (1L << y)) != 0;
+    }
+
+    void set(int x, int y) {
+        columns[x] |= 1L << y;
+    }
+
+    void clear(int x, int y) {
+        columns[x] &= ~(1L << y);
+    }
+
+    /**
+     * @param x a column
+     * @return the tiles set in the column, with bit y for row y
+     */
+    long column(int x) {
+        return columns[x];
+    }
+
+    /**
+     * @param other a bitboard of the same map
+     * @return whether any tile is set in both
+     */
+    boolean intersects(Bitboard other) {
+        for (int x = 0; x < width; x++) {
+            if ((columns[x] & other.columns[x]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Apply an operation to the index of every tile set within a radius of
+     * a center. Return false to stop iterating.
+     *
+     * @param centerX the x coordinate of the center, relative to the origin
+     * @param centerY the y coordinate of the center, relative to the origin
+     * @param radiusSquared the radius
+     * @param op a lambda (index) -> boolean
+     * @return false if the operation stopped early
+     */
+    boolean forEachWithinRadiusSquared(int centerX, int centerY, int radiusSquared, TIntProcedure op) {
+        return forEachWithinRadiusSquared(width, height, centerX, centerY, radiusSquared, this::column, op);
+    }
+
+    /**
+     * Apply an operation to the index of every tile within a radius of a
+     * center whose bit is set in the given columns; for instance, to visit
+     * the tiles that are in one layer and not another. Return false to stop
+     * iterating.
+     *
+     * @param width the width of the map
+     * @param height the height of the map
+     * @param centerX the x coordinate of the center, relative to the origin
+     * @param centerY the y coordinate of the center, relative to the origin
+     * @param radiusSquared the radius
+     * @param columns a lambda (x) -> the tiles to visit in column x
+     * @param op a lambda (index) -> boolean
+     * @return false if the operation stopped early
+     */
+    static boolean forEachWithinRadiusSquared(int width, int height, int centerX, int centerY, int radiusSquared,
+                                              IntToLongFunction columns, TIntProcedure op) {
+        if (radiusSquared < 0) {
+            return true;
+        }
+        int radius = (int) Math.sqrt(radiusSquared);
+        int minX = Math.max(centerX - radius, 0);
+        int maxX = Math.min(centerX + radius, width - 1);
+        for (int x = minX; x <= maxX; x++) {
+            int dx = x - centerX;
+            int halfHeight = (int) Math.sqrt(radiusSquared - dx * dx);
+            int minY = Math.max(centerY - halfHeight, 0);
+            int maxY = Math.min(centerY + halfHeight, height - 1);
+            if (minY > maxY) {
+                continue;
+            }
+            long span = maxY - minY == Long.SIZE - 1 ? -1L : ((1L << (maxY - minY + 1)) - 1) << minY;
+            long bits = columns.applyAsLong(x) & span;
+            while (bits != 0) {
+                int y = Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if (!op.execute(x + y * width)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -254,9 +254,11 @@ public final strictfp class GameMapIO {
             battlecode.schema.VecTable spawnZoneCentersTable = raw.spawnLocations();
             for (int i = 0; i < 6; i++){
                 MapLocation cur = new MapLocation(spawnZoneCentersTable.xs(i), spawnZoneCentersTable.ys(i));
-                for (MapLocation loc : GameWorld.getAllLocationsWithinRadiusSquaredWithoutMap(origin, width, height, cur, 2)){
-                    spawnZoneArray[loc.x + loc.y*width] = (i % 2 == 0) ? 1 : 2;
-                }
+                int zone = (i % 2 == 0) ? 1 : 2;
+                GameWorld.forEachIndexWithinRadiusSquaredWithoutMap(origin, width, height, cur, 2, (idx) -> {
+                    spawnZoneArray[idx] = zone;
+                    return true;
+                });
             }
 
             return new LiveMap(
@@ -11,6 +11,17 @@ public class GameStats {
     private Team winner;
     private DominationFactor dominationFactor;
 
+    /**
+     * Nanoseconds spent running each team's player code, indexed by team.
+     */
+    private final long[] playerTime = new long[Team.values().length];
+
+    /**
+     * Nanoseconds the engine spent on each team's turns, outside of player
+     * code, indexed by team.
+     */
+    private final long[] engineTime = new long[Team.values().length];
+
     public GameStats() {
         this.winner = null;
         this.dominationFactor = null;
@@ -32,4 +43,33 @@ public class GameStats {
         return dominationFactor;
     }
 
+    /**
+     * Record the time a robot's turn took.
+     *
+     * @param team       the robot's team
+     * @param playerTime nanoseconds spent in the robot's player code
+     * @param engineTime nanoseconds spent processing the turn around it
+     */
+    public void addTurnTime(Team team, long playerTime, long engineTime) {
+        this.playerTime[team.ordinal()] += playerTime;
+        this.engineTime[team.ordinal()] += engineTime;
+    }
+
+    /**
+     * @param team the team
+     * @return nanoseconds spent running the team's player code
+     */
+    public long getPlayerTime(Team team) {
+        return playerTime[team.ordinal()];
+    }
+
+    /**
+     * @param team the team
+     * @return nanoseconds the engine spent on the team's turns, outside of
+     *         player code
+     */
+    public long getEngineTime(Team team) {
+        return engineTime[team.ordinal()];
+    }
+
 }
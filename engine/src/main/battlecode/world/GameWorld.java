@@ -8,6 +8,7 @@ import battlecode.server.GameMaker;
 import battlecode.server.GameState;
 import battlecode.util.FlatHelpers;
 import battlecode.world.control.RobotControlProvider;
+import gnu.trove.procedure.TIntProcedure;
 
 import java.util.*;
 
@@ -28,6 +29,8 @@ public strictfp class GameWorld {
 
     protected final IDGenerator idGenerator;
     protected final GameStats gameStats;
+    // Whether to time every turn into gameStats; off unless asked for
+    private boolean timingTurns;
     private boolean[] walls;
     private boolean[] water;
     private boolean[] dams;
@@ -37,8 +40,17 @@ public strictfp class GameWorld {
     private int[] breadAmounts;
     private ArrayList<Trap>[] trapTriggers;
     private Trap[] trapLocations;
+
+    // The same terrain as bitboards, a long per column, for queries over
+    // whole areas; kept in sync with the arrays above
+    private final Bitboard wallLayer;
+    private final Bitboard waterLayer;
+    private final Bitboard damLayer;
+    private final Bitboard spawnZoneLayer;
+    private final Bitboard breadLayer;
+    private final Bitboard trapLayer;
     private int trapId;
-    private InternalRobot[][] robots;
+    private InternalRobot[] robots;
     private final LiveMap gameMap;
     private final TeamInfo teamInfo;
     private final ObjectInfo objectInfo;
@@ -62,7 +74,13 @@ public strictfp class GameWorld {
         this.spawnZones = gm.getSpawnZoneArray();
         this.dams = gm.getDamArray();
         this.breadAmounts = gm.getBreadArray();
-        this.robots = new InternalRobot[gm.getWidth()][gm.getHeight()]; // if represented in cartesian, should be height-width, but this should allow us to index x-y
+        this.wallLayer = Bitboard.of(walls, gm.getWidth(), gm.getHeight());
+        this.waterLayer = Bitboard.of(water, gm.getWidth(), gm.getHeight());
+        this.damLayer = Bitboard.of(dams, gm.getWidth(), gm.getHeight());
+        this.spawnZoneLayer = Bitboard.of(spawnZones, gm.getWidth(), gm.getHeight());
+        this.breadLayer = Bitboard.of(breadAmounts, gm.getWidth(), gm.getHeight());
+        this.trapLayer = new Bitboard(gm.getWidth(), gm.getHeight());
+        this.robots = new InternalRobot[gm.getWidth() * gm.getHeight()];
         this.currentRound = 0;
         this.trapId = 0;
         this.idGenerator = new IDGenerator(gm.getSeed());
@@ -86,6 +104,7 @@ public strictfp class GameWorld {
             createRobot(Team.A);
             createRobot(Team.B);
         }
+        this.controlProvider.robotsSpawned();
 
 
         // Write match header at beginning of match
@@ -120,7 +139,10 @@ public strictfp class GameWorld {
         for (int i = 0; i < flagArray.length; i++) {
             int flagVal = flagArray[i];
             if(flagVal == 0) continue;
-            Flag flag = new Flag(flagVal == 1 ? Team.A : Team.B, indexToLocation(i), i);
+            MapLocation startLoc = indexToLocation(i);
+            // flags tell whether they've moved by comparing their location to
+            // their start location by identity, so they get their own instance
+            Flag flag = new Flag(flagVal == 1 ? Team.A : Team.B, new MapLocation(startLoc.x, startLoc.y), i);
             allFlags.add(flag);
             placedFlags[i].add(flag);
         }
@@ -202,8 +224,11 @@ public strictfp class GameWorld {
     }
 
     private boolean updateRobot(InternalRobot robot) {
+        final long turnStart = timingTurns ? System.nanoTime() : 0;
         robot.processBeginningOfTurn();
+        final long playerStart = timingTurns ? System.nanoTime() : 0;
         this.controlProvider.runRobot(robot);
+        final long playerEnd = timingTurns ? System.nanoTime() : 0;
         robot.setBytecodesUsed(this.controlProvider.getBytecodesUsed(robot));
         robot.processEndOfTurn();
 
@@ -214,6 +239,11 @@ public strictfp class GameWorld {
         //allowing despawned robots to continue throwing errors may be cause of gc overhead errors
         if (this.controlProvider.getTerminated(robot) && objectInfo.getRobotByID(robot.getID()) != null && robot.getLocation() != null)
             despawnRobot(robot.getID());
+
+        if (timingTurns) {
+            gameStats.addTurnTime(robot.getTeam(), playerEnd - playerStart,
+                    (playerStart - turnStart) + (System.nanoTime() - playerEnd));
+        }
         return true;
     }
 
@@ -237,6 +267,14 @@ public strictfp class GameWorld {
         return this.gameStats;
     }
 
+    /**
+     * Time every turn from now on, so that the game stats say how long
+     * each team's player code and the engine took.
+     */
+    public void startTimingTurns() {
+        this.timingTurns = true;
+    }
+
     public ObjectInfo getObjectInfo() {
         return this.objectInfo;
     }
@@ -267,18 +305,41 @@ public strictfp class GameWorld {
 
     public void setWater(MapLocation loc) {
         this.water[locationToIndex(loc)] = true;
+        this.waterLayer.set(loc.x - gameMap.getOrigin().x, loc.y - gameMap.getOrigin().y);
     }
 
     public void setLand(MapLocation loc) {
         this.water[locationToIndex(loc)] = false;
+        this.waterLayer.clear(loc.x - gameMap.getOrigin().x, loc.y - gameMap.getOrigin().y);
     }
 
     public int getBreadAmount(MapLocation loc) {
-        return this.breadAmounts[locationToIndex(loc)];
+        return getBreadAmount(locationToIndex(loc));
+    }
+
+    public int getBreadAmount(int idx) {
+        return this.breadAmounts[idx];
     }
 
     public void removeBread(MapLocation loc) {
         this.breadAmounts[locationToIndex(loc)] = 0;
+        this.breadLayer.clear(loc.x - gameMap.getOrigin().x, loc.y - gameMap.getOrigin().y);
+    }
+
+    /**
+     * Call a procedure with the index of every location within a radius of
+     * a center that has bread on it, in the order
+     * forEachIndexWithinRadiusSquared visits them.
+     *
+     * @param center the center of the circle
+     * @param radiusSquared the square of the radius
+     * @param procedure called with each index; returns false to stop
+     * @return false if the procedure stopped early
+     */
+    public boolean forEachBreadIndexWithinRadiusSquared(MapLocation center, int radiusSquared,
+                                                        TIntProcedure procedure) {
+        return this.breadLayer.forEachWithinRadiusSquared(center.x - gameMap.getOrigin().x,
+                center.y - gameMap.getOrigin().y, radiusSquared, procedure);
     }
 
     /**
@@ -378,9 +439,11 @@ public strictfp class GameWorld {
         trapId++;
         matchMaker.addTrap(trap);
         this.trapLocations[locationToIndex(loc)] = trap;
-        for (MapLocation adjLoc : getAllLocationsWithinRadiusSquared(loc, trap.getType().triggerRadius)){
-            this.trapTriggers[locationToIndex(adjLoc)].add(trap);
-        }
+        this.trapLayer.set(loc.x - gameMap.getOrigin().x, loc.y - gameMap.getOrigin().y);
+        forEachIndexWithinRadiusSquared(loc, trap.getType().triggerRadius, (adjIdx) -> {
+            this.trapTriggers[adjIdx].add(trap);
+            return true;
+        });
     }
 
     public void triggerTrap(Trap trap, InternalRobot robot, boolean entered){
@@ -405,18 +468,27 @@ public strictfp class GameWorld {
                 }
                 break;
             case WATER:
-                for (MapLocation adjLoc : getAllLocationsWithinRadiusSquared(loc, type.enterRadius)){
-                    if (getRobot(adjLoc) != null || !isPassable(adjLoc) || getSpawnZone(adjLoc) != 0 || getTrap(adjLoc) != null)
-                        continue;
-                    setWater(adjLoc);
-                    matchMaker.addAction(-1, Action.DIG, locationToIndex(adjLoc));
-                }
+                boolean setup = currentRound <= GameConstants.SETUP_ROUNDS;
+                // flood every passable tile that isn't a spawn zone or trap
+                Bitboard.forEachWithinRadiusSquared(gameMap.getWidth(), gameMap.getHeight(),
+                        loc.x - gameMap.getOrigin().x, loc.y - gameMap.getOrigin().y, type.enterRadius,
+                        (x) -> ~(wallLayer.column(x) | waterLayer.column(x) | spawnZoneLayer.column(x)
+                                | trapLayer.column(x) | (setup ? damLayer.column(x) : 0)),
+                        (adjIdx) -> {
+                            if (getRobot(adjIdx) != null)
+                                return true;
+                            setWater(indexToLocation(adjIdx));
+                            matchMaker.addAction(-1, Action.DIG, adjIdx);
+                            return true;
+                        });
                 break;
         }
-        for (MapLocation adjLoc : getAllLocationsWithinRadiusSquared(loc, 2)){
-            this.trapTriggers[locationToIndex(adjLoc)].remove(trap);
-        }
+        forEachIndexWithinRadiusSquared(loc, 2, (adjIdx) -> {
+            this.trapTriggers[adjIdx].remove(trap);
+            return true;
+        });
         this.trapLocations[locationToIndex(loc)] = null;
+        this.trapLayer.clear(loc.x - gameMap.getOrigin().x, loc.y - gameMap.getOrigin().y);
         matchMaker.addTriggeredTrap(trap.getId());
         matchMaker.addAction(robot.getID(), FlatHelpers.getTrapActionFromTrapType(type), locationToIndex(trap.getLocation()));
     }
@@ -426,7 +498,15 @@ public strictfp class GameWorld {
     // ***********************************
 
     public InternalRobot getRobot(MapLocation loc) {
-        return this.robots[loc.x - this.gameMap.getOrigin().x][loc.y - this.gameMap.getOrigin().y];
+        return getRobot(locationToIndex(loc));
+    }
+
+    /**
+     * @param idx the index of a location
+     * @return the robot at the location, or null if there isn't one
+     */
+    public InternalRobot getRobot(int idx) {
+        return this.robots[idx];
     }
 
     public void moveRobot(MapLocation start, MapLocation end) {
@@ -435,11 +515,18 @@ public strictfp class GameWorld {
     }
 
     public void addRobot(MapLocation loc, InternalRobot robot) {
-        this.robots[loc.x - this.gameMap.getOrigin().x][loc.y - this.gameMap.getOrigin().y] = robot;
+        int idx = locationToIndex(loc);
+        if (this.robots[idx] != null)
+            this.objectInfo.clearRobotIndex(this.robots[idx], idx);
+        this.robots[idx] = robot;
+        this.objectInfo.addRobotIndex(robot, idx);
     }
 
     public void removeRobot(MapLocation loc) {
-        this.robots[loc.x - this.gameMap.getOrigin().x][loc.y - this.gameMap.getOrigin().y] = null;
+        int idx = locationToIndex(loc);
+        if (this.robots[idx] != null)
+            this.objectInfo.clearRobotIndex(this.robots[idx], idx);
+        this.robots[idx] = null;
     }
 
     public InternalRobot[] getAllRobotsWithinRadiusSquared(MapLocation center, int radiusSquared) {
@@ -448,65 +535,74 @@ public strictfp class GameWorld {
 
     public InternalRobot[] getAllRobotsWithinRadiusSquared(MapLocation center, int radiusSquared, Team team) {
         ArrayList<InternalRobot> returnRobots = new ArrayList<InternalRobot>();
-        for (MapLocation newLocation : getAllLocationsWithinRadiusSquared(center, radiusSquared))
-            if (getRobot(newLocation) != null) {
-                if (team == null || getRobot(newLocation).getTeam() == team)
-                    returnRobots.add(getRobot(newLocation));
-            }
+        this.objectInfo.eachRobotIndexWithinRadiusSquared(center, radiusSquared, team, (idx) -> {
+            returnRobots.add(this.robots[idx]);
+            return true;
+        });
         return returnRobots.toArray(new InternalRobot[returnRobots.size()]);
     }
 
     public InternalRobot[] getAllRobots(Team team) {
-        ArrayList<InternalRobot> returnRobots = new ArrayList<InternalRobot>();
-        for (MapLocation newLocation : getAllLocations()){
-            if (getRobot(newLocation) != null && (team == null || getRobot(newLocation).getTeam() == team)){
-            returnRobots.add(getRobot(newLocation));
-            }
-        }
-        return returnRobots.toArray(new InternalRobot[returnRobots.size()]);
+        return getAllRobotsWithinRadiusSquared(new MapLocation(0, 0), Integer.MAX_VALUE, team);
     }
 
     public Flag[] getAllFlagsWithinRadiusSquared(MapLocation center, int radiusSquared) {
         ArrayList<Flag> returnFlags = new ArrayList<Flag>();
-        for (MapLocation newLocation : getAllLocationsWithinRadiusSquared(center, radiusSquared))
-            if (getFlags(newLocation) != null)
-                returnFlags.addAll(getFlags(newLocation));
+        forEachIndexWithinRadiusSquared(center, radiusSquared, (idx) -> {
+            returnFlags.addAll(placedFlags[idx]);
+            return true;
+        });
         return returnFlags.toArray(new Flag[returnFlags.size()]);
     }
 
     public MapLocation[] getAllLocationsWithinRadiusSquared(MapLocation center, int radiusSquared) {
-        return getAllLocationsWithinRadiusSquaredWithoutMap(
-            this.gameMap.getOrigin(),
-            this.gameMap.getWidth(),
-            this.gameMap.getHeight(),
-            center, radiusSquared
-        );
+        MapLocation[] returnLocations = new MapLocation[RadiusOffsets.maxCount(radiusSquared,
+                this.gameMap.getWidth(), this.gameMap.getHeight())];
+        int[] count = new int[1];
+        forEachIndexWithinRadiusSquared(center, radiusSquared, (idx) -> {
+            returnLocations[count[0]++] = this.gameMap.indexToLocation(idx);
+            return true;
+        });
+        return count[0] == returnLocations.length ? returnLocations : Arrays.copyOf(returnLocations, count[0]);
     }
 
     public static MapLocation[] getAllLocationsWithinRadiusSquaredWithoutMap(MapLocation origin,
                                                                             int width, int height,
                                                                             MapLocation center, int radiusSquared) {
-        ArrayList<MapLocation> returnLocations = new ArrayList<MapLocation>();
-        int ceiledRadius = (int) Math.ceil(Math.sqrt(radiusSquared)) + 1; // add +1 just to be safe
-        int minX = Math.max(center.x - ceiledRadius, origin.x);
-        int minY = Math.max(center.y - ceiledRadius, origin.y);
-        int maxX = Math.min(center.x + ceiledRadius, origin.x + width - 1);
-        int maxY = Math.min(center.y + ceiledRadius, origin.y + height - 1);
-        for (int x = minX; x <= maxX; x++) {
-            for (int y = minY; y <= maxY; y++) {
-                MapLocation newLocation = new MapLocation(x, y);
-                if (center.isWithinDistanceSquared(newLocation, radiusSquared))
-                    returnLocations.add(newLocation);
-            }
-        }
-        return returnLocations.toArray(new MapLocation[returnLocations.size()]);
+        MapLocation[] returnLocations = new MapLocation[RadiusOffsets.maxCount(radiusSquared, width, height)];
+        int[] count = new int[1];
+        forEachIndexWithinRadiusSquaredWithoutMap(origin, width, height, center, radiusSquared, (idx) -> {
+            returnLocations[count[0]++] = new MapLocation(idx % width + origin.x, idx / width + origin.y);
+            return true;
+        });
+        return count[0] == returnLocations.length ? returnLocations : Arrays.copyOf(returnLocations, count[0]);
     }
 
     /**
-     * @return all of the locations on the grid
+     * Call a procedure with the index of every location on the map within a
+     * radius of a center, in the order getAllLocationsWithinRadiusSquared
+     * returns them, without allocating any locations.
+     *
+     * @param center the center of the circle
+     * @param radiusSquared the square of the radius
+     * @param procedure called with each index; returns false to stop
+     * @return false if the procedure stopped early
      */
-    private MapLocation[] getAllLocations() {
-        return getAllLocationsWithinRadiusSquared(new MapLocation(0, 0), Integer.MAX_VALUE);
+    public boolean forEachIndexWithinRadiusSquared(MapLocation center, int radiusSquared, TIntProcedure procedure) {
+        return forEachIndexWithinRadiusSquaredWithoutMap(
+            this.gameMap.getOrigin(),
+            this.gameMap.getWidth(),
+            this.gameMap.getHeight(),
+            center, radiusSquared, procedure
+        );
+    }
+
+    public static boolean forEachIndexWithinRadiusSquaredWithoutMap(MapLocation origin,
+                                                                   int width, int height,
+                                                                   MapLocation center, int radiusSquared,
+                                                                   TIntProcedure procedure) {
+        return RadiusOffsets.forEachIndex(origin.x, origin.y, width, height,
+                center.x, center.y, radiusSquared, procedure);
     }
 
     public MapLocation[] getSpawnLocations(Team team){
@@ -540,8 +636,19 @@ public strictfp class GameWorld {
     }
 
     private void updateFlagBroadcastLocation(Flag flag) {
-        MapLocation[] nearLocs = getAllLocationsWithinRadiusSquared(flag.getLoc(), GameConstants.FLAG_BROADCAST_NOISE_RADIUS);
-        flag.setBroadcastLoc(nearLocs[rand.nextInt(nearLocs.length)]);
+        int[] nearCount = new int[1];
+        forEachIndexWithinRadiusSquared(flag.getLoc(), GameConstants.FLAG_BROADCAST_NOISE_RADIUS, (idx) -> {
+            nearCount[0]++;
+            return true;
+        });
+        int[] chosen = { rand.nextInt(nearCount[0]) };
+        forEachIndexWithinRadiusSquared(flag.getLoc(), GameConstants.FLAG_BROADCAST_NOISE_RADIUS, (idx) -> {
+            if (chosen[0]-- == 0) {
+                flag.setBroadcastLoc(indexToLocation(idx));
+                return false;
+            }
+            return true;
+        });
     }
 
     public void setWinner(Team t, DominationFactor d) {
@@ -717,6 +824,7 @@ public strictfp class GameWorld {
     }
 
     private void moveFlagSetStartLoc(Flag flag, MapLocation location){
+        location = new MapLocation(location.x, location.y);
         if(flag.isPickedUp()) flag.getCarryingRobot().removeFlag();
         removeFlag(flag.getLoc(), flag);
         addFlag(location, flag);
@@ -737,7 +845,7 @@ public strictfp class GameWorld {
 
             for (Direction dir : Direction.allDirections()) {
                 if (dir != Direction.CENTER) {
-                    MapLocation newLoc = loc.add(dir);
+                    MapLocation newLoc = gameMap.getLocation(loc.x + dir.dx, loc.y + dir.dy);
 
                     if (gameMap.onTheMap(newLoc)) {
                         int newIdx = locationToIndex(newLoc);
@@ -757,6 +865,7 @@ public strictfp class GameWorld {
     public int createRobot(int ID, Team team) {
         InternalRobot robot = new InternalRobot(this, ID, team);
         objectInfo.createRobot(robot);
+        teamInfo.addRobotLevels(team, robot.getLevelSum(), robot.getMaxLevel());
         controlProvider.robotSpawned(robot);
         return ID;
     }
@@ -786,6 +895,7 @@ public strictfp class GameWorld {
         removeRobot(robot.getLocation());
 
         controlProvider.robotKilled(robot);
+        teamInfo.removeRobotLevels(robot.getTeam(), robot.getLevelSum(), robot.getMaxLevel());
         objectInfo.destroyRobot(id);
 
         matchMaker.addDied(id);
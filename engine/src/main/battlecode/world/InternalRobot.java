@@ -13,6 +13,12 @@ import java.util.ArrayList;
  */
 public strictfp class InternalRobot implements Comparable<InternalRobot> {
 
+    /**
+     * The highest level any skill can reach, from SkillType's experience
+     * tables.
+     */
+    static final int MAX_LEVEL = maxSkillLevel();
+
     private final RobotControllerImpl controller;
     protected final GameWorld gameWorld;
 
@@ -128,14 +134,36 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
         return 0;
     }
 
+    /**
+     * @return the sum of the robot's skill levels
+     */
+    public int getLevelSum() {
+        return getLevel(SkillType.BUILD) + getLevel(SkillType.HEAL) + getLevel(SkillType.ATTACK);
+    }
+
+    /**
+     * @return the robot's highest skill level
+     */
+    public int getMaxLevel() {
+        return Math.max(getLevel(SkillType.BUILD), Math.max(getLevel(SkillType.HEAL), getLevel(SkillType.ATTACK)));
+    }
+
+    private static int maxSkillLevel() {
+        int maxLevel = 0;
+        for (SkillType skill : SkillType.values()) {
+            maxLevel = Math.max(maxLevel, skill.getLevel(Integer.MAX_VALUE));
+        }
+        return maxLevel;
+    }
+
     public int getLevel(SkillType skill) {
         int exp = this.getExp(skill);
-        for (int i = 0; i <= 5; i++) {
+        for (int i = 0; i < MAX_LEVEL; i++) {
             if (exp < skill.getExperience(i + 1)) {
                 return i;
             }
         }
-        return 6;
+        return MAX_LEVEL;
     }
 
     public int getResource() {
@@ -277,7 +305,6 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
      */
     public void setLocation(MapLocation loc) {
         this.gameWorld.moveRobot(getLocation(), loc);
-        this.gameWorld.getObjectInfo().moveRobot(this, loc);
         if (flag != null)
             flag.setLoc(loc);
         this.location = loc;
@@ -342,6 +369,8 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
             return;
         int attackLevel = getLevel(SkillType.ATTACK), buildLevel = getLevel(SkillType.BUILD),
                 healLevel = getLevel(SkillType.HEAL);
+        int levelSum = attackLevel + buildLevel + healLevel;
+        int maxLevel = Math.max(attackLevel, Math.max(buildLevel, healLevel));
         if (attackLevel >= buildLevel && attackLevel >= healLevel) {
             this.attackExp += SkillType.ATTACK.getPenalty(attackLevel);
             this.attackExp = Math.max(0, this.attackExp);
@@ -352,12 +381,14 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
             this.healExp += SkillType.HEAL.getPenalty(healLevel);
             this.healExp = Math.max(0, this.healExp);
         }
+        updateTeamLevels(levelSum, maxLevel);
     }
 
     /**
      * increment exp for a robot
      */
     public void incrementSkill(SkillType skill) {
+        int levelSum = getLevelSum(), maxLevel = getMaxLevel();
         if (skill == SkillType.BUILD)
             if (this.buildExp < skill.getExperience(3)
                     || (getLevel(SkillType.HEAL) < 4 && getLevel(SkillType.ATTACK) < 4)) {
@@ -373,6 +404,20 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
                     || (getLevel(SkillType.BUILD) < 4 && getLevel(SkillType.HEAL) < 4)) {
                 this.attackExp++;
             }
+        updateTeamLevels(levelSum, maxLevel);
+    }
+
+    /**
+     * Move the robot in its team's level totals, after its experience has
+     * changed.
+     */
+    private void updateTeamLevels(int oldLevelSum, int oldMaxLevel) {
+        int levelSum = getLevelSum(), maxLevel = getMaxLevel();
+        if (levelSum != oldLevelSum || maxLevel != oldMaxLevel) {
+            TeamInfo teamInfo = this.gameWorld.getTeamInfo();
+            teamInfo.removeRobotLevels(this.team, oldLevelSum, oldMaxLevel);
+            teamInfo.addRobotLevels(this.team, levelSum, maxLevel);
+        }
     }
 
     // *********************************
@@ -386,7 +431,7 @@ public strictfp class InternalRobot implements Comparable<InternalRobot> {
      */
     public void spawn(MapLocation loc) {
         this.spawned = true;
-        this.location = loc;
+        this.location = this.gameWorld.getGameMap().getLocation(loc.x, loc.y);
         this.roundsAlive = 0;
         this.health = GameConstants.DEFAULT_HEALTH;
         // this.actionCooldownTurns = GameConstants.COOLDOWN_LIMIT;
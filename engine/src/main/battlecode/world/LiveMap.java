@@ -75,6 +75,13 @@ public strictfp class LiveMap {
      */
     private final String mapName;
 
+    /**
+     * Every location on the map, indexed by locationToIndex, so that the
+     * engine can hand out the same instance for a tile every time rather
+     * than allocating a new one.
+     */
+    private final MapLocation[] locations;
+
 
     
 
@@ -99,6 +106,7 @@ public strictfp class LiveMap {
         this.spawnZoneArray = new int[numSquares];
         this.breadArray = new int[numSquares];
         this.damArray = new boolean[numSquares];
+        this.locations = createLocations();
 
         // invariant: bodies is sorted by id
       //  Arrays.sort(this.initialBodies, (a, b) -> Integer.compare(a.getID(), b.getID()));
@@ -145,6 +153,7 @@ public strictfp class LiveMap {
         for (int i = 0; i < spawnZoneArray.length; i++){
             this.spawnZoneArray[i] = spawnZoneArray[i];
         }
+        this.locations = createLocations();
         // invariant: bodies is sorted by id
       //  Arrays.sort(this.initialBodies, (a, b) -> Integer.compare(a.getID(), b.getID()));
     }
@@ -159,6 +168,17 @@ public strictfp class LiveMap {
          gm.wallArray, gm.waterArray, gm.damArray, gm.breadArray, gm.spawnZoneArray);
     }
 
+    /**
+     * Creates a deep copy of the input LiveMap with a different random seed.
+     *
+     * @param gm the LiveMap to copy.
+     * @param seed the seed of the copy.
+     */
+    public LiveMap(LiveMap gm, int seed) {
+        this(gm.width, gm.height, gm.origin, seed, gm.rounds, gm.mapName, gm.symmetry,
+         gm.wallArray, gm.waterArray, gm.damArray, gm.breadArray, gm.spawnZoneArray);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof LiveMap)) return false;
@@ -380,10 +400,36 @@ public strictfp class LiveMap {
      * @param idx the index
      */
     public MapLocation indexToLocation(int idx) {
+        if (idx >= 0 && idx < locations.length) {
+            return locations[idx];
+        }
         return new MapLocation(idx % getWidth() + getOrigin().x,
                                idx / getWidth() + getOrigin().y);
     }
 
+    /**
+     * Returns the location with the given coordinates; the same instance
+     * every time, if it's on the map.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the location
+     */
+    public MapLocation getLocation(int x, int y) {
+        if (onTheMap(x, y)) {
+            return locations[x - origin.x + (y - origin.y) * width];
+        }
+        return new MapLocation(x, y);
+    }
+
+    private MapLocation[] createLocations() {
+        MapLocation[] locations = new MapLocation[width * height];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = new MapLocation(i % width + origin.x, i / width + origin.y);
+        }
+        return locations;
+    }
+
     public void assertIsValid() throws Exception{
         if (this.width > GameConstants.MAP_MAX_WIDTH) {
             throw new RuntimeException("MAP WIDTH EXCEEDS GameConstants.MAP_MAX_WIDTH");
@@ -397,25 +443,21 @@ public strictfp class LiveMap {
         if (this.height < GameConstants.MAP_MIN_HEIGHT) {
             throw new RuntimeException("MAP HEIGHT BENEATH GameConstants.MAP_MIN_HEIGHT");
         }
-        for (int i = 0; i < this.width*this.height; i++){
-            if(this.wallArray[i]) {
-                if (this.waterArray[i]) {
-                    throw new RuntimeException("Walls can't be on the same square as water.");
-                }
-                if(this.spawnZoneArray[i] != 0) {
-                    throw new RuntimeException("Walls can't be on the same square as spawn zones.");
-                } 
-            }
-            if(this.damArray[i]) {
-                if(this.spawnZoneArray[i] != 0) {
-                    throw new RuntimeException("Dams can't be on the same square as spawn zones.");
-                }
-            }
-            if(this.waterArray[i]) {
-                if(this.spawnZoneArray[i] != 0) {
-                    throw new RuntimeException("Water can't be on the same square as spawn zones.");
-                }
-            }
+        Bitboard walls = Bitboard.of(this.wallArray, this.width, this.height);
+        Bitboard water = Bitboard.of(this.waterArray, this.width, this.height);
+        Bitboard dams = Bitboard.of(this.damArray, this.width, this.height);
+        Bitboard spawnZones = Bitboard.of(this.spawnZoneArray, this.width, this.height);
+        if (walls.intersects(water)) {
+            throw new RuntimeException("Walls can't be on the same square as water.");
+        }
+        if (walls.intersects(spawnZones)) {
+            throw new RuntimeException("Walls can't be on the same square as spawn zones.");
+        }
+        if (dams.intersects(spawnZones)) {
+            throw new RuntimeException("Dams can't be on the same square as spawn zones.");
+        }
+        if (water.intersects(spawnZones)) {
+            throw new RuntimeException("Water can't be on the same square as spawn zones.");
         }
         assertSpawnZoneDistances();
         assertSpawnZonesAreValid();
@@ -10,10 +10,6 @@ import gnu.trove.procedure.TIntObjectProcedure;
 import gnu.trove.procedure.TIntProcedure;
 
 import gnu.trove.procedure.TObjectProcedure;
-import net.sf.jsi.SpatialIndex;
-import net.sf.jsi.rtree.RTree;
-import net.sf.jsi.Rectangle;
-import net.sf.jsi.Point;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -24,15 +20,36 @@ import java.util.Map;
 /**
  * This class is used to hold information about the robots
  * in the game world.
+ *
+ * It also indexes where the robots on the map are: for every team, a bit
+ * per tile that's set if one of the team's robots is on it, and a count of
+ * the team's robots in every CHUNK_SIZE by CHUNK_SIZE chunk of the map, so
+ * that queries can skip chunks the team has no robots in.
  */
 public strictfp class ObjectInfo {
+    /**
+     * The log2 of the width and height of a chunk.
+     */
+    private static final int CHUNK_SHIFT = 2;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
     private final int mapWidth;
     private final int mapHeight;
     private final MapLocation mapTopLeft;
 
     private final TIntObjectHashMap<InternalRobot> gameRobotsByID;
 
-    private SpatialIndex robotIndex;
+    /**
+     * For every team, a bit per location index, set if one of the team's
+     * robots is there.
+     */
+    private final long[][] robotIndex;
+
+    /**
+     * For every team, the number of its robots in each chunk.
+     */
+    private final int[][] chunkRobotCounts;
+    private final int chunksWide;
 
     private final TIntArrayList dynamicBodyExecOrder;
 
@@ -47,12 +64,14 @@ public strictfp class ObjectInfo {
 
         this.gameRobotsByID = new TIntObjectHashMap<>();
 
-        robotIndex = new RTree();
+        int numTeams = Team.values().length;
+        this.chunksWide = (mapWidth + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
+        int chunksHigh = (mapHeight + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
+        this.robotIndex = new long[numTeams][(mapWidth * mapHeight + 63) >> 6];
+        this.chunkRobotCounts = new int[numTeams][chunksWide * chunksHigh];
 
         dynamicBodyExecOrder = new TIntArrayList();
 
-        robotIndex.init(null);
-
         // robotTypeCount.put(Team.A, new EnumMap<>(
         //         RobotType.class));
         // robotTypeCount.put(Team.B, new EnumMap<>(
@@ -131,19 +150,112 @@ public strictfp class ObjectInfo {
         return gameRobotsByID.get(id);
     }
 
-    public void moveRobot(InternalRobot robot, MapLocation newLocation) {
-        MapLocation loc = robot.getLocation();
+    /**
+     * Record that a robot is now at a location.
+     *
+     * @param robot the robot
+     * @param index the index of the location
+     */
+    public void addRobotIndex(InternalRobot robot, int index) {
+        int team = robot.getTeam().ordinal();
+        robotIndex[team][index >> 6] |= 1L << index;
+        chunkRobotCounts[team][chunkOf(index)]++;
+    }
+
+    /**
+     * Record that a robot is no longer at a location.
+     *
+     * @param robot the robot
+     * @param index the index of the location
+     */
+    public void clearRobotIndex(InternalRobot robot, int index) {
+        int team = robot.getTeam().ordinal();
+        robotIndex[team][index >> 6] &= ~(1L << index);
+        chunkRobotCounts[team][chunkOf(index)]--;
+    }
+
+    /**
+     * Apply an operation to the index of every location within a radius of
+     * a center that has a robot of a team on it, by x, then by y. Return
+     * false to stop iterating.
+     *
+     * @param center the center
+     * @param radiusSquared the radius
+     * @param team the team, or null for robots of any team
+     * @param op a lambda (index) -> boolean
+     * @return false if the operation stopped early
+     */
+    public boolean eachRobotIndexWithinRadiusSquared(MapLocation center, int radiusSquared, Team team,
+                                                      TIntProcedure op) {
+        if (radiusSquared < 0) {
+            return true;
+        }
+        int cx = center.x - mapTopLeft.x;
+        int cy = center.y - mapTopLeft.y;
+        int radius = (int) Math.sqrt(radiusSquared);
+        int minX = Math.max(cx - radius, 0);
+        int maxX = Math.min(cx + radius, mapWidth - 1);
+        int minY = Math.max(cy - radius, 0);
+        int maxY = Math.min(cy + radius, mapHeight - 1);
+        if (minX > maxX || minY > maxY) {
+            return true;
+        }
+
+        for (int x = minX; x <= maxX; x++) {
+            long dx = x - cx;
+            int chunkX = x >> CHUNK_SHIFT;
+            for (int chunkY = minY >> CHUNK_SHIFT; chunkY <= maxY >> CHUNK_SHIFT; chunkY++) {
+                if (!hasRobots(team, chunkX + chunkY * chunksWide)) {
+                    continue;
+                }
+                int endY = Math.min((chunkY + 1) << CHUNK_SHIFT, maxY + 1);
+                for (int y = Math.max(chunkY << CHUNK_SHIFT, minY); y < endY; y++) {
+                    long dy = y - cy;
+                    int index = x + y * mapWidth;
+                    if (dx * dx + dy * dy <= radiusSquared && hasRobot(team, index) && !op.execute(index)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param team a team
+     * @param index the index of a location
+     * @return the number of the team's robots in the chunk the location is in
+     */
+    int getChunkRobotCount(Team team, int index) {
+        return chunkRobotCounts[team.ordinal()][chunkOf(index)];
+    }
 
-        robotIndex.delete(fromPoint(loc),robot.getID());
-        robotIndex.add(fromPoint(newLocation),robot.getID());
+    private int chunkOf(int index) {
+        return ((index % mapWidth) >> CHUNK_SHIFT) + ((index / mapWidth) >> CHUNK_SHIFT) * chunksWide;
     }
 
-    public void clearRobotIndex(InternalRobot robot) {
-        robotIndex.delete(fromPoint(robot.getLocation()), robot.getID());
+    private boolean hasRobots(Team team, int chunk) {
+        if (team != null) {
+            return chunkRobotCounts[team.ordinal()][chunk] != 0;
+        }
+        for (int[] counts : chunkRobotCounts) {
+            if (counts[chunk] != 0) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    public void addRobotIndex(InternalRobot robot, MapLocation newLocation) {
-        robotIndex.add(fromPoint(newLocation),robot.getID());
+    private boolean hasRobot(Team team, int index) {
+        if (team != null) {
+            return (robotIndex[team.ordinal()][index >> 6] & (1L << index)) != 0;
+        }
+        for (long[] bits : robotIndex) {
+            if ((bits[index >> 6] & (1L << index)) != 0) {
+                return true;
+            }
+        }
+        return false;
     }
 
     // ****************************
@@ -182,27 +294,8 @@ public strictfp class ObjectInfo {
         decrementRobotCount(robot.getTeam());
         //decrementRobotTypeCount(robot.getTeam(), robot.getType());
 
-        MapLocation loc = robot.getLocation();
         gameRobotsByID.remove(id);
         dynamicBodyExecOrder.remove(id);
-        if (loc != null)
-        robotIndex.delete(fromPoint(loc),id);
-    }
-    
-    // ****************************
-    // *** PLAYER METHODS *********
-    // ****************************
-
-    private Rectangle fromPoint(float x, float y) {
-        return new Rectangle(x,y,x,y);
-    }
-
-    private Rectangle fromPoint(Point p) {
-        return new Rectangle(p.x,p.y,p.x,p.y);
-    }
-
-    private Rectangle fromPoint(MapLocation loc) {
-        return new Rectangle(loc.x,loc.y,loc.x,loc.y);
     }
 
     // ****************************
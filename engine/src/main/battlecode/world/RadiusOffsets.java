@@ -0,0 +1,110 @@
+package battlecode.world;
+
+import gnu.trove.procedure.TIntProcedure;
+
+import java.util.Arrays;
+
+/**
+ * Visits the locations within a radius of a center without allocating
+ * anything, using a table of offsets for every radius the game uses.
+ *
+ * Locations are visited by x, then by y, which is the order
+ * GameWorld.getAllLocationsWithinRadiusSquared has always returned them in;
+ * game logic that picks from them at random depends on it.
+ */
+final class RadiusOffsets {
+
+    /**
+     * Radii up to this one have a table. It covers every radius the game
+     * uses (the largest is the flag broadcast noise radius); bigger ones
+     * scan the whole map.
+     */
+    private static final int MAX_TABLE_RADIUS_SQUARED = 100;
+
+    /**
+     * For every radius, the offsets within it, with dx in the high half of
+     * each int and dy in the low half.
+     */
+    private static final int[][] TABLES = new int[MAX_TABLE_RADIUS_SQUARED + 1][];
+
+    static {
+        for (int radiusSquared = 0; radiusSquared <= MAX_TABLE_RADIUS_SQUARED; radiusSquared++) {
+            final int radius = (int) Math.sqrt(radiusSquared);
+            final int[] offsets = new int[(2 * radius + 1) * (2 * radius + 1)];
+            int count = 0;
+            for (int dx = -radius; dx <= radius; dx++) {
+                for (int dy = -radius; dy <= radius; dy++) {
+                    if (dx * dx + dy * dy <= radiusSquared) {
+                        offsets[count++] = (dx << 16) | (dy & 0xFFFF);
+                    }
+                }
+            }
+            TABLES[radiusSquared] = Arrays.copyOf(offsets, count);
+        }
+    }
+
+    private RadiusOffsets() {}
+
+    /**
+     * @param radiusSquared a radius
+     * @param width         the width of the map
+     * @param height        the height of the map
+     * @return the most locations on the map that can be within the radius
+     *         of any center
+     */
+    static int maxCount(int radiusSquared, int width, int height) {
+        if (radiusSquared < 0) {
+            return 0;
+        }
+        if (radiusSquared <= MAX_TABLE_RADIUS_SQUARED) {
+            return Math.min(TABLES[radiusSquared].length, width * height);
+        }
+        return width * height;
+    }
+
+    /**
+     * Call a procedure with the index of every location on a map within a
+     * radius of a center.
+     *
+     * @param originX       the x coordinate of the map's origin
+     * @param originY       the y coordinate of the map's origin
+     * @param width         the width of the map
+     * @param height        the height of the map
+     * @param centerX       the x coordinate of the center
+     * @param centerY       the y coordinate of the center
+     * @param radiusSquared the radius
+     * @param procedure     called with each index; returns false to stop
+     * @return false if the procedure stopped early
+     */
+    static boolean forEachIndex(int originX, int originY, int width, int height,
+                                int centerX, int centerY, int radiusSquared,
+                                TIntProcedure procedure) {
+        if (radiusSquared < 0) {
+            return true;
+        }
+
+        final int x0 = centerX - originX;
+        final int y0 = centerY - originY;
+        if (radiusSquared <= MAX_TABLE_RADIUS_SQUARED) {
+            for (int offset : TABLES[radiusSquared]) {
+                final int x = x0 + (offset >> 16);
+                final int y = y0 + (short) offset;
+                if (x >= 0 && x < width && y >= 0 && y < height && !procedure.execute(x + y * width)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        for (int x = 0; x < width; x++) {
+            final long dx = x - x0;
+            for (int y = 0; y < height; y++) {
+                final long dy = y - y0;
+                if (dx * dx + dy * dy <= radiusSquared && !procedure.execute(x + y * width)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -7,7 +7,6 @@ import battlecode.schema.Action;
 import battlecode.util.FlatHelpers;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * The actual implementation of RobotController. Its methods *must* be called
@@ -72,7 +71,7 @@ public final strictfp class RobotControllerImpl implements RobotController {
         return this.gameWorld.locationToIndex(loc);
     }
 
-    private MapInfo getMapInfo(MapLocation loc) throws GameActionException {
+    private MapInfo getMapInfo(MapLocation loc) {
         GameWorld gw = this.gameWorld;
 
         Trap trap = gw.getTrap(loc);
@@ -279,9 +278,11 @@ public final strictfp class RobotControllerImpl implements RobotController {
         int actualRadiusSquared = radiusSquared == -1 ? GameConstants.VISION_RADIUS_SQUARED : Math.min(radiusSquared, GameConstants.VISION_RADIUS_SQUARED);
 
         ArrayList<MapLocation> breadLocs = new ArrayList<>();
-        for(MapLocation loc : getAllLocationsWithinRadiusSquared(getLocation(), actualRadiusSquared)) {
-            if(gameWorld.getBreadAmount(loc) != 0) breadLocs.add(loc);
-        }
+        gameWorld.forEachBreadIndexWithinRadiusSquared(getLocation(), actualRadiusSquared, (idx) -> {
+            MapLocation loc = gameWorld.indexToLocation(idx);
+            if (canSenseLocation(loc)) breadLocs.add(loc);
+            return true;
+        });
         return breadLocs.toArray(new MapLocation[breadLocs.size()]);
     }
 
@@ -369,22 +370,22 @@ public final strictfp class RobotControllerImpl implements RobotController {
         assertIsSpawned();
         assertRadiusNonNegative(radiusSquared);
         int actualRadiusSquared = radiusSquared == -1 ? GameConstants.VISION_RADIUS_SQUARED : Math.min(radiusSquared, GameConstants.VISION_RADIUS_SQUARED);
-        MapLocation[] allSensedLocs = gameWorld.getAllLocationsWithinRadiusSquared(center, actualRadiusSquared);
         List<MapInfo> validSensedMapInfo = new ArrayList<>();
-        for (MapLocation mapLoc : allSensedLocs) {
+        gameWorld.forEachIndexWithinRadiusSquared(center, actualRadiusSquared, (idx) -> {
+            MapLocation mapLoc = gameWorld.indexToLocation(idx);
             // Can't actually sense location
-            if (!canSenseLocation(mapLoc)) {
-                continue;
+            if (canSenseLocation(mapLoc)) {
+                validSensedMapInfo.add(getMapInfo(mapLoc));
             }
-            MapInfo mapInfo = getMapInfo(mapLoc);
-            validSensedMapInfo.add(mapInfo);
-        }
+            return true;
+        });
         return validSensedMapInfo.toArray(new MapInfo[validSensedMapInfo.size()]);
     }
 
     @Override
     public MapLocation adjacentLocation(Direction dir) {
-        return getLocation().add(dir);
+        MapLocation loc = getLocation();
+        return this.gameWorld.getGameMap().getLocation(loc.x + dir.dx, loc.y + dir.dy);
     }
 
     @Override
@@ -392,8 +393,12 @@ public final strictfp class RobotControllerImpl implements RobotController {
         assertNotNull(center);
         assertRadiusNonNegative(radiusSquared);
         int actualRadiusSquared = radiusSquared == -1 ? GameConstants.VISION_RADIUS_SQUARED : Math.min(radiusSquared, GameConstants.VISION_RADIUS_SQUARED);
-        MapLocation[] possibleLocs = this.gameWorld.getAllLocationsWithinRadiusSquared(center, actualRadiusSquared);
-        List<MapLocation> visibleLocs = Arrays.asList(possibleLocs).stream().filter(x -> canSenseLocation(x)).collect(Collectors.toList());
+        List<MapLocation> visibleLocs = new ArrayList<>();
+        this.gameWorld.forEachIndexWithinRadiusSquared(center, actualRadiusSquared, (idx) -> {
+            MapLocation loc = this.gameWorld.indexToLocation(idx);
+            if (canSenseLocation(loc)) visibleLocs.add(loc);
+            return true;
+        });
         return visibleLocs.toArray(new MapLocation[visibleLocs.size()]);
     }
 
@@ -569,7 +574,6 @@ public final strictfp class RobotControllerImpl implements RobotController {
     public void spawn(MapLocation loc) throws GameActionException {
         assertCanSpawn(loc);
         this.gameWorld.addRobot(loc, robot);
-        this.gameWorld.getObjectInfo().addRobotIndex(robot, loc);
         this.robot.spawn(loc);
         this.gameWorld.getMatchMaker().addSpawned(this.robot.getID(), this.robot.getTeam(), this.robot.getLocation());
     }
@@ -3,7 +3,6 @@ package battlecode.world;
 import battlecode.common.GameConstants;
 import battlecode.common.GlobalUpgrade;
 import battlecode.common.MapLocation;
-import battlecode.common.SkillType;
 import battlecode.common.Team;
 import java.util.*;
 import static battlecode.common.GameActionExceptionType.*;
@@ -24,6 +23,11 @@ public class TeamInfo {
     private boolean[][] globalUpgrades;
     private int[] globalUpgradePoints;
 
+    // Totals over every robot of the team, kept up to date as robots gain
+    // and lose experience
+    private int[] levelSums;
+    private int[][] maxLevelCounts; // robots by their highest skill level
+
     /**
      * Create a new representation of TeamInfo
      *
@@ -38,6 +42,8 @@ public class TeamInfo {
         this.globalUpgrades = new boolean[2][GlobalUpgrade.values().length];
         this.globalUpgradePoints = new int[2];
         this.totalFlagsPickedUp = new int[2];
+        this.levelSums = new int[2];
+        this.maxLevelCounts = new int[2][InternalRobot.MAX_LEVEL + 1];
     }
     
     // *********************************
@@ -192,18 +198,11 @@ public class TeamInfo {
      * @return number of level 3 units
      */
     public int getTierThree(Team team){
-        ArrayList<InternalRobot> robots = new ArrayList<InternalRobot>();
-        SkillType[] skills = {SkillType.HEAL, SkillType.ATTACK, SkillType.BUILD};
-        gameWorld.getObjectInfo().eachRobot((robot)->{
-            for (SkillType s: skills){
-                if (robot.getLevel(s) >= 3){
-                    robots.add(robot);
-                    return true;
-                }
-            }
-            return true;
-        });
-        return robots.size();
+        int count = 0;
+        for (int level = 3; level <= InternalRobot.MAX_LEVEL; level++) {
+            count += this.maxLevelCounts[team.ordinal()][level];
+        }
+        return count;
     }
 
     /**
@@ -212,35 +211,33 @@ public class TeamInfo {
      * @return number of level 2 units
      */
     public int getTierTwo(Team team){
-        ArrayList<InternalRobot> robots = new ArrayList<InternalRobot>();
-        SkillType[] skills = {SkillType.HEAL, SkillType.ATTACK, SkillType.BUILD};
-        gameWorld.getObjectInfo().eachRobot((robot)->{
-            for (SkillType s: skills){
-                if (robot.getLevel(s) >= 3){
-                    return true;
-                }
-            }
-            for (SkillType s: skills){
-                if (robot.getLevel(s) == 2){
-                    robots.add(robot);
-                    return true;
-                }
-            }
-            return true;
-        });
-        return robots.size();
+        return this.maxLevelCounts[team.ordinal()][2];
     }
 
     public int getLevelSum(Team team) {
-        SkillType[] skills = {SkillType.HEAL, SkillType.ATTACK, SkillType.BUILD};
-        int sum = 0;
-        for(InternalRobot robot : gameWorld.getObjectInfo().robots()){
-            if(robot.getTeam() != team) continue;
-            for(SkillType s : skills) {
-                sum += robot.getLevel(s);
-            }
-        }
-        return sum;
+        return this.levelSums[team.ordinal()];
+    }
+
+    /**
+     * Count a robot in its team's level totals.
+     * @param team the robot's team
+     * @param levelSum the sum of the robot's skill levels
+     * @param maxLevel the robot's highest skill level
+     */
+    public void addRobotLevels(Team team, int levelSum, int maxLevel) {
+        this.levelSums[team.ordinal()] += levelSum;
+        this.maxLevelCounts[team.ordinal()][maxLevel]++;
+    }
+
+    /**
+     * Stop counting a robot in its team's level totals.
+     * @param team the robot's team
+     * @param levelSum the sum of the robot's skill levels
+     * @param maxLevel the robot's highest skill level
+     */
+    public void removeRobotLevels(Team team, int levelSum, int maxLevel) {
+        this.levelSums[team.ordinal()] -= levelSum;
+        this.maxLevelCounts[team.ordinal()][maxLevel]--;
     }
 
     /**
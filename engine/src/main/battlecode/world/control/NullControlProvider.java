@@ -15,9 +15,15 @@ public class NullControlProvider implements RobotControlProvider {
     @Override
     public void matchEnded() {}
 
+    @Override
+    public void gameEnded() {}
+
     @Override
     public void robotSpawned(InternalRobot robot) {}
 
+    @Override
+    public void robotsSpawned() {}
+
     @Override
     public void robotKilled(InternalRobot robot) {}
 
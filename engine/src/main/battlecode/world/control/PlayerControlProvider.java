@@ -6,14 +6,31 @@ import battlecode.instrumenter.TeamClassLoaderFactory;
 import battlecode.instrumenter.SandboxedRobotPlayer;
 import battlecode.instrumenter.profiler.Profiler;
 import battlecode.instrumenter.profiler.ProfilerCollection;
+import battlecode.instrumenter.stream.LimitedPrintStream;
+import battlecode.server.Config;
 import battlecode.server.ErrorReporter;
+import battlecode.server.Server;
 import battlecode.world.GameWorld;
 import battlecode.world.InternalRobot;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
 
 /**
  * Controls robots with instrumented player code.
@@ -24,6 +41,13 @@ import java.util.Map;
  */
 public class PlayerControlProvider implements RobotControlProvider {
 
+    /**
+     * Constructs sandboxes in the background; shared by every provider the
+     * server creates. Null if sandboxes should be constructed on the
+     * calling thread.
+     */
+    private final ExecutorService setupPool;
+
     /**
      * Used to create ClassLoaders for this team.
      */
@@ -39,6 +63,30 @@ public class PlayerControlProvider implements RobotControlProvider {
      */
     private final Map<Integer, SandboxedRobotPlayer> sandboxes;
 
+    /**
+     * Sandboxes that are still being constructed, in the order their
+     * robots were spawned. They're moved into sandboxes before anything
+     * else touches them.
+     */
+    private final List<PendingSandbox> pendingSandboxes;
+
+    /**
+     * When the oldest pending sandbox was requested, in nanoseconds.
+     */
+    private long setupStartTime;
+
+    /**
+     * Sandboxes of robots killed during the current match, to be recycled
+     * when it ends. Only used when sandboxes are pooled.
+     */
+    private final List<SandboxedRobotPlayer> killedSandboxes;
+
+    /**
+     * Reset sandboxes waiting to be reused by newly spawned robots.
+     * Only used when sandboxes are pooled.
+     */
+    private final Deque<SandboxedRobotPlayer> idleSandboxes;
+
     /**
      * The GameWorld we're providing for.
      */
@@ -54,6 +102,11 @@ public class PlayerControlProvider implements RobotControlProvider {
      */
     private final OutputStream robotOut;
 
+    /**
+     * The output each team has left in the game.
+     */
+    private final LimitedPrintStream.Budget outputBudget;
+
     /**
      * The team this control provider controls.
      */
@@ -65,11 +118,30 @@ public class PlayerControlProvider implements RobotControlProvider {
      */
     private ProfilerCollection profilerCollection;
 
+    /**
+     * Where to stream profiles to, or null to put them in the replay.
+     */
+    private final Path profilerOutput;
+
+    /**
+     * The number of bytecodes between profiler samples, or 0 to record
+     * every method call.
+     */
+    private final int profilerSampleInterval;
+
     /**
      * The match id of the current match. Incremented by one every time a new match starts.
      */
     private int matchId = -1;
 
+    /**
+     * The factory's class definition counters, and the size of metaspace,
+     * when the current match started.
+     */
+    private int matchStartDefinedClasses;
+    private long matchStartDefinitionNanos;
+    private long matchStartMetaspace;
+
     /**
      * Create a new PlayerControlProvider.
      *
@@ -77,21 +149,39 @@ public class PlayerControlProvider implements RobotControlProvider {
      * @param teamPackage      the name / package of the team we're loading
      * @param teamURL          the url of the classes for the team;
      * @param robotOut         the output that robots should write to
+     * @param outputBudget     the output each team has left in the game
      * @param profilingEnabled whether profiling is enabled or not
+     * @param setupPool        the pool to construct sandboxes and
+     *                         preinstrument classes on, or null to do both
+     *                         on this thread
      */
     public PlayerControlProvider(Team team,
                                  String teamPackage,
                                  String teamURL,
                                  OutputStream robotOut,
-                                 boolean profilingEnabled) {
+                                 LimitedPrintStream.Budget outputBudget,
+                                 boolean profilingEnabled,
+                                 ExecutorService setupPool) {
         this.teamPackage = teamPackage;
+        this.setupPool = setupPool;
         this.sandboxes = new HashMap<>(); // GameWorld maintains order for us
+        this.pendingSandboxes = new ArrayList<>();
+        this.killedSandboxes = new ArrayList<>();
+        this.idleSandboxes = new ArrayDeque<>();
         this.factory = new TeamClassLoaderFactory(teamURL);
+        if (Config.getGlobalConfig().getBoolean("bc.engine.preinstrument")) {
+            this.factory.preinstrument(profilingEnabled, setupPool);
+        }
         this.robotOut = robotOut;
+        this.outputBudget = outputBudget;
         this.team = team;
 
+        final String profilerOutput = Config.getGlobalConfig().get("bc.engine.profiler-output");
+        this.profilerOutput = profilerOutput == null || profilerOutput.isEmpty() ? null : Paths.get(profilerOutput);
+        this.profilerSampleInterval = Config.getGlobalConfig().getInt("bc.engine.profiler-sample-interval");
+
         if (profilingEnabled) {
-            profilerCollection = new ProfilerCollection();
+            profilerCollection = new ProfilerCollection(this.profilerOutput, profilerSampleInterval);
         }
     }
 
@@ -99,13 +189,59 @@ public class PlayerControlProvider implements RobotControlProvider {
     public void matchStarted(GameWorld gameWorld) {
         this.gameWorld = gameWorld;
         matchId++;
+        matchStartDefinedClasses = factory.getDefinedClassCount();
+        matchStartDefinitionNanos = factory.getClassDefinitionNanos();
+        matchStartMetaspace = metaspaceUsed();
+    }
+
+    /**
+     * Write the streamed profile of the match that just ended to its own
+     * file, since it doesn't fit in the replay.
+     */
+    private void writeProfile() {
+        try {
+            Files.createDirectories(profilerOutput);
+            final String prefix = String.format("%s-%s-match%d-", teamPackage, team, matchId);
+            final Path out;
+            if (profilerCollection.isSampling()) {
+                out = Files.createTempFile(profilerOutput, prefix, ".folded");
+                profilerCollection.writeFolded(out);
+            } else {
+                out = Files.createTempFile(profilerOutput, prefix, ".speedscope.json");
+                try {
+                    profilerCollection.writeSpeedscope(out, String.format("%s (%s) match %d", teamPackage, team, matchId));
+                } catch (IOException e) {
+                    // Don't leave an empty or partial profile behind
+                    Files.deleteIfExists(out);
+                    throw e;
+                }
+            }
+            Server.say("Wrote profile of " + teamPackage + " to " + out);
+        } catch (IOException e) {
+            ErrorReporter.report(e, false);
+        }
+    }
+
+    /**
+     * @return the bytes of metaspace in use by the whole process, or 0 if
+     *         the JVM doesn't say
+     */
+    private static long metaspaceUsed() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getName().equals("Metaspace")) {
+                return pool.getUsage().getUsed();
+            }
+        }
+        return 0;
     }
 
     @Override
     public void matchEnded() {
-        if (profilerCollection != null) {
+        awaitSandboxes();
+
+        if (profilerCollection != null && !profilerCollection.isStreaming()) {
             gameWorld.setProfilerCollection(team, profilerCollection);
-            profilerCollection = new ProfilerCollection();
+            profilerCollection = new ProfilerCollection(null, profilerSampleInterval);
         }
 
         for (final SandboxedRobotPlayer player : this.sandboxes.values()) {
@@ -114,59 +250,200 @@ public class PlayerControlProvider implements RobotControlProvider {
            }
         }
 
+        if (profilerCollection != null && profilerCollection.isStreaming()) {
+            writeProfile();
+            profilerCollection = new ProfilerCollection(profilerOutput, profilerSampleInterval);
+        }
+
+        if (factory.isPooled()) {
+            for (final SandboxedRobotPlayer player : this.sandboxes.values()) {
+                if (player != null) {
+                    killedSandboxes.add(player);
+                }
+            }
+            int recycled = 0;
+            for (final SandboxedRobotPlayer player : killedSandboxes) {
+                if (!player.getTerminated()) {
+                    player.terminate();
+                }
+                if (!player.getTerminated()) {
+                    // shouldn't happen; leave it alone, as we would without pooling
+                    continue;
+                }
+                if (!factory.getError() && player.resetStatics()) {
+                    idleSandboxes.add(player);
+                    recycled++;
+                } else {
+                    player.retire();
+                }
+            }
+            Server.debug(String.format("%s: recycled %d of %d sandboxes",
+                    teamPackage, recycled, killedSandboxes.size()));
+            killedSandboxes.clear();
+        }
+
+        Server.debug(String.format("%s: defined %d classes in %.1f ms (%d team classes shared), " +
+                        "metaspace grew %.1f MB (both teams)",
+                teamPackage,
+                factory.getDefinedClassCount() - matchStartDefinedClasses,
+                (factory.getClassDefinitionNanos() - matchStartDefinitionNanos) / 1e6,
+                factory.getSharedClassCount(),
+                (metaspaceUsed() - matchStartMetaspace) / (1024.0 * 1024.0)));
+
         this.sandboxes.clear();
         this.gameWorld = null;
     }
 
+    @Override
+    public void gameEnded() {
+        for (final SandboxedRobotPlayer player : idleSandboxes) {
+            player.retire();
+        }
+        idleSandboxes.clear();
+    }
+
     @Override
     public void robotSpawned(InternalRobot robot) {
-        try {
-            Profiler profiler = null;
-            if (profilerCollection != null && robot.getTeam() == team) {
-                profiler = profilerCollection.createProfiler(robot.getID());
-            }
+        // Profilers are created here rather than on the setup pool, so that
+        // they stay in spawn order.
+        final Profiler profiler;
+        if (profilerCollection != null && robot.getTeam() == team) {
+            profiler = profilerCollection.createProfiler(robot.getID());
+        } else {
+            profiler = null;
+        }
 
-            final SandboxedRobotPlayer player = new SandboxedRobotPlayer(
+        final SandboxedRobotPlayer idle = idleSandboxes.pollFirst();
+        final Callable<SandboxedRobotPlayer> setup;
+        if (idle != null) {
+            setup = () -> {
+                idle.recycle(robot.getController(), robot.getID(), profiler);
+                return idle;
+            };
+        } else {
+            setup = () -> new SandboxedRobotPlayer(
                     teamPackage,
                     robot.getController(),
                     robot.getID(),
                     factory.createLoader(profiler != null),
                     robotOut,
+                    outputBudget,
                     profiler
             );
-            this.sandboxes.put(robot.getID(), player);
-        } catch (InstrumentationException e) {
+        }
+
+        if (setupPool == null) {
+            try {
+                this.sandboxes.put(robot.getID(), setup.call());
+            } catch (Exception e) {
+                sandboxFailed(robot, e);
+            }
+            return;
+        }
+
+        final FutureTask<SandboxedRobotPlayer> task = new FutureTask<>(setup);
+        if (pendingSandboxes.isEmpty()) {
+            setupStartTime = System.nanoTime();
+        }
+        pendingSandboxes.add(new PendingSandbox(robot, task));
+        setupPool.execute(task);
+    }
+
+    @Override
+    public void robotsSpawned() {
+        awaitSandboxes();
+    }
+
+    /**
+     * Report a sandbox that couldn't be constructed, and kill its robot.
+     */
+    private void sandboxFailed(InternalRobot robot, Exception e) {
+        if (e instanceof InstrumentationException) {
             ErrorReporter.report("Error while loading player "+ teamPackage +": "+e.getMessage(), false);
-            robot.die_exception();
-        } catch (RuntimeException e) {
+        } else {
             ErrorReporter.report(e, true);
-            robot.die_exception();
         }
+        robot.die_exception();
+    }
+
+    /**
+     * Wait for every pending sandbox to finish construction, and start
+     * tracking them. Robots whose sandboxes failed are killed, in the order
+     * they were spawned, so the result doesn't depend on which sandbox
+     * happened to finish first.
+     */
+    private void awaitSandboxes() {
+        if (pendingSandboxes.isEmpty()) {
+            return;
+        }
+
+        try {
+            for (PendingSandbox pending : pendingSandboxes) {
+                final InternalRobot robot = pending.robot;
+                try {
+                    this.sandboxes.put(robot.getID(), getUninterruptibly(pending.player));
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    sandboxFailed(robot, (Exception) e.getCause());
+                }
+            }
+
+            Server.debug(String.format("%s: set up %d sandboxes in %.4g seconds",
+                    teamPackage, pendingSandboxes.size(), (System.nanoTime() - setupStartTime) / 1.0e9));
+        } finally {
+            pendingSandboxes.clear();
+        }
+    }
 
+    private static <T> T getUninterruptibly(FutureTask<T> task) throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     @Override
     public void robotKilled(InternalRobot robot) {
+        awaitSandboxes();
+
         // Note that a robot may be killed even if it is not in Sandboxes, if
         // there was an error while loading it.
 
         final SandboxedRobotPlayer player = this.sandboxes.get(robot.getID());
 
         if (player != null) {
-            this.sandboxes.get(robot.getID()).terminate();
+            player.terminate();
+            if (factory.isPooled()) {
+                killedSandboxes.add(player);
+            }
         }
 
         this.sandboxes.put(robot.getID(), null);
     }
 
     @Override
-    public void roundStarted() {}
+    public void roundStarted() {
+        awaitSandboxes();
+    }
 
     @Override
     public void roundEnded() {}
 
     @Override
     public void runRobot(InternalRobot robot) {
+        awaitSandboxes();
         assert this.sandboxes.get(robot.getID()) != null;
 
         final SandboxedRobotPlayer player = this.sandboxes.get(robot.getID());
@@ -179,6 +456,7 @@ public class PlayerControlProvider implements RobotControlProvider {
 
     @Override
     public int getBytecodesUsed(InternalRobot robot) {
+        awaitSandboxes();
         assert this.sandboxes.containsKey(robot.getID());
 
         final SandboxedRobotPlayer player = this.sandboxes.get(robot.getID());
@@ -192,6 +470,7 @@ public class PlayerControlProvider implements RobotControlProvider {
 
     @Override
     public boolean getTerminated(InternalRobot robot) {
+        awaitSandboxes();
         assert this.sandboxes.containsKey(robot.getID());
 
         final SandboxedRobotPlayer player = this.sandboxes.get(robot.getID());
@@ -202,4 +481,17 @@ public class PlayerControlProvider implements RobotControlProvider {
             return true;
         }
     }
+
+    /**
+     * A robot whose sandbox may still be under construction.
+     */
+    private static final class PendingSandbox {
+        final InternalRobot robot;
+        final FutureTask<SandboxedRobotPlayer> player;
+
+        PendingSandbox(InternalRobot robot, FutureTask<SandboxedRobotPlayer> player) {
+            this.robot = robot;
+            this.player = player;
+        }
+    }
 }
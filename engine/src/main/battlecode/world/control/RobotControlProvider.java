@@ -31,6 +31,12 @@ public interface RobotControlProvider {
      */
     void matchEnded();
 
+    /**
+     * Tells the provider that the last match of the game has ended,
+     * so it can release anything it kept around between matches.
+     */
+    void gameEnded();
+
     /**
      * Signals to the provider that it should prepare to
      * process the next round.
@@ -50,6 +56,13 @@ public interface RobotControlProvider {
      */
     void robotSpawned(InternalRobot robot);
 
+    /**
+     * Signals to the provider that every robot of the match has been
+     * spawned, before the match header is written. Anything the provider
+     * did not finish in robotSpawned must be finished here.
+     */
+    void robotsSpawned();
+
     /**
      * Signals to the provider that the robot with the
      * given info has been killed, and it should stop processing it.
@@ -62,6 +62,13 @@ public final class TeamControlProvider implements RobotControlProvider {
         }
     }
 
+    @Override
+    public void gameEnded() {
+        for (RobotControlProvider provider : orderedProviders) {
+            provider.gameEnded();
+        }
+    }
+
     @Override
     public void robotSpawned(InternalRobot robot) {
         Team team = robot.getTeam();
@@ -70,6 +77,13 @@ public final class TeamControlProvider implements RobotControlProvider {
         teamProviderMap.get(team).robotSpawned(robot);
     }
 
+    @Override
+    public void robotsSpawned() {
+        for (RobotControlProvider provider : orderedProviders) {
+            provider.robotsSpawned();
+        }
+    }
+
     @Override
     public void robotKilled(InternalRobot robot) {
         Team team = robot.getTeam();
@@ -0,0 +1,138 @@
+package battlecode.world.control;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * Loads a trusted team's classes (bc.engine.trusted-mode).
+ *
+ * The classes aren't instrumented, but their calls to Clock and their reads
+ * of System.out and System.err are pointed at TrustedTurn, so that they
+ * apply to the robot whose turn it is. Every other class comes from the
+ * engine's loader, as usual.
+ */
+class TrustedClassLoader extends URLClassLoader {
+
+    private static final String CLOCK = "battlecode/common/Clock";
+    private static final String SYSTEM = "java/lang/System";
+    private static final String TRUSTED_TURN = "battlecode/world/control/TrustedTurn";
+
+    /**
+     * The prefix of the team's class names, for teams on the engine's
+     * classpath.
+     */
+    private final String teamPrefix;
+
+    /**
+     * @param teamPackage the team's package
+     * @param teamURL     the location of the team's classes, or null if
+     *                    they're on the engine's classpath
+     * @param parent      the engine's loader
+     */
+    TrustedClassLoader(String teamPackage, URL teamURL, ClassLoader parent) {
+        super(teamURL == null ? new URL[0] : new URL[] { teamURL }, parent);
+        this.teamPrefix = teamPackage + ".";
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> cls = findLoadedClass(name);
+            if (cls == null) {
+                final URL classFile = findTeamClass(name);
+                if (classFile == null) {
+                    return super.loadClass(name, resolve);
+                }
+                final byte[] bytes = redirect(name, classFile);
+                cls = defineClass(name, bytes, 0, bytes.length);
+            }
+            if (resolve) {
+                resolveClass(cls);
+            }
+            return cls;
+        }
+    }
+
+    /**
+     * @param name the binary name of a class
+     * @return the team's class file for it, or null if it isn't the team's
+     */
+    private URL findTeamClass(String name) {
+        if (name.startsWith("java.") || name.startsWith("battlecode.")) {
+            return null;
+        }
+        final String path = name.replace('.', '/') + ".class";
+        if (getURLs().length > 0) {
+            return findResource(path);
+        }
+        return name.startsWith(teamPrefix) ? getParent().getResource(path) : null;
+    }
+
+    /**
+     * @param name      the binary name of a class
+     * @param classFile its class file
+     * @return the class, with its uses of Clock and System.out redirected
+     * @throws ClassNotFoundException if the class file can't be read
+     */
+    private static byte[] redirect(String name, URL classFile) throws ClassNotFoundException {
+        final ClassReader cr;
+        try (InputStream in = classFile.openStream()) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            cr = new ClassReader(bytes.toByteArray());
+        } catch (IOException | IllegalArgumentException e) {
+            throw new ClassNotFoundException("Can't read " + name, e);
+        }
+
+        // The replacements leave the stack as it was, so there are no
+        // frames or maximums to recompute.
+        final ClassWriter cw = new ClassWriter(cr, 0);
+        cr.accept(new ClassVisitor(Opcodes.ASM5, cw) {
+            @Override
+            public MethodVisitor visitMethod(int access, String methodName, String desc,
+                                             String signature, String[] exceptions) {
+                return new RedirectingMethodVisitor(
+                        super.visitMethod(access, methodName, desc, signature, exceptions));
+            }
+        }, 0);
+        return cw.toByteArray();
+    }
+
+    private static final class RedirectingMethodVisitor extends MethodVisitor {
+
+        RedirectingMethodVisitor(MethodVisitor mv) {
+            super(Opcodes.ASM5, mv);
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+            if (opcode == Opcodes.GETSTATIC && owner.equals(SYSTEM)
+                    && (name.equals("out") || name.equals("err"))) {
+                super.visitMethodInsn(Opcodes.INVOKESTATIC, TRUSTED_TURN, "out", "()" + desc, false);
+            } else {
+                super.visitFieldInsn(opcode, owner, name, desc);
+            }
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+            if (opcode == Opcodes.INVOKESTATIC && owner.equals(CLOCK)) {
+                owner = TRUSTED_TURN;
+            }
+            super.visitMethodInsn(opcode, owner, name, desc, itf);
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package battlecode.world.control;
+
+import battlecode.common.Team;
+import battlecode.instrumenter.stream.LimitedPrintStream;
+import battlecode.instrumenter.stream.RoboPrintStream;
+import battlecode.instrumenter.stream.SilencedPrintStream;
+import battlecode.server.Config;
+import battlecode.server.ErrorReporter;
+import battlecode.world.GameWorld;
+import battlecode.world.InternalRobot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Controls robots with uninstrumented player code, for trusted teams only
+ * (bc.engine.trusted-mode); the code runs with the engine's privileges.
+ *
+ * The team is loaded once, by a TrustedClassLoader, and every robot gets
+ * its own instance of the team's RobotPlayer, which must implement
+ * TurnPlayer. Turns are taken directly on the engine thread; the instance
+ * is created in the robot's first turn.
+ *
+ * Instead of counting bytecodes, each turn is timed, and the time is
+ * converted into bytecodes at bc.engine.trusted-nanos-per-bytecode. A robot
+ * that goes over its limit pays for it by skipping turns, much as an
+ * instrumented robot that goes over finishes its turn in the next round.
+ * Timing makes matches nondeterministic, which is the price of speed.
+ */
+public class TrustedControlProvider implements RobotControlProvider {
+
+    /**
+     * The class every team's player has to be called.
+     */
+    private static final String PLAYER_CLASS_NAME = "RobotPlayer";
+
+    /**
+     * The team we're controlling.
+     */
+    private final Team team;
+
+    /**
+     * The name of the team (package) we're processing.
+     */
+    private final String teamPackage;
+
+    /**
+     * The location of the team's classes.
+     */
+    private final String teamURL;
+
+    /**
+     * How many nanoseconds of running time count as one bytecode.
+     */
+    private final double nanosPerBytecode;
+
+    /**
+     * The output robots should write to (besides System.out).
+     */
+    private final OutputStream robotOut;
+
+    /**
+     * The output each team has left in the game.
+     */
+    private final LimitedPrintStream.Budget outputBudget;
+
+    /**
+     * Loads the team's classes; null until the first robot is spawned.
+     */
+    private TrustedClassLoader loader;
+
+    /**
+     * Creates RobotPlayers; null until the first robot is spawned, or if
+     * the team couldn't be loaded.
+     */
+    private Constructor<? extends TurnPlayer> playerConstructor;
+
+    /**
+     * Whether we've failed to load the team.
+     */
+    private boolean loadFailed;
+
+    /**
+     * The players controlling each robot, by id.
+     */
+    private final Map<Integer, TrustedPlayer> players;
+
+    /**
+     * Create a new TrustedControlProvider.
+     *
+     * @param team             the team we're controlling
+     * @param teamPackage      the name / package of the team we're loading
+     * @param teamURL          the url of the classes for the team, or null
+     *                         to use the engine's classpath
+     * @param robotOut         the output that robots should write to
+     * @param outputBudget     the output each team has left in the game
+     * @param nanosPerBytecode how many nanoseconds of running time count
+     *                         as one bytecode
+     */
+    public TrustedControlProvider(Team team,
+                                  String teamPackage,
+                                  String teamURL,
+                                  OutputStream robotOut,
+                                  LimitedPrintStream.Budget outputBudget,
+                                  double nanosPerBytecode) {
+        this.team = team;
+        this.teamPackage = teamPackage;
+        this.teamURL = teamURL;
+        this.robotOut = robotOut;
+        this.outputBudget = outputBudget;
+        this.nanosPerBytecode = nanosPerBytecode;
+        this.players = new HashMap<>();
+    }
+
+    @Override
+    public void matchStarted(GameWorld world) {}
+
+    @Override
+    public void matchEnded() {
+        players.clear();
+    }
+
+    @Override
+    public void gameEnded() {
+        if (loader != null) {
+            try {
+                loader.close();
+            } catch (IOException e) {
+                // nothing else will use it
+            }
+            loader = null;
+        }
+    }
+
+    @Override
+    public void robotSpawned(InternalRobot robot) {
+        // Load the team now, so that loading isn't charged to a turn; a
+        // robot whose team can't be loaded is terminated on its first turn.
+        getPlayerConstructor();
+        players.put(robot.getID(), new TrustedPlayer(createOut()));
+    }
+
+    /**
+     * @return a new System.out for a robot
+     */
+    private PrintStream createOut() {
+        final Config options = Config.getGlobalConfig();
+        if (team == Team.A && options.getBoolean("bc.engine.silence-a")
+                || team == Team.B && options.getBoolean("bc.engine.silence-b")) {
+            return SilencedPrintStream.theInstance();
+        }
+        try {
+            return new RoboPrintStream(robotOut, options.getBoolean("bc.server.robot-player-to-system-out"),
+                    outputBudget);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("UTF-8 isn't supported on this system??", e);
+        }
+    }
+
+    /**
+     * Construct a robot's player. Called during its turn, so that the
+     * time it takes is charged, and anything it prints is the robot's.
+     *
+     * @return the player, or null if it couldn't be created
+     */
+    private TurnPlayer createPlayer() {
+        final Constructor<? extends TurnPlayer> constructor = getPlayerConstructor();
+        if (constructor == null) {
+            return null;
+        }
+        try {
+            return constructor.newInstance();
+        } catch (InvocationTargetException e) {
+            ErrorReporter.report(e.getCause(), false);
+        } catch (ReflectiveOperationException e) {
+            ErrorReporter.report(e, true);
+        } catch (Throwable e) {
+            // e.g. the player's static initializer failed
+            ErrorReporter.report(e, false);
+        }
+        return null;
+    }
+
+    /**
+     * @return the constructor for the team's RobotPlayer, or null if it
+     *         can't be loaded
+     */
+    private Constructor<? extends TurnPlayer> getPlayerConstructor() {
+        if (playerConstructor != null || loadFailed) {
+            return playerConstructor;
+        }
+        final String playerClass = teamPackage + "." + PLAYER_CLASS_NAME;
+        try {
+            loader = new TrustedClassLoader(teamPackage, teamURL == null ? null : toURL(teamURL),
+                    getClass().getClassLoader());
+            Class<?> cls = loader.loadClass(playerClass);
+            if (!TurnPlayer.class.isAssignableFrom(cls)) {
+                throw new IllegalArgumentException(playerClass + " must implement "
+                        + TurnPlayer.class.getName() + " in trusted mode");
+            }
+            playerConstructor = cls.asSubclass(TurnPlayer.class).getConstructor();
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalArgumentException
+                | MalformedURLException | LinkageError e) {
+            loadFailed = true;
+            ErrorReporter.report("Error while loading trusted player " + teamPackage + ": " + e,
+                    "Make sure " + playerClass + " implements TurnPlayer and has a public no-argument constructor.\n"
+                    + "Make sure the bc.game.team-a.url and bc.game.team-b.url are configured correctly.");
+        }
+        return playerConstructor;
+    }
+
+    private static URL toURL(String urlOrRelative) throws MalformedURLException {
+        try {
+            return new URL(urlOrRelative);
+        } catch (MalformedURLException e) {
+            // okay, it might be a local file
+            return new File(urlOrRelative).toURI().toURL();
+        }
+    }
+
+    @Override
+    public void robotsSpawned() {}
+
+    @Override
+    public void robotKilled(InternalRobot robot) {
+        players.remove(robot.getID());
+    }
+
+    @Override
+    public void roundStarted() {}
+
+    @Override
+    public void roundEnded() {}
+
+    @Override
+    public void runRobot(InternalRobot robot) {
+        final TrustedPlayer player = players.get(robot.getID());
+        if (player == null || player.terminated) {
+            return;
+        }
+        if (player.out instanceof RoboPrintStream) {
+            ((RoboPrintStream) player.out).updateHeader(team, robot.getID(), robot.getController().getRoundNum());
+        }
+
+        final int limit = robot.getBytecodeLimit();
+        if (player.overrun >= limit) {
+            // Still paying for an earlier turn.
+            player.overrun -= limit;
+            player.bytecodesUsed = limit;
+            return;
+        }
+
+        final TrustedTurn turn = new TrustedTurn(player.overrun, limit, nanosPerBytecode, player.out);
+        turn.begin();
+        try {
+            if (player.player == null) {
+                player.player = createPlayer();
+            }
+            if (player.player != null) {
+                player.player.takeTurn(robot.getController());
+            } else {
+                player.terminated = true;
+            }
+        } catch (Throwable e) {
+            // Anything the player throws ends only this robot, never the match.
+            ErrorReporter.report(e, false);
+            player.terminated = true;
+        }
+        final long used = turn.end();
+
+        player.bytecodesUsed = (int) Math.min(used, limit);
+        player.overrun = used - player.bytecodesUsed;
+    }
+
+    @Override
+    public int getBytecodesUsed(InternalRobot robot) {
+        final TrustedPlayer player = players.get(robot.getID());
+        return player == null ? 0 : player.bytecodesUsed;
+    }
+
+    @Override
+    public boolean getTerminated(InternalRobot robot) {
+        final TrustedPlayer player = players.get(robot.getID());
+        return player == null || player.terminated;
+    }
+
+    /**
+     * The state of a single robot's player.
+     */
+    private static final class TrustedPlayer {
+        final PrintStream out;
+
+        /**
+         * Null until the robot's first turn.
+         */
+        TurnPlayer player;
+        boolean terminated;
+
+        /**
+         * The bytecodes the robot has been charged for this turn.
+         */
+        int bytecodesUsed;
+
+        /**
+         * Bytecodes used beyond the limit, charged against later turns.
+         */
+        long overrun;
+
+        TrustedPlayer(PrintStream out) {
+            this.out = out;
+        }
+    }
+}
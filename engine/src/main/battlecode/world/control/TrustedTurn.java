@@ -0,0 +1,86 @@
+package battlecode.world.control;
+
+import java.io.PrintStream;
+
+/**
+ * The turn a trusted player (bc.engine.trusted-mode) is taking on the
+ * current thread.
+ *
+ * Trusted players run uninstrumented on the engine's thread, so the
+ * engine's own Clock and System.out belong to no robot. TrustedClassLoader
+ * points the players' calls to Clock, and their reads of System.out and
+ * System.err, at the static methods here instead.
+ */
+public final class TrustedTurn {
+
+    private static final ThreadLocal<TrustedTurn> current = new ThreadLocal<>();
+
+    private final long startTime;
+    private final long overrun;
+    private final int bytecodeLimit;
+    private final double nanosPerBytecode;
+    private final PrintStream out;
+
+    /**
+     * @param overrun          bytecodes already charged to the turn
+     * @param bytecodeLimit    the robot's bytecode limit
+     * @param nanosPerBytecode how many nanoseconds of running time count
+     *                         as one bytecode
+     * @param out              the robot's System.out
+     */
+    TrustedTurn(long overrun, int bytecodeLimit, double nanosPerBytecode, PrintStream out) {
+        this.startTime = System.nanoTime();
+        this.overrun = overrun;
+        this.bytecodeLimit = bytecodeLimit;
+        this.nanosPerBytecode = nanosPerBytecode;
+        this.out = out;
+    }
+
+    /**
+     * Make this the current thread's turn, until end() is called.
+     */
+    void begin() {
+        current.set(this);
+    }
+
+    /**
+     * @return the bytecodes used so far this turn, including the overrun
+     */
+    long end() {
+        current.remove();
+        return bytecodesUsed();
+    }
+
+    private long bytecodesUsed() {
+        return overrun + (long) ((System.nanoTime() - startTime) / nanosPerBytecode);
+    }
+
+    // Called by player code, in place of Clock and System.out
+
+    @SuppressWarnings("unused")
+    public static void yield() {
+        throw new IllegalStateException("Clock.yield() can't be used in trusted mode; return from takeTurn instead");
+    }
+
+    @SuppressWarnings("unused")
+    public static int getBytecodesLeft() {
+        final TrustedTurn turn = current.get();
+        return turn == null ? 0 : turn.bytecodeLimit - getBytecodeNum();
+    }
+
+    @SuppressWarnings("unused")
+    public static int getBytecodeNum() {
+        final TrustedTurn turn = current.get();
+        return turn == null ? 0 : (int) Math.min(turn.bytecodesUsed(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the current robot's System.out, or the real one on threads
+     *         that aren't taking a turn
+     */
+    @SuppressWarnings("unused")
+    public static PrintStream out() {
+        final TrustedTurn turn = current.get();
+        return turn == null ? System.out : turn.out;
+    }
+}
@@ -0,0 +1,34 @@
+package battlecode.world.control;
+
+import battlecode.common.GameActionException;
+import battlecode.common.RobotController;
+
+/**
+ * An alternative entry point for players, used only when the engine runs in
+ * trusted mode (bc.engine.trusted-mode), e.g. for self-play.
+ *
+ * In trusted mode, your <code>RobotPlayer</code> class must implement this
+ * interface and have a public no-argument constructor. A new
+ * <code>RobotPlayer</code> is constructed for every robot, and its
+ * {@link #takeTurn} method is called once per turn; returning from it ends
+ * the turn, the way <code>Clock.yield()</code> does in normal mode. Keep
+ * per-robot state in instance fields: every robot on a team shares the
+ * team's static fields in trusted mode.
+ *
+ * Trusted mode doesn't count bytecodes: <code>Clock.getBytecodeNum()</code>
+ * and <code>Clock.getBytecodesLeft()</code> report the running time of the
+ * turn, converted into bytecodes, and <code>Clock.yield()</code> throws,
+ * since only returning can end a turn.
+ */
+public interface TurnPlayer {
+
+    /**
+     * Take a single turn. An exception thrown out of this method
+     * terminates the robot, as one thrown out of <code>run</code> would in
+     * normal mode.
+     *
+     * @param rc the controller for this robot
+     * @throws GameActionException if an action fails
+     */
+    void takeTurn(RobotController rc) throws GameActionException;
+}
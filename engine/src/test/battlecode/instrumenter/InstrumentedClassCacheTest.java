@@ -0,0 +1,187 @@
+package battlecode.instrumenter;
+
+import battlecode.server.Config;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the on-disk cache of instrumented classes.
+ */
+public class InstrumentedClassCacheTest {
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    private Path dir;
+    private URL team;
+    private byte[] classBytes;
+    private String oldCacheDir;
+
+    @Before
+    public void setup() throws Exception {
+        dir = temp.getRoot().toPath();
+        team = new File(URLUtils.toTempFolder("testplayerclock/RobotPlayer.class")).toURI().toURL();
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream("testplayerclock/RobotPlayer.class")) {
+            classBytes = IOUtils.toByteArray(in);
+        }
+        oldCacheDir = Config.getGlobalConfig().get("bc.engine.class-cache-dir");
+    }
+
+    @After
+    public void restoreConfig() {
+        Config.getGlobalConfig().set("bc.engine.class-cache-dir", oldCacheDir);
+    }
+
+    private InstrumentedClassCache open() {
+        final InstrumentedClassCache cache = InstrumentedClassCache.open(dir.toString(), team);
+        assertNotNull(cache);
+        return cache;
+    }
+
+    private String key(InstrumentedClassCache cache) {
+        return cache.key(classBytes, true, false, false, false, false);
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        final InstrumentedClassCache cache = open();
+        final String key = key(cache);
+        assertNull(cache.get(key));
+
+        cache.put(key, classBytes);
+        assertArrayEquals(classBytes, cache.get(key));
+        // Another process with the same engine and team finds it too
+        assertEquals(key, key(open()));
+        assertArrayEquals(classBytes, open().get(key));
+
+        // Flags and teams are part of the key
+        assertNotEquals(key, cache.key(classBytes, true, false, false, true, false));
+        final URL otherTeam = new File(URLUtils.toTempFolder(
+                "testplayerclock/RobotPlayer.class", "testplayerempty/RobotPlayer.class")).toURI().toURL();
+        assertNotEquals(key, key(InstrumentedClassCache.open(dir.toString(), otherTeam)));
+    }
+
+    /**
+     * A second factory loading the same team should find every class the
+     * first one instrumented, and write nothing new.
+     */
+    @Test
+    public void testHitWhileLoading() throws Exception {
+        Config.getGlobalConfig().set("bc.engine.class-cache-dir", dir.toString());
+
+        new TeamClassLoaderFactory(team.getPath()).createLoader(false).loadClass("testplayerclock.RobotPlayer");
+        final Set<Path> written = entries();
+        assertFalse(written.isEmpty());
+
+        final Class<?> cls = new TeamClassLoaderFactory(team.getPath()).createLoader(false)
+                .loadClass("testplayerclock.RobotPlayer");
+        assertEquals("testplayerclock.RobotPlayer", cls.getName());
+        assertEquals(written, entries());
+    }
+
+    @Test
+    public void testCorruptEntry() throws Exception {
+        final InstrumentedClassCache cache = open();
+        final String key = key(cache);
+        final Path path = cache.pathOf(key);
+
+        cache.put(key, classBytes);
+        final byte[] entry = Files.readAllBytes(path);
+
+        // Truncated
+        Files.write(path, Arrays.copyOf(entry, entry.length - 1));
+        assertNull(cache.get(key));
+
+        // A changed byte in the middle of the class
+        final byte[] changed = entry.clone();
+        changed[classBytes.length / 2] ^= 1;
+        Files.write(path, changed);
+        assertNull(cache.get(key));
+
+        // Not a class at all
+        Files.write(path, "not a class".getBytes("UTF-8"));
+        assertNull(cache.get(key));
+        Files.write(path, new byte[0]);
+        assertNull(cache.get(key));
+
+        // Replaced the next time the class is instrumented
+        cache.put(key, classBytes);
+        assertArrayEquals(classBytes, cache.get(key));
+    }
+
+    /**
+     * Two processes writing the same entry at once: a reader sees either
+     * no entry or the whole class, and nothing is left behind.
+     */
+    @Test(timeout = 60_000)
+    public void testTwoWriters() throws Exception {
+        final InstrumentedClassCache[] writers = { open(), open() };
+        final InstrumentedClassCache reader = open();
+        final String key = key(reader);
+
+        final ExecutorService pool = Executors.newFixedThreadPool(writers.length + 1);
+        try {
+            final List<Future<?>> writes = new ArrayList<>();
+            for (InstrumentedClassCache writer : writers) {
+                writes.add(pool.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        writer.put(key, classBytes);
+                    }
+                }));
+            }
+            final Future<Integer> reads = pool.submit(() -> {
+                int hits = 0;
+                while (!writes.stream().allMatch(Future::isDone)) {
+                    final byte[] read = reader.get(key);
+                    if (read != null) {
+                        assertArrayEquals(classBytes, read);
+                        hits++;
+                    }
+                }
+                return hits;
+            });
+            for (Future<?> write : writes) {
+                write.get();
+            }
+            reads.get();
+        } finally {
+            pool.shutdown();
+        }
+
+        assertArrayEquals(classBytes, reader.get(key));
+        final Set<Path> entries = entries();
+        assertEquals(Integer.toString(entries.size()), 1, entries.size());
+    }
+
+    /**
+     * @return every file in the cache directory
+     */
+    private Set<Path> entries() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).collect(Collectors.toCollection(TreeSet::new));
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package battlecode.instrumenter;
+
+import battlecode.instrumenter.inject.IdentityHashed;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+
+import java.util.Arrays;
+
+import static battlecode.instrumenter.InstrumentationException.Type.ILLEGAL;
+import static org.junit.Assert.*;
+
+/**
+ * Checks what the instrumenter does to the sample classes.
+ */
+public class InstrumenterTest {
+
+    private TeamClassLoaderFactory factory;
+    private TeamClassLoaderFactory.Loader loader;
+
+    @Before
+    public void setupLoader() throws Exception {
+        factory = new TeamClassLoaderFactory(URLUtils.toTempFolder(
+                "instrumentertest/DoesntOverrideHashCode.class",
+                "instrumentertest/UsesReservedName.class"
+        ));
+        loader = factory.createLoader(false);
+    }
+
+    private ClassReader instrument(String name) {
+        return new ClassReader(loader.instrument(factory.teamReader(name), true, false));
+    }
+
+    @Test
+    public void testIdentityHashed() {
+        final String identityHashed = IdentityHashed.class.getName().replace('.', '/');
+        assertTrue(Arrays.asList(instrument("instrumentertest.DoesntOverrideHashCode").getInterfaces())
+                .contains(identityHashed));
+    }
+
+    @Test
+    public void testReservedNames() {
+        try {
+            instrument("instrumentertest.UsesReservedName");
+            fail("Members named __bc_* should be rejected");
+        } catch (InstrumentationException e) {
+            assertEquals(ILLEGAL, e.type);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package battlecode.instrumenter;
+
+import battlecode.common.RobotController;
+import battlecode.common.Team;
+import battlecode.instrumenter.stream.LimitedPrintStream;
+import battlecode.instrumenter.stream.SilencedPrintStream;
+import battlecode.server.Config;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks how many platform threads paused robot players hold on to.
+ */
+public class RobotThreadsTest {
+
+    private static final int ROBOTS = 200;
+
+    private TeamClassLoaderFactory factory;
+    private RobotController rc;
+    private String oldMode;
+
+    @Before
+    public void setup() throws Exception {
+        factory = new TeamClassLoaderFactory(URLUtils.toTempFolder("testplayerclock/RobotPlayer.class"));
+
+        rc = mock(RobotController.class);
+        when(rc.getTeam()).thenReturn(Team.A);
+        oldMode = Config.getGlobalConfig().get("bc.engine.robot-threads");
+    }
+
+    @After
+    public void restoreMode() {
+        Config.getGlobalConfig().set("bc.engine.robot-threads", oldMode);
+    }
+
+    @Test(timeout = 60_000)
+    public void testPlatformThreads() {
+        Config.getGlobalConfig().set("bc.engine.robot-threads", RobotThreads.PLATFORM);
+        assertTrue(pausedPlayerThreads() >= ROBOTS);
+    }
+
+    @Test(timeout = 60_000)
+    public void testVirtualThreads() {
+        Assume.assumeTrue("virtual threads need Java 21", RobotThreads.virtualAvailable());
+        Config.getGlobalConfig().set("bc.engine.robot-threads", RobotThreads.VIRTUAL);
+        // Paused virtual threads are unmounted; only the carriers remain
+        assertTrue(pausedPlayerThreads() <= Runtime.getRuntime().availableProcessors() + 1);
+    }
+
+    /**
+     * @return how many more live platform threads there are with ROBOTS
+     *         players paused in the middle of their turns than without
+     */
+    private int pausedPlayerThreads() {
+        final int before = ManagementFactory.getThreadMXBean().getThreadCount();
+        final List<SandboxedRobotPlayer> players = new ArrayList<>();
+        for (int i = 0; i < ROBOTS; i++) {
+            SandboxedRobotPlayer player = new SandboxedRobotPlayer("testplayerclock",
+                    rc, 0, factory.createLoader(false), SilencedPrintStream.theInstance(),
+                    new LimitedPrintStream.Budget(-1), null);
+            player.setBytecodeLimit(10000);
+            player.step();
+            assertFalse(player.getTerminated());
+            players.add(player);
+        }
+        final int during = ManagementFactory.getThreadMXBean().getThreadCount();
+        for (SandboxedRobotPlayer player : players) {
+            player.terminate();
+            assertTrue(player.getTerminated());
+        }
+        return during - before;
+    }
+}
@@ -3,14 +3,18 @@ package battlecode.instrumenter;
 import battlecode.common.MapLocation;
 import battlecode.common.RobotController;
 import battlecode.common.Team;
+import battlecode.instrumenter.stream.LimitedPrintStream;
 import battlecode.instrumenter.stream.SilencedPrintStream;
 import battlecode.server.Config;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -26,7 +30,8 @@ import static org.mockito.Mockito.*;
 public class SandboxedRobotPlayerTest {
 
     static String tempClassFolder;
-   /* @BeforeClass
+
+    @BeforeClass
     public static void setupFolder() throws Exception {
         tempClassFolder = URLUtils.toTempFolder(
                 "testplayeractions/RobotPlayer.class",
@@ -39,8 +44,10 @@ public class SandboxedRobotPlayerTest {
                 "testplayerloopforever/RobotPlayer.class",
                 "testplayermultiarraybytecode/RobotPlayer.class",
                 "testplayernodebug/RobotPlayer.class",
+                "testplayerresettable/RobotPlayer.class",
+                "testplayerresettable/RobotPlayer$Role.class",
+                "testplayerresettable/RobotPlayer$1.class",
                 "testplayerstatic/RobotPlayer.class",
-                "testplayersuicide/RobotPlayer.class",
                 "testplayersystem/RobotPlayer.class",
                 "testplayersystemout/RobotPlayer.class",
                 "testplayerusesshared/RobotPlayer.class",
@@ -50,30 +57,54 @@ public class SandboxedRobotPlayerTest {
 
     static PrintStream out = SilencedPrintStream.theInstance();
 
+    /**
+     * Config values the tests change, to put back afterwards.
+     */
+    private static final String[] CHANGED_KEYS = {
+            "bc.engine.coalesced-bytecodes",
+            "bc.engine.debug-methods",
+            "bc.engine.pooled-sandboxes",
+            "bc.server.robot-player-to-system-out"
+    };
+
     TeamClassLoaderFactory factory;
-    TeamClassLoaderFactory.Loader loader;
     RobotController rc;
+    private final String[] oldValues = new String[CHANGED_KEYS.length];
 
     @Before
     public void setupController() throws Exception {
+        for (int i = 0; i < CHANGED_KEYS.length; i++) {
+            oldValues[i] = Config.getGlobalConfig().get(CHANGED_KEYS[i]);
+        }
+
         // Uses the "mockito" library to create a mock RobotController object,
         // so that we don't have to create a GameWorld and all that
         rc = mock(RobotController.class);
 
         // SandboxedRobotPlayer uses rc.getTeam; tell it we're team A
         when(rc.getTeam()).thenReturn(Team.A);
-        when(rc.getType()).thenReturn(RobotType.HQ); // TODO?!
         when(rc.getID()).thenReturn(0);
         when(rc.getLocation()).thenReturn(new MapLocation(0, 0));
         when(rc.getRoundNum()).thenReturn(0);
 
         factory = new TeamClassLoaderFactory(tempClassFolder);
-        loader = factory.createLoader();
+    }
+
+    @After
+    public void restoreConfig() {
+        for (int i = 0; i < CHANGED_KEYS.length; i++) {
+            Config.getGlobalConfig().set(CHANGED_KEYS[i], oldValues[i]);
+        }
+    }
+
+    private SandboxedRobotPlayer player(String teamName) {
+        return new SandboxedRobotPlayer(teamName, rc, 0, factory.createLoader(false), out,
+                new LimitedPrintStream.Budget(-1), null);
     }
 
     @Test
     public void testLifecycleEmptyPlayer() throws Exception {
-        SandboxedRobotPlayer player = new SandboxedRobotPlayer("testplayerempty", rc, 0, loader, out);
+        SandboxedRobotPlayer player = player("testplayerempty");
 
         player.setBytecodeLimit(10000);
 
@@ -86,7 +117,7 @@ public class SandboxedRobotPlayerTest {
 
     @Test
     public void testRobotControllerMethodsCalled() throws Exception {
-        SandboxedRobotPlayer player = new SandboxedRobotPlayer("testplayeractions", rc, 0, loader, out);
+        SandboxedRobotPlayer player = player("testplayeractions");
 
         player.setBytecodeLimit(10000);
 
@@ -100,27 +131,23 @@ public class SandboxedRobotPlayerTest {
         verify(rc).senseNearbyRobots();
     }
 
-    // @Test
-    // public void testYield() throws Exception {
-    //     SandboxedRobotPlayer player = new SandboxedRobotPlayer("testplayerclock", rc, 0, loader, out);
-    //     player.setBytecodeLimit(10000);
-
-    //     player.step();
-
-    //     assertFalse(player.getTerminated());
+    @Test
+    public void testYield() throws Exception {
+        SandboxedRobotPlayer player = player("testplayerclock");
+        player.setBytecodeLimit(10000);
 
-    //     player.step();
+        player.step();
 
-    //     assertFalse(player.getTerminated());
+        assertFalse(player.getTerminated());
 
-    //     player.step();
+        player.step();
 
-    //     assertTrue(player.getTerminated());
-    // }
+        assertTrue(player.getTerminated());
+    }
 
     @Test
     public void testBytecodeCountingWorks() throws Exception {
-        SandboxedRobotPlayer player = new SandboxedRobotPlayer("testplayerloopforever", rc, 0, loader, out);
+        SandboxedRobotPlayer player = player("testplayerloopforever");
         player.setBytecodeLimit(100);
 
         player.step();
@@ -130,19 +157,20 @@ public class SandboxedRobotPlayerTest {
 
         assertFalse(player.getTerminated());
 
+        player.terminate();
     }
 
-    @Test(timeout=300)
+    @Test(timeout=1000)
     public void testAvoidDeadlocks() throws Exception {
-        SandboxedRobotPlayer player = new SandboxedRobotPlayer("testplayersuicide", rc, 0, loader, out);
+        SandboxedRobotPlayer player = player("testplayeractions");
         player.setBytecodeLimit(10);
 
-        // Attempt to kill the player when it calls "disintegrate"
+        // Attempt to kill the player when it calls "resign"
         // This used to deadlock because both step() and terminate() were synchronized.
         doAnswer(invocation -> {
             player.terminate();
             return null;
-        }).when(rc).disintegrate();
+        }).when(rc).resign();
 
         player.step();
 
@@ -152,7 +180,7 @@ public class SandboxedRobotPlayerTest {
 
     @Test
     public void testStaticInitialization() throws Exception {
-        SandboxedRobotPlayer player = new SandboxedRobotPlayer("testplayerstatic", rc, 0, loader, out);
+        SandboxedRobotPlayer player = player("testplayerstatic");
         player.setBytecodeLimit(10000);
 
         // Player calls "yield" in static initializer
@@ -166,7 +194,7 @@ public class SandboxedRobotPlayerTest {
 
     @Test
     public void testBytecodeOveruse() throws Exception {
-        SandboxedRobotPlayer player = new SandboxedRobotPlayer("testplayerbytecode", rc, 0, loader, out);
+        SandboxedRobotPlayer player = player("testplayerbytecode");
         player.setBytecodeLimit(200);
 
         for (int i = 0; i < 10; i++) {
@@ -178,60 +206,61 @@ public class SandboxedRobotPlayerTest {
         assertTrue(player.getTerminated());
     }
 
-
     @Test
     public void testArrayLooping() throws Exception {
-        SandboxedRobotPlayer player = new SandboxedRobotPlayer("testplayerarray", rc, 0, loader, out);
+        SandboxedRobotPlayer player = player("testplayerarray");
         player.setBytecodeLimit(10000);
 
         player.step();
         player.step();
+
+        player.terminate();
     }
 
     @Test
     public void testArrayBytecode() throws Exception {
-        SandboxedRobotPlayer player = new SandboxedRobotPlayer("testplayerarraybytecode", rc, 0, loader, out);
+        SandboxedRobotPlayer player = player("testplayerarraybytecode");
         player.setBytecodeLimit(10000);
 
-	int[] bytecodesUsed = new int[4];
-	
+        int[] bytecodesUsed = new int[4];
+
         for (int i = 0; i < 4; i++) {
             player.step();
-	    player.step();
+            player.step();
             assertFalse(player.getTerminated());
-	    bytecodesUsed[i] = player.getBytecodesUsed();
+            bytecodesUsed[i] = player.getBytecodesUsed();
         }
 
-	int baseBytecodes = 2*bytecodesUsed[0] - bytecodesUsed[1];
-	int[] expectedBytecode = {2, 4, 8, 16};
+        int baseBytecodes = 2*bytecodesUsed[0] - bytecodesUsed[1];
+        int[] expectedBytecode = {2, 4, 8, 16};
+
+        for (int i = 0; i < 4; i++)
+            assertEquals(baseBytecodes + expectedBytecode[i], bytecodesUsed[i]);
 
-	for (int i = 0; i < 4; i++)
-	    assertTrue(bytecodesUsed[i] == baseBytecodes + expectedBytecode[i]);
-	    
         player.step();
         assertTrue(player.getTerminated());
     }
 
     @Test
     public void testMultiArrayBytecode() throws Exception {
-        SandboxedRobotPlayer player = new SandboxedRobotPlayer("testplayermultiarraybytecode", rc, 0, loader, out);
+        SandboxedRobotPlayer player = player("testplayermultiarraybytecode");
         player.setBytecodeLimit(10000);
 
-	int[] bytecodesUsed = new int[4];
-	
+        int[] bytecodesUsed = new int[4];
+
         for (int i = 0; i < 4; i++) {
             player.step();
-	    player.step();
+            player.step();
             assertFalse(player.getTerminated());
-	    bytecodesUsed[i] = player.getBytecodesUsed();
+            bytecodesUsed[i] = player.getBytecodesUsed();
         }
 
-	int baseBytecodes = (6*bytecodesUsed[0] - bytecodesUsed[1]) / 5;
-	int[] expectedBytecode = {24, 144, 864, 5184};
+        int baseBytecodes = (6*bytecodesUsed[0] - bytecodesUsed[1]) / 5;
+        int[] expectedBytecode = {24, 144, 864, 5184};
+
+        for (int i = 0; i < 4; i++)
+            assertEquals(baseBytecodes + expectedBytecode[i], bytecodesUsed[i]);
 
-	for (int i = 0; i < 4; i++)
-	    assertTrue(bytecodesUsed[i] == baseBytecodes + expectedBytecode[i]);
-	
         player.step();
         assertTrue(player.getTerminated());
     }
@@ -240,7 +269,7 @@ public class SandboxedRobotPlayerTest {
     public void testBcTesting() throws Exception {
         Config.getGlobalConfig().set("bc.testing.should.terminate", "true");
 
-        SandboxedRobotPlayer player = new SandboxedRobotPlayer("testplayersystem", rc, 0, loader, out);
+        SandboxedRobotPlayer player = player("testplayersystem");
         player.setBytecodeLimit(200);
 
         player.step();
@@ -251,7 +280,7 @@ public class SandboxedRobotPlayerTest {
     public void testDebugMethodsEnabled() throws Exception {
         Config.getGlobalConfig().set("bc.engine.debug-methods", "true");
 
-        SandboxedRobotPlayer player = new SandboxedRobotPlayer("testplayerdebug", rc, 0, loader, out);
+        SandboxedRobotPlayer player = player("testplayerdebug");
         player.setBytecodeLimit(100);
 
         player.step();
@@ -262,7 +291,7 @@ public class SandboxedRobotPlayerTest {
     public void testDebugMethodsDisabled() throws Exception {
         Config.getGlobalConfig().set("bc.engine.debug-methods", "false");
 
-        SandboxedRobotPlayer player = new SandboxedRobotPlayer("testplayernodebug", rc, 0, loader, out);
+        SandboxedRobotPlayer player = player("testplayernodebug");
         player.setBytecodeLimit(200);
 
         player.step();
@@ -271,26 +300,127 @@ public class SandboxedRobotPlayerTest {
 
     @Test
     public void testUseShared() throws Exception {
-        SandboxedRobotPlayer player = new SandboxedRobotPlayer("testplayerusesshared", rc, 0, loader, out);
+        SandboxedRobotPlayer player = player("testplayerusesshared");
         player.setBytecodeLimit(200);
         player.step();
         assertTrue(player.getTerminated());
     }
-    */
-    // @Test
-    // public void testPlayerSystemOut() throws Exception {
-    //     ByteArrayOutputStream out = new ByteArrayOutputStream();
-    //     PrintStream outPrinter = new PrintStream(out, false, "UTF-8");
-    //     SandboxedRobotPlayer player = new SandboxedRobotPlayer("testplayersystemout", rc, 0, loader,
-    //             outPrinter);
-    //     player.setBytecodeLimit(200);
-    //     player.step();
-    //     assertTrue(player.getTerminated());
-
-    //     //outPrinter.flush();
-    //     //out.flush();
-
-    //     assertEquals("[A:ARCHON#0@0] I LOVE MEMES\nthis shouldn't have a header\n",
-    //             out.toString("UTF-8"));
-    // }
+
+    @Test
+    public void testPlayerSystemOut() throws Exception {
+        Config.getGlobalConfig().set("bc.server.robot-player-to-system-out", "false");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SandboxedRobotPlayer player = new SandboxedRobotPlayer("testplayersystemout", rc, 0,
+                factory.createLoader(false), out, new LimitedPrintStream.Budget(-1), null);
+        player.setBytecodeLimit(200);
+        player.step();
+        assertTrue(player.getTerminated());
+
+        assertEquals("[A: #0@0] I LOVE MEMES\n[A: #0@0] this shouldn't have a header\n",
+                out.toString("UTF-8"));
+    }
+
+    /**
+     * Coalesced accounting charges bytecodes at fewer points, but every
+     * turn that stays within its limit should count the same.
+     */
+    @Test
+    public void testCoalescedBytecodes() throws Exception {
+        final String[] teams = {
+                "testplayeractions",
+                "testplayerarraybytecode",
+                "testplayerbytecode",
+                "testplayerclock",
+                "testplayerdebug",
+                "testplayerempty",
+                "testplayermultiarraybytecode",
+                "testplayerstatic",
+                "testplayerusesshared"
+        };
+        for (String debugMethods : new String[] {"false", "true"}) {
+            Config.getGlobalConfig().set("bc.engine.debug-methods", debugMethods);
+            for (String team : teams) {
+                assertEquals(team + ", debug methods " + debugMethods,
+                        bytecodesPerTurn(team, false, 10000), bytecodesPerTurn(team, true, 10000));
+            }
+        }
+    }
+
+    /**
+     * A turn that runs over its limit may be charged more with coalesced
+     * accounting, but the player must still be paused and killed on the
+     * same turns.
+     */
+    @Test
+    public void testCoalescedBytecodeOveruse() throws Exception {
+        assertEquals(turnsUntilTerminated("testplayerbytecode", false, 200),
+                turnsUntilTerminated("testplayerbytecode", true, 200));
+        assertEquals(11, turnsUntilTerminated("testplayerbytecode", true, 200));
+    }
+
+    /**
+     * A pooled sandbox whose statics (including enum constants) have been
+     * reset should behave like a fresh one.
+     */
+    @Test
+    public void testResetStatics() throws Exception {
+        Config.getGlobalConfig().set("bc.engine.pooled-sandboxes", "true");
+        Config.getGlobalConfig().set("bc.server.robot-player-to-system-out", "false");
+        factory = new TeamClassLoaderFactory(tempClassFolder);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final SandboxedRobotPlayer player = new SandboxedRobotPlayer("testplayerresettable", rc, 0,
+                factory.createLoader(false), out, new LimitedPrintStream.Budget(-1), null);
+        player.setBytecodeLimit(10000);
+        player.step();
+        assertTrue(player.getTerminated());
+        final String fresh = out.toString("UTF-8");
+        assertEquals("[A: #0@0] builder 1 [0, 1, 0] [turn 1] {BUILDER=1} [BUILDER] 0\n", fresh);
+
+        for (int i = 0; i < 2; i++) {
+            assertTrue(player.resetStatics());
+            out.reset();
+            player.recycle(rc, 0, null);
+            player.setBytecodeLimit(10000);
+            player.step();
+            assertTrue(player.getTerminated());
+            assertEquals(fresh, out.toString("UTF-8"));
+        }
+        player.retire();
+    }
+
+    /**
+     * Run a player until it ends, with a fresh factory.
+     *
+     * @return the bytecodes it used on each turn
+     */
+    private List<Integer> bytecodesPerTurn(String team, boolean coalesced, int limit) {
+        final List<Integer> turns = new ArrayList<>();
+        final SandboxedRobotPlayer player = newPlayer(team, coalesced);
+        player.setBytecodeLimit(limit);
+        while (!player.getTerminated()) {
+            assertTrue(team + " should end", turns.size() < 100);
+            player.step();
+            turns.add(player.getBytecodesUsed());
+        }
+        return turns;
+    }
+
+    private int turnsUntilTerminated(String team, boolean coalesced, int limit) {
+        final SandboxedRobotPlayer player = newPlayer(team, coalesced);
+        player.setBytecodeLimit(limit);
+        int turns = 0;
+        while (!player.getTerminated()) {
+            assertTrue(team + " should end", turns < 100);
+            player.step();
+            turns++;
+        }
+        return turns;
+    }
+
+    private SandboxedRobotPlayer newPlayer(String team, boolean coalesced) {
+        Config.getGlobalConfig().setBoolean("bc.engine.coalesced-bytecodes", coalesced);
+        factory = new TeamClassLoaderFactory(tempClassFolder);
+        return player(team);
+    }
 }
@@ -0,0 +1,85 @@
+package battlecode.instrumenter;
+
+import battlecode.server.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for defining team classes without code or state once per team.
+ */
+public class SharedClassAnalyzerTest {
+
+    private String oldShareStateless;
+    private TeamClassLoaderFactory factory;
+
+    @Before
+    public void setup() throws Exception {
+        oldShareStateless = Config.getGlobalConfig().get("bc.engine.share-stateless-classes");
+        Config.getGlobalConfig().set("bc.engine.share-stateless-classes", "true");
+        factory = new TeamClassLoaderFactory(URLUtils.toTempFolder(
+                "instrumentertest/Stateless.class",
+                "instrumentertest/RefersToStateless.class",
+                "instrumentertest/HasCode.class",
+                "instrumentertest/HasState.class",
+                "instrumentertest/RefersToHasCode.class",
+                "instrumentertest/Nothing.class"
+        ));
+    }
+
+    @After
+    public void restoreConfig() {
+        Config.getGlobalConfig().set("bc.engine.share-stateless-classes", oldShareStateless);
+    }
+
+    /**
+     * @return whether two robots get the same class
+     */
+    private boolean isShared(String name) throws ClassNotFoundException {
+        final TeamClassLoaderFactory.Loader first = factory.createLoader(false);
+        final TeamClassLoaderFactory.Loader second = factory.createLoader(false);
+        final Class<?> cls = first.loadClass(name);
+        assertEquals(name, cls.getName());
+        return cls == second.loadClass(name);
+    }
+
+    @Test
+    public void testStateless() throws Exception {
+        assertTrue(isShared("instrumentertest.Stateless"));
+        assertEquals(1, factory.getSharedClassCount());
+        // Defined once, by neither robot
+        final Class<?> cls = factory.createLoader(false).loadClass("instrumentertest.Stateless");
+        assertFalse(cls.getClassLoader() instanceof TeamClassLoaderFactory.Loader);
+        // Nothing else of the team was looked at
+        assertFalse(factory.hasCached("instrumentertest.HasCode"));
+
+        assertTrue(isShared("instrumentertest.RefersToStateless"));
+        assertEquals(2, factory.getSharedClassCount());
+    }
+
+    @Test
+    public void testCodeOrState() throws Exception {
+        assertFalse(isShared("instrumentertest.HasCode"));
+        assertFalse(isShared("instrumentertest.HasState"));
+        assertFalse(isShared("instrumentertest.Nothing"));
+        assertEquals(0, factory.getSharedClassCount());
+    }
+
+    @Test
+    public void testRefersToUnshared() throws Exception {
+        assertFalse(isShared("instrumentertest.RefersToHasCode"));
+        // Decided along with it
+        assertTrue(factory.hasCached("instrumentertest.HasCode"));
+        assertFalse(isShared("instrumentertest.HasCode"));
+        assertEquals(0, factory.getSharedClassCount());
+    }
+
+    @Test
+    public void testOff() throws Exception {
+        Config.getGlobalConfig().set("bc.engine.share-stateless-classes", "false");
+        factory = new TeamClassLoaderFactory(URLUtils.toTempFolder("instrumentertest/Stateless.class"));
+        assertFalse(isShared("instrumentertest.Stateless"));
+    }
+}
@@ -0,0 +1,65 @@
+package battlecode.instrumenter;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks that TurnHandoff lets exactly one of the engine and the player run
+ * at a time, and hands control over once per turn.
+ */
+public class TurnHandoffTest {
+
+    private static final int TURNS = 10_000;
+
+    @Test(timeout = 30_000)
+    public void testTurnsAlternate() throws Exception {
+        for (int spins : new int[] {0, 100}) {
+            alternate(spins);
+        }
+    }
+
+    private static void alternate(int spins) throws Exception {
+        final TurnHandoff handoff = new TurnHandoff(spins);
+        // Each side only touches these on its own turn; the handoff has to
+        // publish them to the other side.
+        final int[] playerTurns = {0};
+        final int[] engineTurns = {0};
+        final AtomicInteger running = new AtomicInteger();
+        final boolean[] overlapped = {false};
+
+        Thread player = new Thread(() -> {
+            try {
+                for (int i = 0; i < TURNS; i++) {
+                    if (running.incrementAndGet() != 1 || engineTurns[0] != i) {
+                        overlapped[0] = true;
+                    }
+                    playerTurns[0]++;
+                    running.decrementAndGet();
+                    handoff.yieldToEngine();
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                handoff.release();
+            }
+        });
+        handoff.start(player);
+        for (int i = 0; i < TURNS; i++) {
+            if (running.incrementAndGet() != 1) {
+                overlapped[0] = true;
+            }
+            assertEquals(i + 1, playerTurns[0]);
+            engineTurns[0]++;
+            running.decrementAndGet();
+            handoff.runPlayer();
+        }
+        player.join();
+
+        assertEquals(TURNS, playerTurns[0]);
+        assertFalse("engine and player ran at the same time", overlapped[0]);
+    }
+}
@@ -0,0 +1,110 @@
+package battlecode.instrumenter.bytecode;
+
+import battlecode.instrumenter.InstrumentationException;
+import battlecode.instrumenter.TeamClassLoaderFactory;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.objectweb.asm.ClassReader.SKIP_DEBUG;
+
+/**
+ * Checks MethodCostUtil's per-class tables against the lookup they replaced,
+ * which went through a single map keyed by "class/method" strings.
+ */
+public class MethodCostUtilTest {
+
+    /**
+     * Every MethodCosts.txt entry, keyed the old way.
+     */
+    private final Map<String, MethodCostUtil.MethodData> costs = new HashMap<>();
+    private final Set<String> classNames = new TreeSet<>();
+    private final Set<String> methodNames = new TreeSet<>();
+
+    public MethodCostUtilTest() throws Exception {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                MethodCostUtil.class.getResourceAsStream("resources/MethodCosts.txt")))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                StringTokenizer st = new StringTokenizer(line);
+                String key = st.nextToken();
+                int split = key.lastIndexOf('/');
+                classNames.add(key.substring(0, split));
+                methodNames.add(key.substring(split + 1));
+                costs.put(key, new MethodCostUtil.MethodData(
+                        Integer.parseInt(st.nextToken()), Boolean.parseBoolean(st.nextToken())));
+            }
+        }
+    }
+
+    @Test
+    public void testEveryEntry() {
+        assertFalse(costs.isEmpty());
+        for (Map.Entry<String, MethodCostUtil.MethodData> entry : costs.entrySet()) {
+            String key = entry.getKey();
+            int split = key.lastIndexOf('/');
+            assertSameData(key, entry.getValue(),
+                    MethodCostUtil.getMethodData(key.substring(0, split), key.substring(split + 1)));
+        }
+    }
+
+    @Test
+    public void testMatchesStringKeyLookup() {
+        Set<String> lookedUp = new TreeSet<>(classNames);
+        // Classes without entries of their own, which only inherit them
+        lookedUp.addAll(Arrays.asList("java/util/ArrayList", "java/util/HashMap", "java/util/TreeSet",
+                "java/lang/StringBuilder", "java/util/ArrayDeque", "java/util/PriorityQueue"));
+
+        for (String className : lookedUp) {
+            String[] interfaces;
+            try {
+                ClassReader cr = TeamClassLoaderFactory.normalReader(className);
+                InterfaceReader ir = new InterfaceReader(null);
+                cr.accept(ir, SKIP_DEBUG);
+                interfaces = ir.getInterfaces();
+            } catch (InstrumentationException e) {
+                // The old lookup only answered for the class's own entries.
+                interfaces = new String[0];
+            }
+            for (String methodName : methodNames) {
+                assertSameData(className + "/" + methodName,
+                        stringKeyLookup(className, methodName, interfaces),
+                        MethodCostUtil.getMethodData(className, methodName));
+            }
+        }
+    }
+
+    @Test
+    public void testArrays() {
+        assertNull(MethodCostUtil.getMethodData("[I", "clone"));
+    }
+
+    private MethodCostUtil.MethodData stringKeyLookup(String className, String methodName, String[] interfaces) {
+        MethodCostUtil.MethodData data = costs.get(className + "/" + methodName);
+        if (data != null) {
+            return data;
+        }
+        for (String anInterface : interfaces) {
+            data = costs.get(anInterface + "/" + methodName);
+            if (data != null) {
+                return data;
+            }
+        }
+        return null;
+    }
+
+    private static void assertSameData(String method, MethodCostUtil.MethodData expected,
+                                       MethodCostUtil.MethodData actual) {
+        if (expected == null) {
+            assertNull(method, actual);
+            return;
+        }
+        assertNotNull(method, actual);
+        assertEquals(method, expected.cost, actual.cost);
+        assertEquals(method, expected.shouldEndRound, actual.shouldEndRound);
+    }
+}
@@ -0,0 +1,102 @@
+package battlecode.instrumenter.inject;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that team objects, whose identity hash codes live in the objects,
+ * get the same codes as they would through ObjectMethods' map.
+ */
+public class ObjectMethodsTest {
+
+    @Before
+    public void reset() {
+        ObjectMethods.reset();
+    }
+
+    @Test
+    public void testOneSequence() {
+        final Object[] objects = {
+                new TeamObject(), new Object(), new Object(), new TeamObject(), new TeamObject(), new Object()
+        };
+        // Codes are handed out in the order objects are first hashed,
+        // whichever way they're stored.
+        for (int i = 0; i < objects.length; i++) {
+            assertEquals(i, ObjectMethods.identityHashCode(objects[i]));
+        }
+        for (int i = objects.length - 1; i >= 0; i--) {
+            assertEquals(i, ObjectMethods.identityHashCode(objects[i]));
+        }
+        assertEquals(objects.length, ObjectMethods.identityHashCode(new TeamObject()));
+        assertEquals("object3", ObjectMethods.identityToString(objects[3]));
+    }
+
+    @Test
+    public void testReset() {
+        final TeamObject first = new TeamObject();
+        final Object second = new Object();
+        final TeamObject third = new TeamObject();
+        assertEquals(0, ObjectMethods.identityHashCode(first));
+        assertEquals(1, ObjectMethods.identityHashCode(second));
+        assertEquals(2, ObjectMethods.identityHashCode(third));
+
+        // A reset sandbox hands out codes as if it were fresh, even to
+        // objects that still hold a code from before.
+        ObjectMethods.reset();
+        assertEquals(0, ObjectMethods.identityHashCode(third));
+        assertEquals(1, ObjectMethods.identityHashCode(second));
+        assertEquals(2, ObjectMethods.identityHashCode(first));
+        assertEquals(0, ObjectMethods.identityHashCode(third));
+        assertEquals(2, ObjectMethods.identityHashCode(first));
+    }
+
+    /**
+     * A copy made by Object.clone() gets a code of its own, as it would
+     * through the map.
+     */
+    @Test
+    public void testClone() throws CloneNotSupportedException {
+        final TeamObject original = new TeamObject();
+        assertEquals(0, ObjectMethods.identityHashCode(original));
+
+        // What instrumented team code does with the result of clone()
+        final TeamObject copy = (TeamObject) ObjectMethods.cloned(original, original.clone());
+        assertEquals(1, ObjectMethods.identityHashCode(copy));
+        assertEquals(0, ObjectMethods.identityHashCode(original));
+        assertEquals(2, ObjectMethods.identityHashCode(new TeamObject()));
+
+        // clone() returning the object itself keeps its code
+        assertSame(original, ObjectMethods.cloned(original, original));
+        assertEquals(0, ObjectMethods.identityHashCode(original));
+
+        // and a copy of an object that was never hashed has nothing to forget
+        final TeamObject unhashed = new TeamObject();
+        assertEquals(3, ObjectMethods.identityHashCode(ObjectMethods.cloned(unhashed, unhashed.clone())));
+        assertEquals(4, ObjectMethods.identityHashCode(unhashed));
+    }
+
+    /**
+     * What the instrumenter makes of a team class that doesn't override hashCode().
+     */
+    private static final class TeamObject implements IdentityHashed, Cloneable {
+        private long identityHash;
+
+        @Override
+        protected TeamObject clone() throws CloneNotSupportedException {
+            return (TeamObject) super.clone();
+        }
+
+        @Override
+        public long __bc_getIdentityHash() {
+            return identityHash;
+        }
+
+        @Override
+        public void __bc_setIdentityHash(long hash) {
+            identityHash = hash;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package battlecode.instrumenter.profiler;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for laying out sampled stacks.
+ */
+public class CallTreeTest {
+
+    private static final int BYTECODES_PER_SAMPLE = 10;
+
+    private static String describe(long[] events) {
+        final List<String> described = new ArrayList<>();
+        for (long event : events) {
+            described.add((Profiler.isOpenEvent(event) ? "O" : "C")
+                    + Profiler.eventFrameId(event) + "@" + Profiler.eventAt(event));
+        }
+        return String.join(" ", described);
+    }
+
+    /**
+     * Builds:
+     * <pre>
+     * A (2 samples)
+     *   B (3)
+     *   C (0)
+     *     D (1)
+     *   E (0, nothing below it)
+     * F (4)
+     * </pre>
+     * Siblings are laid out newest first, children before their parent's
+     * own samples, and nodes without samples anywhere below are left out.
+     */
+    @Test
+    public void testToEvents() throws IOException {
+        final int a = FrameRegistry.idOf("calltreetest.A.a");
+        final int b = FrameRegistry.idOf("calltreetest.B.b");
+        final int c = FrameRegistry.idOf("calltreetest.C.c");
+        final int d = FrameRegistry.idOf("calltreetest.D.d");
+        final int e = FrameRegistry.idOf("calltreetest.E.e");
+        final int f = FrameRegistry.idOf("calltreetest.F.f");
+
+        final CallTree tree = new CallTree();
+        final int nodeA = tree.enter(CallTree.ROOT, a);
+        final int nodeB = tree.enter(nodeA, b);
+        tree.addSamples(nodeB, 1);
+        assertEquals(nodeA, tree.exit(nodeB));
+        tree.addSamples(nodeA, 2);
+        final int nodeC = tree.enter(nodeA, c);
+        tree.addSamples(tree.enter(nodeC, d), 1);
+        tree.enter(nodeA, e);
+        // The same call again is the same node
+        assertEquals(nodeB, tree.enter(nodeA, b));
+        tree.addSamples(nodeB, 2);
+        tree.addSamples(tree.enter(CallTree.ROOT, f), 4);
+        assertEquals(CallTree.ROOT, tree.exit(CallTree.ROOT));
+
+        final ProfilerCollection collection = new ProfilerCollection(null, BYTECODES_PER_SAMPLE);
+        final long[] events = tree.toEvents(collection, BYTECODES_PER_SAMPLE);
+
+        // Frame ids are given out in the order frames are first laid out
+        assertEquals(Arrays.asList("calltreetest.F.f", "calltreetest.A.a", "calltreetest.C.c",
+                "calltreetest.D.d", "calltreetest.B.b"), collection.getFrames());
+        assertEquals("O0@0 C0@40 "
+                        + "O1@40 O2@40 O3@40 C3@50 C2@50 O4@50 C4@80 C1@100",
+                describe(events));
+
+        final StringWriter folded = new StringWriter();
+        tree.writeFolded(folded);
+        assertEquals("calltreetest.A.a 2\n"
+                        + "calltreetest.A.a;calltreetest.B.b 3\n"
+                        + "calltreetest.A.a;calltreetest.C.c;calltreetest.D.d 1\n"
+                        + "calltreetest.F.f 4\n",
+                folded.toString());
+    }
+
+    @Test
+    public void testEmpty() {
+        final CallTree tree = new CallTree();
+        tree.enter(tree.enter(CallTree.ROOT, FrameRegistry.idOf("calltreetest.A.a")),
+                FrameRegistry.idOf("calltreetest.B.b"));
+        final ProfilerCollection collection = new ProfilerCollection(null, BYTECODES_PER_SAMPLE);
+        assertEquals(0, tree.toEvents(collection, BYTECODES_PER_SAMPLE).length);
+        assertTrue(collection.getFrames().isEmpty());
+    }
+}
@@ -0,0 +1,135 @@
+package battlecode.instrumenter.profiler;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for streaming profiles through a spill file.
+ */
+public class ProfilerCollectionTest {
+
+    private static final Pattern EVENT = Pattern.compile(
+            "\\{\"type\":\"([OC])\",\"frame\":(\\d+),\"at\":(\\d+)\\}");
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    private Path dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = temp.getRoot().toPath();
+    }
+
+    /**
+     * Run a robot through nested calls, and record the events it should
+     * produce.
+     *
+     * @param collection the robot's collection
+     * @param profiler   the robot's profiler
+     * @param calls      how many calls to make
+     * @param expected   the events, as written to the speedscope file
+     */
+    private static void run(ProfilerCollection collection, Profiler profiler, int calls, List<String> expected) {
+        final int outer = FrameRegistry.idOf("test.Outer.run");
+        final int inner = FrameRegistry.idOf("test.Inner.step");
+        int at = 0;
+
+        profiler.enterMethod(outer);
+        expected.add("O " + collection.getFrameId(outer) + " " + at);
+        for (int i = 0; i < calls; i++) {
+            profiler.incrementBytecodes(3);
+            at += 3;
+            profiler.enterMethod(inner);
+            expected.add("O " + collection.getFrameId(inner) + " " + at);
+            profiler.incrementBytecodes(i % 7);
+            at += i % 7;
+            profiler.exitMethod(inner);
+            expected.add("C " + collection.getFrameId(inner) + " " + at);
+        }
+        // Still open when the robot ends
+        profiler.exitOpenMethods();
+        expected.add("C " + collection.getFrameId(outer) + " " + at);
+    }
+
+    /**
+     * @return the events of each profile in a speedscope file
+     */
+    private static List<List<String>> readEvents(Path file) throws IOException {
+        final String json = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        final List<List<String>> profiles = new ArrayList<>();
+        for (String profile : json.split("\\{\"type\":\"evented\"")) {
+            if (!profile.contains("\"events\":[")) {
+                continue;
+            }
+            final List<String> events = new ArrayList<>();
+            final Matcher m = EVENT.matcher(profile);
+            while (m.find()) {
+                events.add(m.group(1) + " " + m.group(2) + " " + m.group(3));
+            }
+            profiles.add(events);
+        }
+        return profiles;
+    }
+
+    /**
+     * Events spilled in several blocks, by robots taking turns, come back
+     * the way they were recorded.
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        final ProfilerCollection collection = new ProfilerCollection(dir.resolve("spill"), 0);
+        assertTrue(collection.isStreaming());
+
+        final Profiler a = collection.createProfiler(1);
+        final Profiler b = collection.createProfiler(2);
+        final List<String> expectedA = new ArrayList<>();
+        final List<String> expectedB = new ArrayList<>();
+        // Enough calls for several blocks each
+        run(collection, a, 20_000, expectedA);
+        run(collection, b, 5, expectedB);
+        assertTrue(a.getSpilledBlockCount() > 1);
+
+        final Path out = dir.resolve("profile.speedscope.json");
+        collection.writeSpeedscope(out, "test");
+
+        final List<List<String>> profiles = readEvents(out);
+        assertEquals(2, profiles.size());
+        assertEquals(expectedA, profiles.get(0));
+        assertEquals(expectedB, profiles.get(1));
+    }
+
+    /**
+     * If events can't be spilled, no profile is written rather than one
+     * that's missing them.
+     */
+    @Test
+    public void testSpillFailure() throws IOException {
+        // A file where the spill directory should be
+        final Path notADirectory = Files.createFile(dir.resolve("spill"));
+        final ProfilerCollection collection = new ProfilerCollection(notADirectory, 0);
+        run(collection, collection.createProfiler(1), 20_000, new ArrayList<>());
+
+        final Path out = dir.resolve("profile.speedscope.json");
+        try {
+            collection.writeSpeedscope(out, "test");
+            fail("wrote an incomplete profile");
+        } catch (IOException e) {
+            // expected
+        }
+        assertFalse(Files.exists(out));
+    }
+}
@@ -0,0 +1,10 @@
+package instrumentertest;
+
+/**
+ * Has code, which has to charge bytecodes to its own robot.
+ */
+public interface HasCode {
+    default int get() {
+        return Stateless.SEVEN;
+    }
+}
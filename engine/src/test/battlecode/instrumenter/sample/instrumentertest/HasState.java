@@ -0,0 +1,8 @@
+package instrumentertest;
+
+/**
+ * Has a field that isn't a constant.
+ */
+public interface HasState {
+    int[] TABLE = new int[1];
+}
@@ -0,0 +1,8 @@
+package instrumentertest;
+
+/**
+ * Has no code or state itself, but refers to a class that has.
+ */
+public interface RefersToHasCode {
+    HasCode get();
+}
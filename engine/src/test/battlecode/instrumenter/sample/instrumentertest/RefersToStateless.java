@@ -0,0 +1,8 @@
+package instrumentertest;
+
+/**
+ * Only refers to a class that can be shared, so it can be shared too.
+ */
+public interface RefersToStateless {
+    Stateless next();
+}
@@ -0,0 +1,10 @@
+package instrumentertest;
+
+/**
+ * Has no code or state, so every robot of a team can share it.
+ */
+public interface Stateless {
+    int SEVEN = 7;
+
+    int get(String s);
+}
@@ -0,0 +1,9 @@
+package instrumentertest;
+
+/**
+ * Declares a member with a name the instrumenter keeps for itself.
+ */
+@SuppressWarnings("unused")
+public class UsesReservedName {
+    public static boolean __bc_ready;
+}
@@ -1,4 +1,4 @@
-package battlecode.instrumenter.sample.shared;
+package shared;
 
 /**
  * @author james
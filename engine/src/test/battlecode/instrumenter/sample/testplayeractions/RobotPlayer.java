@@ -1,4 +1,4 @@
-package battlecode.instrumenter.sample.testplayeractions;
+package testplayeractions;
 
 import battlecode.common.*;
 
@@ -1,4 +1,4 @@
-package battlecode.instrumenter.sample.testplayerarray;
+package testplayerarray;
 
 import battlecode.common.GameActionException;
 import battlecode.common.RobotController;
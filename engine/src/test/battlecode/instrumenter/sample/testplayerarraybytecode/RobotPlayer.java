@@ -1,4 +1,4 @@
-package battlecode.instrumenter.sample.testplayerarraybytecode;
+package testplayerarraybytecode;
 
 import battlecode.common.RobotController;
 import battlecode.common.Clock;
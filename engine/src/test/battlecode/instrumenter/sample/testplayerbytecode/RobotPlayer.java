@@ -1,4 +1,4 @@
-package battlecode.instrumenter.sample.testplayerbytecode;
+package testplayerbytecode;
 
 import battlecode.common.RobotController;
 
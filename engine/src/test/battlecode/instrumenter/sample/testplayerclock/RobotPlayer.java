@@ -1,4 +1,4 @@
-package battlecode.instrumenter.sample.testplayerclock;
+package testplayerclock;
 
 import battlecode.common.Clock;
 import battlecode.common.Direction;
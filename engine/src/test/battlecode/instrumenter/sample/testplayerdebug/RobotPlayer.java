@@ -1,4 +1,4 @@
-package battlecode.instrumenter.sample.testplayerdebug;
+package testplayerdebug;
 
 import battlecode.common.RobotController;
 
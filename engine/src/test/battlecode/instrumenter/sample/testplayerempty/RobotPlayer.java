@@ -1,5 +1,5 @@
 // Javac will move this into the correct package in the build output
-package battlecode.instrumenter.sample.testplayerempty;
+package testplayerempty;
 
 import battlecode.common.RobotController;
 
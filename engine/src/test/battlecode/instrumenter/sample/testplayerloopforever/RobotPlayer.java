@@ -1,4 +1,4 @@
-package battlecode.instrumenter.sample.testplayerloopforever;
+package testplayerloopforever;
 
 import battlecode.common.RobotController;
 
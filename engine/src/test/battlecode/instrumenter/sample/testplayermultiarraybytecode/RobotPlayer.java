@@ -1,4 +1,4 @@
-package battlecode.instrumenter.sample.testplayermultiarraybytecode;
+package testplayermultiarraybytecode;
 
 import battlecode.common.RobotController;
 import battlecode.common.Clock;
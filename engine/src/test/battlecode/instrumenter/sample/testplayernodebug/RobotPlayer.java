@@ -1,4 +1,4 @@
-package battlecode.instrumenter.sample.testplayernodebug;
+package testplayernodebug;
 
 import battlecode.common.RobotController;
 
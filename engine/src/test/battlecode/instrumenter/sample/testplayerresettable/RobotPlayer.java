@@ -0,0 +1,55 @@
+package testplayerresettable;
+
+import battlecode.common.RobotController;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps state in statics, enum constants and JDK collections, and prints
+ * it; a reset sandbox should print the same as a fresh one.
+ */
+public class RobotPlayer {
+    enum Role {
+        SCOUT, BUILDER, GUARD;
+
+        int assigned;
+    }
+
+    static int turns;
+    static final int[] counts = new int[Role.values().length];
+    static final List<String> log = new ArrayList<>();
+    static final EnumMap<Role, Integer> byRole = new EnumMap<>(Role.class);
+    static final Set<Role> seen = EnumSet.noneOf(Role.class);
+    static final Object marker = new Object();
+
+    @SuppressWarnings("unused")
+    public static void run(RobotController rc) {
+        final Role role = Role.valueOf("BUILDER");
+        role.assigned++;
+        turns++;
+        counts[role.ordinal()]++;
+        log.add("turn " + turns);
+        byRole.put(role, role.assigned);
+        seen.add(role);
+
+        final String name;
+        switch (role) {
+            case SCOUT:
+                name = "scout";
+                break;
+            case BUILDER:
+                name = "builder";
+                break;
+            default:
+                name = "guard";
+        }
+
+        System.out.println(name + " " + turns + " " + Arrays.toString(counts) + " " + log + " "
+                + byRole + " " + seen + " " + marker.hashCode());
+    }
+}
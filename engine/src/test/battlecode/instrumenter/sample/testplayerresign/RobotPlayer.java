@@ -0,0 +1,20 @@
+package testplayerresign;
+
+import battlecode.common.Clock;
+import battlecode.common.RobotController;
+
+/**
+ * Prints every so often, and resigns partway through the match, so that
+ * games against it have a predictable winner.
+ */
+public class RobotPlayer {
+    public static void run(RobotController rc) {
+        while (rc.getRoundNum() < 300) {
+            if (rc.getRoundNum() % 100 == 0) {
+                System.out.println("round " + rc.getRoundNum());
+            }
+            Clock.yield();
+        }
+        rc.resign();
+    }
+}
@@ -1,4 +1,4 @@
-package battlecode.instrumenter.sample.testplayerstatic;
+package testplayerstatic;
 
 import battlecode.common.Clock;
 import battlecode.common.RobotController;
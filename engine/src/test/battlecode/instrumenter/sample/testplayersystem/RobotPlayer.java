@@ -1,4 +1,4 @@
-package battlecode.instrumenter.sample.testplayersystem;
+package testplayersystem;
 
 import battlecode.common.RobotController;
 
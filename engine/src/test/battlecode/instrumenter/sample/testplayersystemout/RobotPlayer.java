@@ -1,4 +1,4 @@
-package battlecode.instrumenter.sample.testplayersystemout;
+package testplayersystemout;
 
 import battlecode.common.RobotController;
 
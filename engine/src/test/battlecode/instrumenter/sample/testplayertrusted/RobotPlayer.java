@@ -0,0 +1,29 @@
+package testplayertrusted;
+
+import battlecode.common.Clock;
+import battlecode.common.GameConstants;
+import battlecode.common.RobotController;
+import battlecode.world.control.TurnPlayer;
+
+/**
+ * A player for trusted mode; what each robot does depends on its id.
+ */
+public class RobotPlayer implements TurnPlayer {
+    private int turns;
+
+    @Override
+    public void takeTurn(RobotController rc) {
+        turns++;
+        switch (rc.getID()) {
+            case 1:
+                System.out.println("turn " + turns + " " + (Clock.getBytecodeNum() >= 0)
+                        + " " + (Clock.getBytecodesLeft() <= GameConstants.BYTECODE_LIMIT));
+                System.err.println("err");
+                break;
+            case 2:
+                throw new AssertionError("not an exception");
+            default:
+                Clock.yield();
+        }
+    }
+}
@@ -1,8 +1,8 @@
-package battlecode.instrumenter.sample.testplayerusesshared;
+package testplayerusesshared;
 
 import battlecode.common.GameActionException;
 import battlecode.common.RobotController;
-import battlecode.instrumenter.sample.shared.SharedUtility;
+import shared.SharedUtility;
 
 /**
  * @author james
@@ -0,0 +1,71 @@
+package battlecode.instrumenter.stream;
+
+import battlecode.common.Team;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for limiting the output of each team in a game.
+ */
+public class LimitedPrintStreamTest {
+
+    private static final String TRUNCATED = "[output truncated due to team output limit]\n";
+
+    private static LimitedPrintStream stream(ByteArrayOutputStream out, LimitedPrintStream.Budget budget,
+                                             Team team) throws Exception {
+        final LimitedPrintStream stream = new LimitedPrintStream(out, true, "UTF-8", budget);
+        stream.setTeam(team);
+        return stream;
+    }
+
+    @Test
+    public void testSharedBudget() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final LimitedPrintStream.Budget budget = new LimitedPrintStream.Budget(10);
+        final LimitedPrintStream first = stream(out, budget, Team.A);
+        final LimitedPrintStream second = stream(out, budget, Team.A);
+        final LimitedPrintStream other = stream(out, budget, Team.B);
+
+        first.print("123456");
+        second.print("789012");
+        assertEquals("1234567890" + TRUNCATED, out.toString("UTF-8"));
+
+        // Reported once per team
+        out.reset();
+        first.print("3");
+        other.print("abc");
+        assertEquals("abc", out.toString("UTF-8"));
+    }
+
+    /**
+     * Games running at the same time, or one after another, have budgets
+     * of their own.
+     */
+    @Test
+    public void testGameBudgets() throws Exception {
+        final ByteArrayOutputStream firstOut = new ByteArrayOutputStream();
+        final ByteArrayOutputStream secondOut = new ByteArrayOutputStream();
+        final LimitedPrintStream first = stream(firstOut, new LimitedPrintStream.Budget(4), Team.A);
+        final LimitedPrintStream second = stream(secondOut, new LimitedPrintStream.Budget(4), Team.A);
+
+        first.print("12345");
+        second.print("abcd");
+        assertEquals("1234" + TRUNCATED, firstOut.toString("UTF-8"));
+        assertEquals("abcd", secondOut.toString("UTF-8"));
+    }
+
+    @Test
+    public void testNoLimit() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final LimitedPrintStream stream = stream(out, new LimitedPrintStream.Budget(-1), Team.B);
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            stream.print("output ");
+            expected.append("output ");
+        }
+        assertEquals(expected.toString(), out.toString("UTF-8"));
+    }
+}
@@ -0,0 +1,95 @@
+package battlecode.server;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for reading BatchRunner manifests.
+ */
+public class BatchRunnerTest {
+
+    private static List<BatchRunner.Match> read(String... lines) throws IOException {
+        final File manifest = File.createTempFile("batch", ".txt");
+        manifest.deleteOnExit();
+        Files.write(manifest.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        return BatchRunner.readManifest(manifest);
+    }
+
+    private static void assertMatch(BatchRunner.Match match, int index, String teamA, String teamB,
+                                    String map, Integer seed) {
+        assertEquals(index, match.index);
+        assertEquals(teamA, match.teamA.pkg);
+        assertEquals(teamB, match.teamB.pkg);
+        assertEquals(map, match.map);
+        assertEquals(seed, match.seed);
+    }
+
+    @Test
+    public void testEveryPairOnBothSides() throws IOException {
+        final List<BatchRunner.Match> matches = read(
+                "# a comment",
+                "team alpha /players/alpha",
+                "",
+                "   team   beta   /players/beta   ",
+                "team gamma /players/gamma",
+                "map Canals"
+        );
+        assertEquals(6, matches.size());
+        assertMatch(matches.get(0), 0, "alpha", "beta", "Canals", null);
+        assertMatch(matches.get(1), 1, "beta", "alpha", "Canals", null);
+        assertMatch(matches.get(2), 2, "alpha", "gamma", "Canals", null);
+        assertMatch(matches.get(3), 3, "gamma", "alpha", "Canals", null);
+        assertMatch(matches.get(4), 4, "beta", "gamma", "Canals", null);
+        assertMatch(matches.get(5), 5, "gamma", "beta", "Canals", null);
+        assertEquals("/players/beta", matches.get(1).teamA.url);
+        assertEquals("/players/alpha", matches.get(1).teamB.url);
+    }
+
+    @Test
+    public void testMapsAndSeeds() throws IOException {
+        final List<BatchRunner.Match> matches = read(
+                "team alpha a.jar",
+                "team beta b.jar",
+                "map Canals",
+                "map Digging",
+                "seed 7",
+                "seed -3"
+        );
+        assertEquals(8, matches.size());
+        assertMatch(matches.get(0), 0, "alpha", "beta", "Canals", 7);
+        assertMatch(matches.get(1), 1, "beta", "alpha", "Canals", 7);
+        assertMatch(matches.get(2), 2, "alpha", "beta", "Canals", -3);
+        assertMatch(matches.get(3), 3, "beta", "alpha", "Canals", -3);
+        assertMatch(matches.get(4), 4, "alpha", "beta", "Digging", 7);
+        assertMatch(matches.get(7), 7, "beta", "alpha", "Digging", -3);
+    }
+
+    @Test
+    public void testNoMatches() throws IOException {
+        assertTrue(read("team alpha a.jar", "map Canals").isEmpty());
+        assertTrue(read("team alpha a.jar", "team beta b.jar").isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadSeed() throws IOException {
+        read("team alpha a.jar", "team beta b.jar", "map Canals", "seed seven");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingUrl() throws IOException {
+        read("team alpha", "team beta b.jar", "map Canals");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownLine() throws IOException {
+        read("teams alpha a.jar");
+    }
+}
@@ -0,0 +1,105 @@
+package battlecode.server;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the daemon's JSON parser.
+ */
+public class JsonTest {
+
+    @Test
+    public void testValues() {
+        assertEquals("a", Json.parse("\"a\""));
+        assertEquals(-1.5e3, Json.parse(" -1.5e3 "));
+        assertEquals(Boolean.TRUE, Json.parse("true"));
+        assertEquals(Boolean.FALSE, Json.parse("false"));
+        assertNull(Json.parse("null"));
+        assertEquals(Collections.emptyList(), Json.parse("[ ]"));
+        assertEquals(Collections.emptyMap(), Json.parse("{ }"));
+    }
+
+    @Test
+    public void testRequest() {
+        Map<?, ?> request = (Map<?, ?>) Json.parse("{\"id\": 7, \"maps\": [\"A\", \"B\"], "
+                + "\"bestOfThree\": false, \"teamAPackage\": null}");
+        assertEquals(7.0, request.get("id"));
+        assertEquals(Arrays.asList("A", "B"), request.get("maps"));
+        assertEquals(Boolean.FALSE, request.get("bestOfThree"));
+        assertTrue(request.containsKey("teamAPackage"));
+        assertNull(request.get("teamAPackage"));
+        assertEquals(Arrays.asList("id", "maps", "bestOfThree", "teamAPackage"),
+                Arrays.asList(request.keySet().toArray()));
+    }
+
+    @Test
+    public void testStrings() {
+        assertEquals("q\"b\\s/\b\f\n\r\t\u00e9", Json.parse("\"q\\\"b\\\\s\\/\\b\\f\\n\\r\\t\\u00e9\""));
+
+        final String odd = "tab\tquote\"slash\\line\nbell\u0007";
+        assertEquals(odd, Json.parse(Json.quote(odd)));
+        assertEquals("null", Json.quote(null));
+    }
+
+    @Test
+    public void testNesting() {
+        List<?> value = (List<?>) Json.parse(nested(Json.MAX_DEPTH));
+        for (int i = 1; i < Json.MAX_DEPTH; i++) {
+            value = (List<?>) value.get(0);
+        }
+        assertEquals(Collections.emptyList(), value);
+
+        assertInvalid(nested(Json.MAX_DEPTH + 1));
+        // Deep enough to overflow the stack without the limit
+        assertInvalid(nested(100_000));
+        assertInvalid(repeat("{\"a\": ", 100_000));
+    }
+
+    @Test
+    public void testInvalid() {
+        assertInvalid("");
+        assertInvalid("   ");
+        assertInvalid("{");
+        assertInvalid("[1,]");
+        assertInvalid("[1 2]");
+        assertInvalid("{\"a\" 1}");
+        assertInvalid("{a: 1}");
+        assertInvalid("{\"a\": 1,}");
+        assertInvalid("\"unterminated");
+        assertInvalid("\"\\x\"");
+        assertInvalid("\"\\u12\"");
+        assertInvalid("\"\\uzzzz\"");
+        assertInvalid("1.2.3");
+        assertInvalid("tru");
+        assertInvalid("nul");
+        assertInvalid("{} {}");
+        assertInvalid("@");
+    }
+
+    private static String nested(int depth) {
+        return repeat("[", depth) + repeat("]", depth);
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder(s.length() * times);
+        for (int i = 0; i < times; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private static void assertInvalid(String text) {
+        try {
+            Json.parse(text);
+            fail("parsed " + (text.length() > 20 ? text.substring(0, 20) + "..." : text));
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package battlecode.server;
+
+import battlecode.common.Team;
+import battlecode.instrumenter.URLUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for running games with Server.
+ */
+public class ServerTest {
+
+    private static final int GAMES = 3;
+
+    /**
+     * Config values the tests change, to put back afterwards.
+     */
+    private static final String[] CHANGED_KEYS = {
+            "bc.server.parallel-games",
+            "bc.server.robot-player-to-system-out"
+    };
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    private String players;
+    private final String[] oldValues = new String[CHANGED_KEYS.length];
+
+    @Before
+    public void setup() throws Exception {
+        players = URLUtils.toTempFolder(
+                "testplayerclock/RobotPlayer.class",
+                "testplayerresign/RobotPlayer.class"
+        );
+        for (int i = 0; i < CHANGED_KEYS.length; i++) {
+            oldValues[i] = Config.getGlobalConfig().get(CHANGED_KEYS[i]);
+        }
+        Config.getGlobalConfig().set("bc.server.parallel-games", Integer.toString(GAMES));
+        Config.getGlobalConfig().set("bc.server.robot-player-to-system-out", "false");
+    }
+
+    @After
+    public void restoreConfig() {
+        for (int i = 0; i < CHANGED_KEYS.length; i++) {
+            Config.getGlobalConfig().set(CHANGED_KEYS[i], oldValues[i]);
+        }
+    }
+
+    private GameInfo game(File saveFile) {
+        return game(saveFile, "DefaultSmall");
+    }
+
+    private GameInfo game(File saveFile, String map) {
+        return new GameInfo(
+                "clock", "testplayerclock", players,
+                "resign", "testplayerresign", players,
+                new String[] {map}, saveFile, false
+        );
+    }
+
+    /**
+     * A server that keeps going after a game fails, like the daemon,
+     * shouldn't report the failure as the state of its later games.
+     */
+    @Test(timeout = 300_000)
+    public void testClearError() throws Exception {
+        final Server server = new Server(Config.getGlobalConfig(), false);
+        final File dir = temp.getRoot();
+
+        assertNull(server.runGame(game(new File(dir, "failed.bc24"), "NoSuchMap"), null));
+        assertEquals(ServerState.ERROR, server.getState());
+
+        server.clearError();
+        assertEquals(Team.A, server.runGame(game(new File(dir, "next.bc24")), null));
+        assertEquals(ServerState.FINISHED, server.getState());
+    }
+
+    /**
+     * Games run at the same time on one server shouldn't affect each
+     * other: each should write the same replay as a game run on its own.
+     */
+    @Test(timeout = 300_000)
+    public void testConcurrentGames() throws Exception {
+        final Server server = new Server(Config.getGlobalConfig(), false);
+        final File dir = temp.getRoot();
+
+        final File alone = new File(dir, "alone.bc24");
+        final Team winner = server.runGame(game(alone), null);
+        assertEquals(Team.A, winner);
+        final byte[] expected = Files.readAllBytes(alone.toPath());
+
+        final ExecutorService pool = Executors.newFixedThreadPool(GAMES);
+        try {
+            final List<Future<Team>> winners = new ArrayList<>();
+            final List<File> saveFiles = new ArrayList<>();
+            for (int i = 0; i < GAMES; i++) {
+                final File saveFile = new File(dir, "together" + i + ".bc24");
+                saveFiles.add(saveFile);
+                winners.add(pool.submit((Callable<Team>) () -> server.runGame(game(saveFile), null)));
+            }
+            for (int i = 0; i < GAMES; i++) {
+                assertEquals(winner, winners.get(i).get());
+                assertArrayEquals("game " + i, expected, Files.readAllBytes(saveFiles.get(i).toPath()));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertNotEquals(ServerState.ERROR, server.getState());
+    }
+}
@@ -0,0 +1,159 @@
+package battlecode.world;
+
+import battlecode.common.MapLocation;
+import gnu.trove.list.array.TIntArrayList;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks Bitboard's radius queries, and their order, against a scan of the
+ * tiles.
+ */
+public class BitboardTest {
+
+    /**
+     * @return a board with about a third of the tiles set, and the same
+     *         tiles as an array
+     */
+    private static Bitboard randomBoard(int width, int height, Random random, boolean[] tiles) {
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = random.nextInt(3) == 0;
+        }
+        final Bitboard board = Bitboard.of(tiles, width, height);
+        for (int i = 0; i < tiles.length; i++) {
+            assertEquals(tiles[i], board.get(i % width, i / width));
+        }
+        return board;
+    }
+
+    @Test
+    public void testMatchesScan() {
+        for (int[] map : RadiusOffsetsTest.MAPS) {
+            final int width = map[0], height = map[1];
+            final Random random = new Random(width * 31 + height);
+            final boolean[] tiles = new boolean[width * height];
+            final boolean[] others = new boolean[width * height];
+            final Bitboard board = randomBoard(width, height, random, tiles);
+            final Bitboard other = randomBoard(width, height, random, others);
+
+            // Bitboards are relative to the map's origin, so the origin
+            // itself makes no difference to them.
+            for (int x : RadiusOffsetsTest.coordinates(width)) {
+                for (int y : RadiusOffsetsTest.coordinates(height)) {
+                    for (int radiusSquared : RadiusOffsetsTest.RADII) {
+                        final String where = width + "x" + height + ", (" + x + ", " + y + "), r^2 "
+                                + radiusSquared;
+                        final int[] disk = RadiusOffsetsTest.scan(width, height, x, y, radiusSquared);
+                        final TIntArrayList set = new TIntArrayList();
+                        final TIntArrayList setNotOther = new TIntArrayList();
+                        for (int index : disk) {
+                            if (tiles[index]) {
+                                set.add(index);
+                                if (!others[index]) {
+                                    setNotOther.add(index);
+                                }
+                            }
+                        }
+
+                        final TIntArrayList visited = new TIntArrayList();
+                        assertTrue(board.forEachWithinRadiusSquared(x, y, radiusSquared, visited::add));
+                        assertEquals(where, set, visited);
+
+                        visited.clear();
+                        assertTrue(Bitboard.forEachWithinRadiusSquared(width, height, x, y, radiusSquared,
+                                (col) -> board.column(col) & ~other.column(col), visited::add));
+                        assertEquals(where, setNotOther, visited);
+
+                        // Every tile of the disk
+                        visited.clear();
+                        assertTrue(Bitboard.forEachWithinRadiusSquared(width, height, x, y, radiusSquared,
+                                (col) -> -1L, visited::add));
+                        assertArrayEquals(where, disk, visited.toArray());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * GameWorld keeps its bread layer in step with the bread on the map.
+     */
+    @Test
+    public void testGameWorld() throws Exception {
+        final LiveMap map = GameMapIO.loadMapAsResource(BitboardTest.class.getClassLoader(),
+                GameMapIO.DEFAULT_MAP_PACKAGE, "DefaultSmall", false);
+        final GameWorld world = new TestGame(map).getWorld();
+        final int width = map.getWidth(), height = map.getHeight();
+        final MapLocation origin = map.getOrigin();
+        // Take some of it away
+        for (int index = 0; index < width * height; index += 3) {
+            world.removeBread(world.indexToLocation(index));
+        }
+        int left = 0;
+        for (int index = 0; index < width * height; index++) {
+            if (world.getBreadAmount(index) != 0) {
+                left++;
+            }
+        }
+        assertTrue(left > 0);
+
+        for (int x : RadiusOffsetsTest.coordinates(width)) {
+            for (int y : RadiusOffsetsTest.coordinates(height)) {
+                for (int radiusSquared : RadiusOffsetsTest.RADII) {
+                    final TIntArrayList expected = new TIntArrayList();
+                    for (int index : RadiusOffsetsTest.scan(width, height, x, y, radiusSquared)) {
+                        if (world.getBreadAmount(index) != 0) {
+                            expected.add(index);
+                        }
+                    }
+                    final TIntArrayList visited = new TIntArrayList();
+                    world.forEachBreadIndexWithinRadiusSquared(new MapLocation(origin.x + x, origin.y + y),
+                            radiusSquared, visited::add);
+                    assertEquals(expected, visited);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testStop() {
+        final Bitboard board = Bitboard.of(new int[]{1, 1, 0, 1, 1, 1, 0, 1, 1}, 3, 3);
+        final TIntArrayList visited = new TIntArrayList();
+        assertFalse(board.forEachWithinRadiusSquared(1, 1, 2, (idx) -> visited.add(idx) && visited.size() < 3));
+        assertArrayEquals(new int[]{0, 3, 1}, visited.toArray());
+    }
+
+    @Test
+    public void testSetAndClear() {
+        final Bitboard board = new Bitboard(5, 64);
+        final Bitboard other = new Bitboard(5, 64);
+        board.set(4, 63);
+        board.set(0, 0);
+        assertTrue(board.get(4, 63));
+        assertEquals(1L << 63, board.column(4));
+        assertFalse(board.intersects(other));
+        other.set(4, 63);
+        assertTrue(board.intersects(other));
+        board.clear(4, 63);
+        assertFalse(board.get(4, 63));
+        assertFalse(board.intersects(other));
+        assertTrue(board.get(0, 0));
+    }
+
+    @Test
+    public void testTooHigh() {
+        try {
+            new Bitboard(1, 65);
+            fail("a column can't hold 65 tiles");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        boolean[] tiles = new boolean[64];
+        Arrays.fill(tiles, true);
+        assertEquals(-1L, Bitboard.of(tiles, 1, 64).column(0));
+    }
+}
@@ -0,0 +1,134 @@
+package battlecode.world;
+
+import battlecode.common.MapLocation;
+import battlecode.common.Team;
+import gnu.trove.list.array.TIntArrayList;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Checks ObjectInfo's index of robot positions against a scan of where the
+ * robots are.
+ */
+public class ObjectInfoTest {
+
+    /**
+     * The size of a chunk, for checking counts by scanning.
+     */
+    private static final int CHUNK_SIZE = 4;
+
+    private static final Team[] TEAMS = {Team.A, Team.B, null};
+
+    private int width;
+    private int height;
+    private MapLocation origin;
+    private ObjectInfo info;
+    private InternalRobot[] robots;
+
+    private void setup(int[] map) {
+        width = map[0];
+        height = map[1];
+        origin = new MapLocation(map[2], map[3]);
+        info = new ObjectInfo(new LiveMap(width, height, origin, 0, 2000, "test"));
+        robots = new InternalRobot[width * height];
+    }
+
+    private void add(InternalRobot robot, int index) {
+        robots[index] = robot;
+        info.addRobotIndex(robot, index);
+    }
+
+    private void remove(int index) {
+        info.clearRobotIndex(robots[index], index);
+        robots[index] = null;
+    }
+
+    @Test
+    public void testMatchesScan() {
+        final GameWorld world = mock(GameWorld.class);
+        for (int[] map : RadiusOffsetsTest.MAPS) {
+            setup(map);
+            final Random random = new Random(width * 31 + height);
+            final List<Integer> occupied = new ArrayList<>();
+            assertMatchesScan();
+
+            // Add
+            for (int i = 0; i < width * height / 3; i++) {
+                final int index = random.nextInt(width * height);
+                if (robots[index] == null) {
+                    add(new InternalRobot(world, i, random.nextBoolean() ? Team.A : Team.B), index);
+                    occupied.add(index);
+                }
+            }
+            assertMatchesScan();
+
+            // Move, sometimes into another chunk
+            for (int i = 0; i < occupied.size(); i += 2) {
+                final int from = occupied.get(i);
+                final int to = random.nextInt(width * height);
+                if (robots[to] == null) {
+                    final InternalRobot robot = robots[from];
+                    remove(from);
+                    add(robot, to);
+                    occupied.set(i, to);
+                }
+            }
+            assertMatchesScan();
+
+            // Remove
+            for (int i = 0; i < occupied.size(); i += 3) {
+                remove(occupied.get(i));
+            }
+            assertMatchesScan();
+        }
+    }
+
+    /**
+     * Check the chunk counts, and every query, against the robots array.
+     */
+    private void assertMatchesScan() {
+        for (int index = 0; index < width * height; index++) {
+            final int chunkX = index % width / CHUNK_SIZE;
+            final int chunkY = index / width / CHUNK_SIZE;
+            for (Team team : new Team[]{Team.A, Team.B}) {
+                int count = 0;
+                for (int x = chunkX * CHUNK_SIZE; x < Math.min((chunkX + 1) * CHUNK_SIZE, width); x++) {
+                    for (int y = chunkY * CHUNK_SIZE; y < Math.min((chunkY + 1) * CHUNK_SIZE, height); y++) {
+                        if (robots[x + y * width] != null && robots[x + y * width].getTeam() == team) {
+                            count++;
+                        }
+                    }
+                }
+                assertEquals(count, info.getChunkRobotCount(team, index));
+            }
+        }
+
+        for (int x : RadiusOffsetsTest.coordinates(width)) {
+            for (int y : RadiusOffsetsTest.coordinates(height)) {
+                final MapLocation center = new MapLocation(origin.x + x, origin.y + y);
+                for (int radiusSquared : RadiusOffsetsTest.RADII) {
+                    final int[] tiles = RadiusOffsetsTest.scan(width, height, x, y, radiusSquared);
+                    for (Team team : TEAMS) {
+                        final TIntArrayList expected = new TIntArrayList();
+                        for (int index : tiles) {
+                            if (robots[index] != null && (team == null || robots[index].getTeam() == team)) {
+                                expected.add(index);
+                            }
+                        }
+                        final TIntArrayList visited = new TIntArrayList();
+                        assertTrue(info.eachRobotIndexWithinRadiusSquared(center, radiusSquared, team,
+                                visited::add));
+                        assertEquals(width + "x" + height + " at " + origin + ", " + center + ", r^2 "
+                                + radiusSquared + ", team " + team, expected, visited);
+                    }
+                }
+            }
+        }
+    }
+}
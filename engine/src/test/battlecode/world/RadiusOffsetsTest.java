@@ -0,0 +1,113 @@
+package battlecode.world;
+
+import battlecode.common.MapLocation;
+import gnu.trove.list.array.TIntArrayList;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the locations RadiusOffsets visits, and their order, against a
+ * scan of the whole map.
+ */
+public class RadiusOffsetsTest {
+
+    /**
+     * Width, height, origin x and origin y of each map.
+     */
+    static final int[][] MAPS = {
+            {1, 1, 0, 0},
+            {17, 9, 0, 0},
+            {30, 64, 13, 21},
+            {60, 60, -5, 100},
+    };
+
+    /**
+     * Every radius the game uses is at most 100; bigger ones have no table.
+     */
+    static final int[] RADII = {
+            -1, 0, 1, 2, 3, 4, 8, 9, 20, 36, 99, 100, 101, 200, 10000, Integer.MAX_VALUE
+    };
+
+    /**
+     * @param size the width or height of a map
+     * @return coordinates, relative to the origin, on the map, near its
+     *         edges and off it
+     */
+    static int[] coordinates(int size) {
+        return new int[]{-11, -10, -2, -1, 0, 1, 2, size / 2, size - 3, size - 2, size - 1, size, size + 1,
+                size + 10, size + 11};
+    }
+
+    /**
+     * @return the index of every location within the radius, by x, then y
+     */
+    static int[] scan(int width, int height, int centerX, int centerY, long radiusSquared) {
+        final TIntArrayList indices = new TIntArrayList();
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                final long dx = x - centerX;
+                final long dy = y - centerY;
+                if (dx * dx + dy * dy <= radiusSquared) {
+                    indices.add(x + y * width);
+                }
+            }
+        }
+        return indices.toArray();
+    }
+
+    @Test
+    public void testMatchesScan() {
+        for (int[] map : MAPS) {
+            final int width = map[0], height = map[1];
+            final MapLocation origin = new MapLocation(map[2], map[3]);
+            for (int x : coordinates(width)) {
+                for (int y : coordinates(height)) {
+                    final MapLocation center = new MapLocation(origin.x + x, origin.y + y);
+                    for (int radiusSquared : RADII) {
+                        final int[] expected = scan(width, height, x, y, radiusSquared);
+                        final TIntArrayList visited = new TIntArrayList();
+                        assertTrue(GameWorld.forEachIndexWithinRadiusSquaredWithoutMap(origin, width, height,
+                                center, radiusSquared, visited::add));
+                        assertArrayEquals(width + "x" + height + " at " + origin + ", " + center + ", r^2 "
+                                + radiusSquared, expected, visited.toArray());
+                        assertTrue(expected.length <= RadiusOffsets.maxCount(radiusSquared, width, height));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testStop() {
+        final int[] expected = scan(17, 9, 8, 4, 20);
+        final TIntArrayList visited = new TIntArrayList();
+        assertFalse(RadiusOffsets.forEachIndex(0, 0, 17, 9, 8, 4, 20,
+                (idx) -> visited.add(idx) && visited.size() < 5));
+        assertArrayEquals(Arrays.copyOf(expected, 5), visited.toArray());
+    }
+
+    /**
+     * GameWorld visits the locations of its own map.
+     */
+    @Test
+    public void testGameWorld() throws Exception {
+        final LiveMap map = GameMapIO.loadMapAsResource(RadiusOffsetsTest.class.getClassLoader(),
+                GameMapIO.DEFAULT_MAP_PACKAGE, "DefaultSmall", false);
+        final GameWorld world = new TestGame(map).getWorld();
+        final MapLocation origin = map.getOrigin();
+        for (int x : coordinates(map.getWidth())) {
+            for (int y : coordinates(map.getHeight())) {
+                for (int radiusSquared : RADII) {
+                    final TIntArrayList visited = new TIntArrayList();
+                    world.forEachIndexWithinRadiusSquared(new MapLocation(origin.x + x, origin.y + y),
+                            radiusSquared, visited::add);
+                    assertArrayEquals(scan(map.getWidth(), map.getHeight(), x, y, radiusSquared),
+                            visited.toArray());
+                }
+            }
+        }
+    }
+}
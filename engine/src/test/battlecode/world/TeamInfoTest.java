@@ -0,0 +1,77 @@
+package battlecode.world;
+
+import battlecode.common.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the team level totals TeamInfo keeps against a scan of every robot.
+ */
+public class TeamInfoTest {
+
+    @Test
+    public void testLevelTotalsMatchScan() throws Exception {
+        LiveMap map = GameMapIO.loadMapAsResource(TeamInfoTest.class.getClassLoader(),
+                GameMapIO.DEFAULT_MAP_PACKAGE, "DefaultSmall", false);
+        TestGame game = new TestGame(map);
+        GameWorld world = game.getWorld();
+        assertTotalsMatchScan(world);
+
+        List<InternalRobot> robots = new ArrayList<>(world.getObjectInfo().robots());
+        SkillType[] skills = SkillType.values();
+        for (int i = 0; i < robots.size(); i++) {
+            InternalRobot robot = robots.get(i);
+            SkillType skill = skills[i % skills.length];
+            for (int j = 0; j < i * 7 % 200; j++) {
+                robot.incrementSkill(skill);
+            }
+        }
+        assertTotalsMatchScan(world);
+
+        for (int i = 0; i < robots.size(); i += 3) {
+            robots.get(i).jailedPenalty();
+            robots.get(i).jailedPenalty();
+        }
+        assertTotalsMatchScan(world);
+
+        for (int i = 0; i < 5; i++) {
+            int id = world.createRobot(i % 2 == 0 ? Team.A : Team.B);
+            world.getObjectInfo().getRobotByID(id).incrementSkill(SkillType.HEAL);
+        }
+        assertTotalsMatchScan(world);
+
+        for (int i = 1; i < robots.size(); i += 4) {
+            world.destroyRobot(robots.get(i).getID());
+        }
+        assertTotalsMatchScan(world);
+    }
+
+    private static void assertTotalsMatchScan(GameWorld world) {
+        for (Team team : new Team[]{Team.A, Team.B}) {
+            int levelSum = 0, tierTwo = 0, tierThree = 0;
+            for (InternalRobot robot : world.getObjectInfo().robots()) {
+                if (robot.getTeam() != team) {
+                    continue;
+                }
+                int maxLevel = 0;
+                for (SkillType skill : SkillType.values()) {
+                    levelSum += robot.getLevel(skill);
+                    maxLevel = Math.max(maxLevel, robot.getLevel(skill));
+                }
+                if (maxLevel == 2) {
+                    tierTwo++;
+                } else if (maxLevel >= 3) {
+                    tierThree++;
+                }
+            }
+            TeamInfo teamInfo = world.getTeamInfo();
+            assertEquals(levelSum, teamInfo.getLevelSum(team));
+            assertEquals(tierTwo, teamInfo.getTierTwo(team));
+            assertEquals(tierThree, teamInfo.getTierThree(team));
+        }
+    }
+}
@@ -137,6 +137,9 @@ public class TestGame {
         @Override
         public void matchEnded() {}
 
+        @Override
+        public void gameEnded() {}
+
         @Override
         public void roundStarted() {}
 
@@ -146,6 +149,9 @@ public class TestGame {
         @Override
         public void robotSpawned(InternalRobot robot) {}
 
+        @Override
+        public void robotsSpawned() {}
+
         @Override
         public void robotKilled(InternalRobot robot) {}
 
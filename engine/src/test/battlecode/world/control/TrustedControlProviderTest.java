@@ -0,0 +1,97 @@
+package battlecode.world.control;
+
+import battlecode.common.Team;
+import battlecode.instrumenter.URLUtils;
+import battlecode.instrumenter.stream.LimitedPrintStream;
+import battlecode.server.Config;
+import battlecode.world.GameWorld;
+import battlecode.world.InternalRobot;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for running trusted players.
+ */
+public class TrustedControlProviderTest {
+
+    /**
+     * Slow enough that no turn goes over its limit.
+     */
+    private static final double NANOS_PER_BYTECODE = 1.0e6;
+
+    private ByteArrayOutputStream robotOut;
+    private TrustedControlProvider provider;
+    private GameWorld world;
+    private int round;
+    private String oldToSystemOut;
+
+    @Before
+    public void setup() throws Exception {
+        oldToSystemOut = Config.getGlobalConfig().get("bc.server.robot-player-to-system-out");
+        Config.getGlobalConfig().set("bc.server.robot-player-to-system-out", "false");
+
+        robotOut = new ByteArrayOutputStream();
+        provider = new TrustedControlProvider(Team.A, "testplayertrusted",
+                URLUtils.toTempFolder("testplayertrusted/RobotPlayer.class"), robotOut,
+                new LimitedPrintStream.Budget(-1), NANOS_PER_BYTECODE);
+        world = mock(GameWorld.class);
+        round = 1;
+        when(world.getCurrentRound()).thenAnswer((invocation) -> round);
+    }
+
+    @After
+    public void teardown() {
+        provider.gameEnded();
+        Config.getGlobalConfig().set("bc.server.robot-player-to-system-out", oldToSystemOut);
+    }
+
+    private InternalRobot robot(int id) {
+        final InternalRobot robot = new InternalRobot(world, id, Team.A);
+        provider.robotSpawned(robot);
+        return robot;
+    }
+
+    /**
+     * The player's System.out, System.err and Clock are the robot's.
+     */
+    @Test
+    public void testRedirected() {
+        final InternalRobot robot = robot(1);
+        provider.runRobot(robot);
+        round++;
+        provider.runRobot(robot);
+
+        assertFalse(provider.getTerminated(robot));
+        assertEquals("[A: #1@1] turn 1 true true\n[A: #1@1] err\n"
+                        + "[A: #1@2] turn 2 true true\n[A: #1@2] err\n",
+                new String(robotOut.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A player that throws anything, or calls Clock.yield(), ends only its
+     * own robot.
+     */
+    @Test
+    public void testFailures() {
+        final InternalRobot good = robot(1);
+        final InternalRobot throwsError = robot(2);
+        final InternalRobot yields = robot(3);
+
+        provider.runRobot(throwsError);
+        provider.runRobot(yields);
+        provider.runRobot(good);
+
+        assertTrue(provider.getTerminated(throwsError));
+        assertTrue(provider.getTerminated(yields));
+        assertFalse(provider.getTerminated(good));
+        assertTrue(provider.getBytecodesUsed(good) >= 0);
+    }
+}